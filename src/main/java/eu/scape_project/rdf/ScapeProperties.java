@@ -0,0 +1,180 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.rdf;
+
+import static eu.scape_project.rdf.ScapeRDFVocabulary.prefix;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Value;
+
+/**
+ * Reads the properties of the {@link ScapeRDFVocabulary} directly from the
+ * JCR nodes they are stored on. Fedora keeps every scape triple of an object
+ * as a JCR property named after the prefixed predicate, so a property can be
+ * read without building an RDF graph of all the object's properties. A
+ * property is read the same way whether it has been stored as a single or as
+ * a multi valued property
+ *
+ * @author frank asseg
+ *
+ */
+public final class ScapeProperties {
+
+    private ScapeProperties() {
+        super();
+    }
+
+    /**
+     * Check if a node has a scape property
+     *
+     * @param node
+     *            the {@link Node} to check
+     * @param property
+     *            the name of the property in the {@link ScapeRDFVocabulary}
+     * @return <code>true</code> if the property exists
+     * @throws RepositoryException
+     *             if the node could not be read
+     */
+    public static boolean has(final Node node, final String property) throws RepositoryException {
+        return node.hasProperty(prefix(property));
+    }
+
+    /**
+     * Get the first value of a scape property
+     *
+     * @param node
+     *            the {@link Node} to read from
+     * @param property
+     *            the name of the property in the {@link ScapeRDFVocabulary}
+     * @return the value or <code>null</code> if the property does not exist
+     * @throws RepositoryException
+     *             if the property could not be read
+     */
+    public static String getString(final Node node, final String property) throws RepositoryException {
+        final String name = prefix(property);
+        if (!node.hasProperty(name)) {
+            return null;
+        }
+        final Property p = node.getProperty(name);
+        if (p.isMultiple()) {
+            final Value[] values = p.getValues();
+            return (values.length == 0) ? null : values[0].getString();
+        }
+        return p.getString();
+    }
+
+    /**
+     * Get the first value of a mandatory scape property
+     *
+     * @param node
+     *            the {@link Node} to read from
+     * @param property
+     *            the name of the property in the {@link ScapeRDFVocabulary}
+     * @return the value
+     * @throws RepositoryException
+     *             if the property does not exist or could not be read
+     */
+    public static String getRequiredString(final Node node, final String property) throws RepositoryException {
+        final String value = getString(node, property);
+        if (value == null) {
+            throw new RepositoryException("No property " + prefix(property) + " on " + node.getPath());
+        }
+        return value;
+    }
+
+    /**
+     * Get all the values of a scape property
+     *
+     * @param node
+     *            the {@link Node} to read from
+     * @param property
+     *            the name of the property in the {@link ScapeRDFVocabulary}
+     * @return a {@link List} of the values, which is empty if the property
+     *         does not exist
+     * @throws RepositoryException
+     *             if the property could not be read
+     */
+    public static List<String> getStrings(final Node node, final String property) throws RepositoryException {
+        final String name = prefix(property);
+        if (!node.hasProperty(name)) {
+            return Collections.emptyList();
+        }
+        final Property p = node.getProperty(name);
+        if (!p.isMultiple()) {
+            return Collections.singletonList(p.getString());
+        }
+        final Value[] values = p.getValues();
+        final List<String> strings = new ArrayList<>(values.length);
+        for (Value v : values) {
+            strings.add(v.getString());
+        }
+        return strings;
+    }
+
+    /**
+     * Get the repository path of an object referenced by a mandatory scape
+     * property, e.g. the current version of an entity
+     *
+     * @param node
+     *            the {@link Node} to read from
+     * @param property
+     *            the name of the property in the {@link ScapeRDFVocabulary}
+     * @return the path of the referenced object
+     * @throws RepositoryException
+     *             if the property does not exist or could not be read
+     */
+    public static String getPath(final Node node, final String property) throws RepositoryException {
+        return toPath(getRequiredString(node, property));
+    }
+
+    /**
+     * Get the repository paths of the objects referenced by a scape property,
+     * e.g. the representations of a version
+     *
+     * @param node
+     *            the {@link Node} to read from
+     * @param property
+     *            the name of the property in the {@link ScapeRDFVocabulary}
+     * @return a {@link List} of the paths
+     * @throws RepositoryException
+     *             if the property could not be read
+     */
+    public static List<String> getPaths(final Node node, final String property) throws RepositoryException {
+        final List<String> uris = getStrings(node, property);
+        final List<String> paths = new ArrayList<>(uris.size());
+        for (String uri : uris) {
+            paths.add(toPath(uri));
+        }
+        return paths;
+    }
+
+    /**
+     * Convert the URI of an object as stored in a property (e.g.
+     * <code>info:fedora/objects/scape/entities/entity-1</code>) to the
+     * object's repository path
+     *
+     * @param uri
+     *            the URI of the object
+     * @return the path of the object
+     */
+    public static String toPath(final String uri) {
+        return uri.substring(uri.indexOf('/'));
+    }
+}
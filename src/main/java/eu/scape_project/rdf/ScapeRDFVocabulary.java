@@ -64,6 +64,12 @@ public final class  ScapeRDFVocabulary {
 
     public static final String HAS_EXEC_STATE = "hasExecState";
 
+    public static final String HAS_EXECUTION_STATE = "hasExecutionState";
+
+    public static final String HAS_TIMESTAMP = "hasTimeStamp";
+
+    public static final String HAS_PLAN_LIFECYCLE_STATE = "hasLifecycleState";
+
     public static final String prefix(String property) {
         return SCAPE_PREFIX + ":" + property;
     }
@@ -23,7 +23,6 @@ import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import javax.xml.bind.JAXBException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
@@ -31,7 +30,6 @@ import org.springframework.stereotype.Component;
 
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
 
 /**
  * JAX-RS Resource for Intellectual Entities This implementation exposes the
@@ -44,23 +42,12 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/entity-async")
 public class AsyncIntellectualEntities {
 
-    private final ScapeMarshaller marshaller;
-
     @Autowired
     private ConnectorService connectorService;
 
     @Inject
     private Session session;
 
-    /**
-     * Creates and initializes a new {@link AsyncIntellectualEntities}
-     *
-     * @throws javax.xml.bind.JAXBException
-     */
-    public AsyncIntellectualEntities() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes the HTTP POST endpoint to ingest an entity asynchronously
      * 
@@ -15,6 +15,7 @@ package eu.scape_project.resource.connector;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Date;
 
 import javax.inject.Inject;
 import javax.jcr.RepositoryException;
@@ -23,6 +24,9 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.xml.bind.JAXBException;
@@ -36,7 +40,8 @@ import eu.scape_project.model.File;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.Representation;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.MarshallerService;
+import eu.scape_project.util.EntityTags;
 
 /**
  * JAX-RS Resource for BitStreams
@@ -49,7 +54,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/bitstream")
 public class Bitstreams {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private MarshallerService marshallerService;
 
     @Autowired
     private ConnectorService connectorService;
@@ -57,10 +63,6 @@ public class Bitstreams {
     @Inject
     private Session session;
 
-    public Bitstreams() throws JAXBException {
-        marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP GET end point to fetch the current Version of a
      * {@link BitStream} from the Connector API implementation
@@ -83,20 +85,10 @@ public class Bitstreams {
     final String entityId, @PathParam("rep-id")
     final String repId, @PathParam("file-id")
     final String fileId, @PathParam("bitstream-id")
-    final String bsId) throws RepositoryException {
-        final String path = "/" + ConnectorService.ENTITY_FOLDER + "/" + entityId + "/" + repId + "/" + fileId + "/" + bsId;
-        final BitStream bs = connectorService.fetchBitStream(session, path);
-        return Response.ok().entity(new StreamingOutput() {
-
-            @Override
-            public void write(OutputStream output) throws IOException, WebApplicationException {
-                try {
-                    Bitstreams.this.marshaller.serialize(bs, output);
-                } catch (JAXBException e) {
-                    throw new IOException(e);
-                }
-            }
-        }).build();
+    final String bsId, @Context
+    final Request request) throws RepositoryException {
+        final int versionId = connectorService.fetchCurrentVersionNumber(this.session, entityId);
+        return bitstreamResponse(entityId, repId, fileId, bsId, versionId, false, request);
     }
 
     /**
@@ -124,28 +116,33 @@ public class Bitstreams {
     final String repId, @PathParam("file-id")
     final String fileId, @PathParam("bitstream-id")
     final String bsId, @PathParam("version-id")
-    final String versionId) throws RepositoryException {
-
-        final String path;
-        if (versionId == null) {
-            path = ConnectorService.ENTITY_FOLDER + "/" + entityId + "/" + repId + "/" + fileId + "/" + bsId;
-
-        } else {
-            path = ConnectorService.ENTITY_FOLDER + "/" + entityId + "/version-" + versionId + "/" + repId + "/" + fileId + "/" + bsId;
+    final int versionId, @Context
+    final Request request) throws RepositoryException {
+        return bitstreamResponse(entityId, repId, fileId, bsId, versionId, true, request);
+    }
 
+    private Response bitstreamResponse(final String entityId, final String repId, final String fileId, final String bsId, final int versionId,
+            final boolean versioned, final Request request) throws RepositoryException {
+        final String resource = repId + "/" + fileId + "/" + bsId;
+        final EntityTag tag = EntityTags.create(entityId, versionId, "bitstream/" + resource);
+        final Date lastModified = connectorService.fetchVersionDate(session, entityId, versionId);
+        final Response.ResponseBuilder notModified = EntityTags.evaluate(request, tag, lastModified, versioned);
+        if (notModified != null) {
+            return notModified.build();
         }
+        final String path = connectorService.resolveVersionPath(session, entityId, versionId, resource);
         final BitStream bs = connectorService.fetchBitStream(session, path);
-        return Response.ok().entity(new StreamingOutput() {
+        return EntityTags.ok(new StreamingOutput() {
 
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException {
                 try {
-                    Bitstreams.this.marshaller.serialize(bs, output);
+                    Bitstreams.this.marshallerService.getMarshaller().serialize(bs, output);
                 } catch (JAXBException e) {
                     throw new IOException(e);
                 }
             }
-        }).build();
+        }, tag, lastModified, versioned).build();
     }
 
 }
@@ -13,17 +13,33 @@
  */
 package eu.scape_project.resource.connector;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import javax.xml.bind.JAXBException;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.apache.commons.io.IOUtils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
@@ -32,8 +48,9 @@ import eu.scape_project.model.File;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.Representation;
 import eu.scape_project.service.ConnectorService;
+import eu.scape_project.util.ByteRange;
 import eu.scape_project.util.ContentTypeInputStream;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.EntityTags;
 
 /**
  * JAX-RS Resource for Files
@@ -46,7 +63,15 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/file")
 public class Files {
 
-    private final ScapeMarshaller marshaller;
+    private static final Logger LOG = LoggerFactory.getLogger(Files.class);
+
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
+
+    private static final String CONTENT_RANGE = "Content-Range";
+
+    private static final int PARTIAL_CONTENT = 206;
+
+    private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
 
     @Autowired
     private ConnectorService connectorService;
@@ -54,10 +79,6 @@ public class Files {
     @Inject
     private Session session;
 
-    public Files() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP GET end point witch returns the current version binary
      * content of a {@link File} or if references are used for files a HTTP
@@ -78,22 +99,14 @@ public class Files {
     public Response retrieveFile(@PathParam("entity-id")
     final String entityId, @PathParam("rep-id")
     final String repId, @PathParam("file-id")
-    final String fileId) throws RepositoryException {
+    final String fileId, @HeaderParam("Range")
+    final String range, @HeaderParam("If-Range")
+    final String ifRange, @Context
+    final Request request) throws RepositoryException {
         if (connectorService.isReferencedContent()) {
-            IntellectualEntity e = connectorService.fetchEntity(session, entityId);
-            for (Representation r : e.getRepresentations()) {
-                if (r.getIdentifier().getValue().equals(repId)) {
-                    for (File f : r.getFiles()) {
-                        if (f.getIdentifier().getValue().equals(fileId)) {
-                            return Response.temporaryRedirect(f.getUri()).build();
-                        }
-                    }
-                }
-            }
-            throw new RepositoryException(new FileNotFoundException());
+            return Response.temporaryRedirect(connectorService.fetchReferencedContentUri(this.session, entityId, repId, fileId, null)).build();
         } else {
-            final ContentTypeInputStream src = connectorService.fetchBinaryFile(this.session, entityId, repId, fileId, null);
-            return Response.ok().entity(src).type(src.getContentType()).build();
+            return fileResponse(entityId, repId, fileId, connectorService.fetchCurrentVersionNumber(this.session, entityId), false, range, ifRange, request);
         }
     }
 
@@ -120,22 +133,101 @@ public class Files {
     final String entityId, @PathParam("rep-id")
     final String repId, @PathParam("file-id")
     final String fileId, @PathParam("version-id")
-    final String versionId) throws RepositoryException {
+    final int versionId, @HeaderParam("Range")
+    final String range, @HeaderParam("If-Range")
+    final String ifRange, @Context
+    final Request request) throws RepositoryException {
         if (connectorService.isReferencedContent()) {
-            IntellectualEntity e = connectorService.fetchEntity(session, entityId);
-            for (Representation r : e.getRepresentations()) {
-                if (r.getIdentifier().getValue().equals(repId)) {
-                    for (File f : r.getFiles()) {
-                        if (f.getIdentifier().getValue().equals(fileId)) {
-                            return Response.temporaryRedirect(f.getUri()).build();
-                        }
+            return Response.temporaryRedirect(connectorService.fetchReferencedContentUri(this.session, entityId, repId, fileId, versionId)).build();
+        } else {
+            return fileResponse(entityId, repId, fileId, versionId, true, range, ifRange, request);
+        }
+    }
+
+    private Response fileResponse(final String entityId, final String repId, final String fileId, final int versionId, final boolean versioned,
+            final String range, final String ifRange, final Request request) throws RepositoryException {
+        final EntityTag tag = EntityTags.create(entityId, versionId, "file/" + repId + "/" + fileId);
+        final Date lastModified = connectorService.fetchVersionDate(this.session, entityId, versionId);
+        final Response.ResponseBuilder notModified = EntityTags.evaluate(request, tag, lastModified, versioned);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        final String version = String.valueOf(versionId);
+        final ContentTypeInputStream src = connectorService.fetchBinaryFile(this.session, entityId, repId, fileId, version);
+        final long size = src.getContentLength();
+
+        /* a range is only served if the client's copy is still the current one */
+        final List<ByteRange> ranges = (range != null && matches(ifRange, tag)) ? ByteRange.parse(range, size) : null;
+        if (ranges == null) {
+            final Response.ResponseBuilder response = EntityTags.ok(new StreamingOutput() {
+
+                @Override
+                public void write(OutputStream output) throws IOException, WebApplicationException {
+                    try {
+                        src.transferTo(output);
+                    } finally {
+                        close(src);
                     }
                 }
+            }, tag, lastModified, versioned).type(src.getContentType()).header(ACCEPT_RANGES, "bytes");
+            if (size >= 0) {
+                response.header(HttpHeaders.CONTENT_LENGTH, size);
             }
-            throw new RepositoryException(new FileNotFoundException());
-        } else {
-            final ContentTypeInputStream src = connectorService.fetchBinaryFile(this.session, entityId, repId, fileId, versionId);
-            return Response.ok().entity(src).type(src.getContentType()).build();
+            return response.build();
+        }
+
+        /* the ranges are read from their positions in the binary instead */
+        close(src);
+        if (ranges.isEmpty()) {
+            return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE).header(CONTENT_RANGE, "bytes */" + size).build();
+        }
+        if (ranges.size() == 1) {
+            final ByteRange r = ranges.get(0);
+            final ContentTypeInputStream part = connectorService.fetchBinaryFile(this.session, entityId, repId, fileId, version, r.getStart(), r.getLength());
+            return EntityTags.tag(Response.status(PARTIAL_CONTENT).entity(part), tag, lastModified, versioned).type(part.getContentType())
+                    .header(ACCEPT_RANGES, "bytes").header(CONTENT_RANGE, r.toContentRange(size)).header(HttpHeaders.CONTENT_LENGTH, r.getLength())
+                    .build();
+        }
+
+        /* multiple ranges are sent as a multipart/byteranges document */
+        final String boundary = UUID.randomUUID().toString();
+        final String mimeType = src.getContentType();
+        return EntityTags.tag(Response.status(PARTIAL_CONTENT).entity(new StreamingOutput() {
+
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                for (ByteRange r : ranges) {
+                    output.write(("\r\n--" + boundary + "\r\nContent-Type: " + mimeType + "\r\nContent-Range: " + r.toContentRange(size) + "\r\n\r\n")
+                            .getBytes(StandardCharsets.US_ASCII));
+                    try (final InputStream part = connectorService.fetchBinaryFile(session, entityId, repId, fileId, version, r.getStart(), r.getLength())) {
+                        IOUtils.copyLarge(part, output);
+                    } catch (RepositoryException e) {
+                        throw new IOException(e);
+                    }
+                }
+                output.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+        }), tag, lastModified, versioned).type("multipart/byteranges; boundary=" + boundary).header(ACCEPT_RANGES, "bytes").build();
+    }
+
+    /* an If-Range header has to match the tag exactly, dates are never matched since Last-Modified is only a weak validator */
+    private static boolean matches(final String ifRange, final EntityTag tag) {
+        if (ifRange == null) {
+            return true;
+        }
+        try {
+            final EntityTag other = EntityTag.valueOf(ifRange.trim());
+            return !other.isWeak() && other.getValue().equals(tag.getValue());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void close(final InputStream src) {
+        try {
+            src.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close binary stream", e);
         }
     }
 }
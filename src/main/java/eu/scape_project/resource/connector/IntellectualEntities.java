@@ -16,12 +16,18 @@ package eu.scape_project.resource.connector;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Date;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
@@ -34,7 +40,11 @@ import org.springframework.stereotype.Component;
 import eu.scape_project.model.File;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.EntityProjection;
+import eu.scape_project.service.MarshallerService;
+import eu.scape_project.service.VersionConflictException;
+import eu.scape_project.util.ContentTypeInputStream;
+import eu.scape_project.util.EntityTags;
 
 /**
  * JAX-RS Resource for Intellectual Entities
@@ -46,7 +56,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/entity")
 public class IntellectualEntities {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private MarshallerService marshallerService;
 
     @Autowired
     private ConnectorService connectorService;
@@ -54,10 +65,6 @@ public class IntellectualEntities {
     @Inject
     private Session session;
 
-    public IntellectualEntities() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP end point to Ingest an {@link IntellectualEntity} as
      * defined in the Connector API
@@ -65,14 +72,26 @@ public class IntellectualEntities {
      * @param src
      *            An {@link java.io.InputStream} serving the {@link IntellectualEntity}
      *            's METS representation
+     * @param ingestMode
+     *            the value of the <code>X-Ingest-Mode</code> header. If set to
+     *            <code>streaming</code> the METS document is written to the
+     *            repository while it is being read instead of being
+     *            unmarshalled as a whole
      * @return a {@link Response} which maps to a corresponding HTTP response
      * @throws RepositoryException
      */
     @POST
     @Consumes(MediaType.TEXT_XML)
     @Produces(MediaType.TEXT_PLAIN)
-    public Response ingestEntity(final InputStream src) throws RepositoryException {
-        String id = connectorService.addEntity(this.session, src);
+    public Response ingestEntity(final InputStream src, @HeaderParam("X-Ingest-Mode")
+    @DefaultValue("")
+    final String ingestMode) throws RepositoryException {
+        final String id;
+        if (ingestMode.equalsIgnoreCase("streaming")) {
+            id = connectorService.addEntityStreaming(this.session, src, null);
+        } else {
+            id = connectorService.addEntity(this.session, src);
+        }
         return Response.status(Status.CREATED).entity(id).build();
     }
 
@@ -86,6 +105,10 @@ public class IntellectualEntities {
      *            indicates if {@link File}s actual binary data gets fetched and
      *            put into the repository or if only a reference to an external
      *            URI will be maintained
+     * @param include
+     *            the parts of the entity to include, e.g.
+     *            <code>structure,descriptive</code>. All the parts are
+     *            included if the parameter is missing
      * @return a {@link Response} which maps to a corresponding HTTP response
      * @throws RepositoryException
      *             if an error occurred
@@ -96,24 +119,10 @@ public class IntellectualEntities {
     public Response retrieveEntity(@PathParam("id")
     final String id, @QueryParam("useReferences")
     @DefaultValue("no")
-    final String useReferences) throws RepositoryException {
-
-        final boolean refs = useReferences.equalsIgnoreCase("yes");
-        final IntellectualEntity ie = connectorService.fetchEntity(this.session, id);
-        /* create a streaming METS response using the ScapeMarshaller */
-        return Response.ok(new StreamingOutput() {
-
-            @Override
-            public void write(OutputStream output) throws IOException, WebApplicationException {
-                try {
-                    IntellectualEntities.this.marshaller.serialize(ie, output, refs);
-                } catch (JAXBException e) {
-                    throw new IOException(e);
-                }
-
-            }
-        }).build();
-
+    final String useReferences, @QueryParam("include")
+    final String include, @Context
+    final Request request) throws RepositoryException {
+        return entityResponse(id, connectorService.fetchCurrentVersionNumber(this.session, id), false, useReferences.equalsIgnoreCase("yes"), include, request);
     }
 
     /**
@@ -128,6 +137,10 @@ public class IntellectualEntities {
      *            indicates if {@link File}s actual binary data gets fetched and
      *            put into the repository or if only a reference to an external
      *            URI will be maintained
+     * @param include
+     *            the parts of the entity to include, e.g.
+     *            <code>structure,descriptive</code>. All the parts are
+     *            included if the parameter is missing
      * @return a {@link Response} which maps to a corresponding HTTP response
      * @throws RepositoryException
      *             if an error occurred
@@ -139,23 +152,62 @@ public class IntellectualEntities {
     final String id, @PathParam("versionNumber")
     final Integer versionNumber, @QueryParam("useReferences")
     @DefaultValue("no")
-    final String useReferences) throws RepositoryException {
+    final String useReferences, @QueryParam("include")
+    final String include, @Context
+    final Request request) throws RepositoryException {
+        return entityResponse(id, versionNumber, true, useReferences.equalsIgnoreCase("yes"), include, request);
+    }
 
-        final boolean refs = useReferences.equalsIgnoreCase("yes");
-        final IntellectualEntity ie = connectorService.fetchEntity(this.session, id, versionNumber);
+    private Response entityResponse(final String id, final int versionNumber, final boolean versioned, final boolean refs, final String include,
+            final Request request) throws RepositoryException {
+        final EntityProjection projection;
+        try {
+            projection = EntityProjection.parse(include);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+
+        /* the METS document of a version never changes, so the version number is sufficient to answer a conditional request */
+        final StringBuilder resource = new StringBuilder("entity");
+        if (refs) {
+            resource.append(";references");
+        }
+        if (!projection.isFull()) {
+            resource.append(";include=").append(projection.getKey());
+        }
+        final EntityTag tag = EntityTags.create(id, versionNumber, resource.toString());
+        /* fails with a 404 for a version which does not exist, before any tag is matched */
+        final Date lastModified = connectorService.fetchVersionDate(this.session, id, versionNumber);
+        final Response.ResponseBuilder notModified = EntityTags.evaluate(request, tag, lastModified, versioned);
+        if (notModified != null) {
+            return notModified.build();
+        }
+
+        if (!refs && projection.isFull()) {
+            /* serve the METS document stored when the version has been written */
+            final ContentTypeInputStream snapshot = connectorService.fetchEntitySnapshot(this.session, id, versionNumber);
+            if (snapshot != null) {
+                final Response.ResponseBuilder response = EntityTags.ok(snapshot, tag, lastModified, versioned).type(snapshot.getContentType());
+                if (snapshot.getContentLength() >= 0) {
+                    response.header(HttpHeaders.CONTENT_LENGTH, snapshot.getContentLength());
+                }
+                return response.build();
+            }
+        }
+        final IntellectualEntity ie = connectorService.fetchEntity(this.session, id, versionNumber, projection);
         /* create a streaming METS response using the ScapeMarshaller */
-        return Response.ok(new StreamingOutput() {
+        return EntityTags.ok(new StreamingOutput() {
 
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException {
                 try {
-                    IntellectualEntities.this.marshaller.serialize(ie, output, refs);
+                    IntellectualEntities.this.marshallerService.getMarshaller().serialize(ie, output, refs);
                 } catch (JAXBException e) {
                     throw new IOException(e);
                 }
 
             }
-        }).build();
+        }, tag, lastModified, versioned).build();
 
     }
 
@@ -174,9 +226,20 @@ public class IntellectualEntities {
     @Path("{id}")
     @Consumes({ MediaType.TEXT_XML })
     public Response updateEntity(@PathParam("id")
-    final String entityId, final InputStream src) throws RepositoryException {
-        connectorService.updateEntity(this.session, src, entityId);
-        return Response.ok().build();
+    final String entityId, @HeaderParam("If-Match")
+    final String ifMatch, final InputStream src) throws RepositoryException {
+        /* an update based on an outdated version of the entity is rejected */
+        final Set<Integer> versions = EntityTags.matchedVersions(ifMatch, entityId, "entity");
+        if (versions != null && versions.isEmpty()) {
+            return EntityTags.preconditionFailed().build();
+        }
+        final int version;
+        try {
+            version = connectorService.updateEntity(this.session, src, entityId, versions);
+        } catch (VersionConflictException e) {
+            return EntityTags.preconditionFailed().entity(e.getMessage()).build();
+        }
+        return Response.ok().tag(EntityTags.create(entityId, version, "entity")).build();
     }
 
 }
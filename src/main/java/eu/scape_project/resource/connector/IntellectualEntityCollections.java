@@ -13,10 +13,13 @@
  */
 package eu.scape_project.resource.connector;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -26,16 +29,16 @@ import javax.ws.rs.*;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
-import javax.xml.bind.JAXBException;
 
 import eu.scape_project.service.ConnectorService;
-import org.apache.commons.io.IOUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import eu.scape_project.model.IntellectualEntityCollection;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.EntityCollectionWriter;
+import eu.scape_project.service.LazyEntityIterator;
+import eu.scape_project.service.MarshallerService;
 
 /**
  * JAX-RS Resource for Intellectual Entity Collections
@@ -47,7 +50,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/entity-list")
 public class IntellectualEntityCollections {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private MarshallerService marshallerService;
 
     @Autowired
     private ConnectorService connectorService;
@@ -55,16 +59,22 @@ public class IntellectualEntityCollections {
     @Inject
     private Session session;
 
-    public IntellectualEntityCollections() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
-     * Retrieve an {@link IntellectualEntityCollection} from the repository
+     * Retrieve an {@link IntellectualEntityCollection} from the repository.
+     * The entities are written to the response in the order of the list as
+     * soon as they have been fetched. Long lists can be retrieved in pages
+     * using the <code>cursor</code> and <code>limit</code> parameters, in
+     * which case the cursor of the next page is sent in the
+     * <code>X-Next-Cursor</code> header
      * 
      * @param src
      *            the {@link java.io.InputStream} containing a text/uri-list of the
      *            representations to fetch
+     * @param cursor
+     *            the number of URIs in the list to skip
+     * @param limit
+     *            the maximum number of entities to return or 0 for all the
+     *            remaining entities
      * @return a {@link Response} which maps to a corresponding HTTP response,
      *         containing the XML representation of an
      *         {@link IntellectualEntityCollection}
@@ -73,27 +83,56 @@ public class IntellectualEntityCollections {
     @POST
     @Produces(MediaType.TEXT_XML)
     @Consumes("text/uri-list")
-    public Response retrieveEntityCollection(final InputStream src) throws RepositoryException {
-        try {
-            List<String> paths = Arrays.asList(IOUtils.toString(src).split("\n"));
+    public Response retrieveEntityCollection(final InputStream src, @QueryParam("cursor")
+    @DefaultValue("0")
+    final int cursor, @QueryParam("limit")
+    @DefaultValue("0")
+    final int limit) throws RepositoryException {
+        final List<String> ids = new ArrayList<>();
+        boolean more = false;
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(src, StandardCharsets.UTF_8))) {
+            /* only the URIs of the requested page are kept */
+            int position = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (position++ < cursor) {
+                    continue;
+                }
+                if (limit > 0 && ids.size() == limit) {
+                    more = true;
+                    break;
+                }
+                ids.add(line.substring(line.indexOf("/scape/entity") + 14));
+            }
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        }
 
-            final IntellectualEntityCollection entities = connectorService.fetchEntites(this.session, paths);
+        final LazyEntityIterator entities = connectorService.fetchEntitiesLazily(this.session, ids);
 
-            /* create a streaming METS response using the ScapeMarshaller */
-            return Response.ok(new StreamingOutput() {
+        /* create a streaming METS response using the ScapeMarshaller */
+        final Response.ResponseBuilder response = Response.ok(new StreamingOutput() {
 
-                @Override
-                public void write(OutputStream output) throws IOException, WebApplicationException {
-                    try {
-                        IntellectualEntityCollections.this.marshaller.serialize(entities, output);
-                    } catch (JAXBException e) {
-                        throw new IOException(e);
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                final EntityCollectionWriter writer = new EntityCollectionWriter(IntellectualEntityCollections.this.marshallerService, output);
+                try {
+                    while (entities.hasNext()) {
+                        writer.write(entities.next());
                     }
-
+                    writer.finish();
+                } catch (RepositoryException e) {
+                    throw new IOException(e);
                 }
-            }).build();
-        } catch (IOException e) {
-            throw new RepositoryException(e);
+            }
+        });
+        if (more) {
+            response.header("X-Next-Cursor", cursor + ids.size());
         }
+        return response.build();
     }
 }
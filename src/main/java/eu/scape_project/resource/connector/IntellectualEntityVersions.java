@@ -15,12 +15,16 @@ package eu.scape_project.resource.connector;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Date;
 
 import javax.inject.Inject;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.xml.bind.JAXBException;
@@ -32,7 +36,8 @@ import org.springframework.stereotype.Component;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.VersionList;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.MarshallerService;
+import eu.scape_project.util.EntityTags;
 
 /**
  * JAX-RS Resource for Intellectual Entity Versions
@@ -44,7 +49,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/entity-version-list")
 public class IntellectualEntityVersions {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private MarshallerService marshallerService;
 
     @Autowired
     private ConnectorService connectorService;
@@ -52,10 +58,6 @@ public class IntellectualEntityVersions {
     @Inject
     private Session session;
 
-    public IntellectualEntityVersions() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP end point which lets a user retrieve a
      * {@link VersionList} of an {@link IntellectualEntity}
@@ -70,19 +72,28 @@ public class IntellectualEntityVersions {
     @Produces(MediaType.TEXT_XML)
     @Path("{id}")
     public Response retrieveVersionList(@PathParam("id")
-    final String entityId) throws RepositoryException {
+    final String entityId, @Context
+    final Request request) throws RepositoryException {
+        /* the version list only changes when a new version is added */
+        final int version = this.connectorService.fetchCurrentVersionNumber(session, entityId);
+        final EntityTag tag = EntityTags.create(entityId, version, "versions");
+        final Date lastModified = this.connectorService.fetchVersionDate(session, entityId, version);
+        final Response.ResponseBuilder notModified = EntityTags.evaluate(request, tag, lastModified, false);
+        if (notModified != null) {
+            return notModified.build();
+        }
         final VersionList list = this.connectorService.fetchVersionList(session, entityId);
-        return Response.ok(new StreamingOutput() {
+        return EntityTags.ok(new StreamingOutput() {
 
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException {
                 try {
-                    IntellectualEntityVersions.this.marshaller.serialize(list, output);
+                    IntellectualEntityVersions.this.marshallerService.getMarshaller().serialize(list, output);
                 } catch (JAXBException e) {
                     throw new IOException(e);
                 }
             }
-        }).build();
+        }, tag, lastModified, false).build();
 
     }
 
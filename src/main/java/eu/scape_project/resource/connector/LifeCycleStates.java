@@ -32,7 +32,7 @@ import org.springframework.stereotype.Component;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.LifecycleState;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.MarshallerService;
 
 /**
  * JAX-RS Resource for life cycle states
@@ -44,7 +44,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/lifecycle")
 public class LifeCycleStates {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private MarshallerService marshallerService;
 
     @Autowired
     private ConnectorService connectorService;
@@ -52,10 +53,6 @@ public class LifeCycleStates {
     @Inject
     private Session session;
 
-    public LifeCycleStates() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes an HTTP end point to fetch the {@link LifecycleState} of an
      * {@link IntellectualEntity}
@@ -79,7 +76,7 @@ public class LifeCycleStates {
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException {
                 try {
-                    LifeCycleStates.this.marshaller.serialize(state, output);
+                    LifeCycleStates.this.marshallerService.getMarshaller().serialize(state, output);
                 } catch (JAXBException e) {
                     throw new IOException(e);
                 }
@@ -13,25 +13,29 @@
  */
 package eu.scape_project.resource.connector;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.util.Date;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.StreamingOutput;
-import javax.xml.bind.JAXBException;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.VersionConflictException;
+import eu.scape_project.util.ContentTypeInputStream;
+import eu.scape_project.util.EntityTags;
 
 /**
  * JAX-RS Resource for metadata
@@ -44,19 +48,12 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/metadata")
 public class Metadata {
 
-    private final ScapeMarshaller marshaller;
-
     @Autowired
     private ConnectorService connectorService;
 
     @Inject
     private Session session;
 
-    public Metadata()
-            throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     @GET
     @Path("{path: .*}")
     /**
@@ -66,21 +63,24 @@ public class Metadata {
      * @throws RepositoryException if an error occurred while retrieving the metadata
      */
     public Response retrieveMetadata(@PathParam("path")
-    String path) throws RepositoryException {
+    String path, @Context
+    final Request request) throws RepositoryException {
+        final String entityId = path.split("/")[0];
+        final int version = connectorService.fetchCurrentVersionNumber(this.session, entityId);
+        final EntityTag tag = EntityTags.create(entityId, version, "metadata/" + path);
+        final Date lastModified = connectorService.fetchVersionDate(this.session, entityId, version);
+        final Response.ResponseBuilder notModified = EntityTags.evaluate(request, tag, lastModified, false);
+        if (notModified != null) {
+            return notModified.build();
+        }
         path = ConnectorService.ENTITY_FOLDER + "/" + path;
-        final Object md = connectorService.fetchCurrentMetadata(this.session, path);
-        return Response.ok().entity(new StreamingOutput() {
-
-            @Override
-            public void write(OutputStream output) throws IOException,
-                    WebApplicationException {
-                try {
-                    Metadata.this.marshaller.serialize(md, output);
-                } catch (JAXBException e) {
-                    throw new IOException(e);
-                }
-            }
-        }).build();
+        /* pass the stored document on as it is instead of unmarshalling and marshalling it */
+        final ContentTypeInputStream src = connectorService.fetchCurrentMetadataContent(this.session, path);
+        final Response.ResponseBuilder response = EntityTags.ok(src, tag, lastModified, false).type(src.getContentType());
+        if (src.getContentLength() >= 0) {
+            response.header(HttpHeaders.CONTENT_LENGTH, src.getContentLength());
+        }
+        return response.build();
     }
 
     /**
@@ -93,8 +93,19 @@ public class Metadata {
     @PUT
     @Path("{path: .*}")
     @Consumes({MediaType.TEXT_XML})
-    public Response updateMetadata(@PathParam("path") String path, final InputStream src) throws RepositoryException {
-        this.connectorService.updateMetadata(this.session, path, src);
-        return Response.ok().build();
+    public Response updateMetadata(@PathParam("path") String path, @HeaderParam("If-Match") final String ifMatch, final InputStream src)
+            throws RepositoryException {
+        final String entityId = path.split("/")[0];
+        final Set<Integer> versions = EntityTags.matchedVersions(ifMatch, entityId, "metadata/" + path);
+        if (versions != null && versions.isEmpty()) {
+            return EntityTags.preconditionFailed().build();
+        }
+        final int version;
+        try {
+            version = this.connectorService.updateMetadata(this.session, path, src, versions);
+        } catch (VersionConflictException e) {
+            return EntityTags.preconditionFailed().entity(e.getMessage()).build();
+        }
+        return Response.ok().tag(EntityTags.create(entityId, version, "metadata/" + path)).build();
     }
 }
@@ -16,11 +16,16 @@ package eu.scape_project.resource.connector;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Date;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 import javax.xml.bind.JAXBException;
@@ -32,7 +37,10 @@ import org.springframework.stereotype.Component;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.Representation;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.EntityProjection;
+import eu.scape_project.service.MarshallerService;
+import eu.scape_project.service.VersionConflictException;
+import eu.scape_project.util.EntityTags;
 
 /**
  * JAX-RS Resource for Representations
@@ -45,7 +53,8 @@ import eu.scape_project.util.ScapeMarshaller;
 @Path("/scape/representation")
 public class Representations {
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private MarshallerService marshallerService;
 
     @Autowired
     private ConnectorService connectorService;
@@ -53,10 +62,6 @@ public class Representations {
     @Inject
     private Session session;
 
-    public Representations() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
-
     /**
      * Exposes a HTTP end point for retrieving the current version of a
      * {@link Representation}
@@ -65,6 +70,10 @@ public class Representations {
      *            the id of the {@link IntellectualEntity}
      * @param repId
      *            the id of the {@link Representation}
+     * @param include
+     *            the parts of the representation to include, e.g.
+     *            <code>structure,technical</code>. All the parts are included
+     *            if the parameter is missing
      * @return a {@link Response} which maps to a corresponding HTTP response,
      *         containing the {@link Representation} serialized into a XML
      *         document
@@ -75,19 +84,10 @@ public class Representations {
     @Path("{entity-id}/{rep-id}")
     public Response retrieveRepresentation(@PathParam("entity-id")
     final String entityId, @PathParam("rep-id")
-    final String repId) throws RepositoryException {
-        final Representation r = connectorService.fetchRepresentation(this.session, entityId, repId, null);
-        return Response.ok().entity(new StreamingOutput() {
-
-            @Override
-            public void write(OutputStream output) throws IOException, WebApplicationException {
-                try {
-                    Representations.this.marshaller.serialize(r, output);
-                } catch (JAXBException e) {
-                    throw new IOException(e);
-                }
-            }
-        }).build();
+    final String repId, @QueryParam("include")
+    final String include, @Context
+    final Request request) throws RepositoryException {
+        return representationResponse(entityId, repId, connectorService.fetchCurrentVersionNumber(this.session, entityId), false, include, request);
     }
 
     /**
@@ -100,6 +100,10 @@ public class Representations {
      *            the id of the {@link Representation}
      * @param versionId
      *            the id of the {@link Representation}'s version
+     * @param include
+     *            the parts of the representation to include, e.g.
+     *            <code>structure,technical</code>. All the parts are included
+     *            if the parameter is missing
      * @return a {@link Response} which maps to a corresponding HTTP response,
      *         containing the {@link Representation} serialized into a XML
      *         document
@@ -111,19 +115,39 @@ public class Representations {
     public Response retrieveRepresentation(@PathParam("entity-id")
     final String entityId, @PathParam("rep-id")
     final String repId, @PathParam("version-id")
-    final int versionId) throws RepositoryException {
-        final Representation r = connectorService.fetchRepresentation(this.session, entityId, repId, versionId);
-        return Response.ok().entity(new StreamingOutput() {
+    final int versionId, @QueryParam("include")
+    final String include, @Context
+    final Request request) throws RepositoryException {
+        return representationResponse(entityId, repId, versionId, true, include, request);
+    }
+
+    private Response representationResponse(final String entityId, final String repId, final int versionId, final boolean versioned, final String include,
+            final Request request) throws RepositoryException {
+        final EntityProjection projection;
+        try {
+            projection = EntityProjection.parse(include);
+        } catch (IllegalArgumentException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity(e.getMessage()).build();
+        }
+        final String resource = "representation/" + repId + (projection.isFull() ? "" : ";include=" + projection.getKey());
+        final EntityTag tag = EntityTags.create(entityId, versionId, resource);
+        final Date lastModified = connectorService.fetchVersionDate(this.session, entityId, versionId);
+        final Response.ResponseBuilder notModified = EntityTags.evaluate(request, tag, lastModified, versioned);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        final Representation r = connectorService.fetchRepresentation(this.session, entityId, repId, versionId, projection);
+        return EntityTags.ok(new StreamingOutput() {
 
             @Override
             public void write(OutputStream output) throws IOException, WebApplicationException {
                 try {
-                    Representations.this.marshaller.serialize(r, output);
+                    Representations.this.marshallerService.getMarshaller().serialize(r, output);
                 } catch (JAXBException e) {
                     throw new IOException(e);
                 }
             }
-        }).build();
+        }, tag, lastModified, versioned).build();
     }
 
     /**
@@ -138,8 +162,19 @@ public class Representations {
     @Path("{entity-id}/{rep-id}")
     public Response updateRepresentation(@PathParam("entity-id")
     final String entityId, @PathParam("rep-id")
-    final String representationId, final InputStream src) throws RepositoryException {
-        this.connectorService.updateRepresentation(session, entityId, representationId, src);
-        return Response.ok().build();
+    final String representationId, @HeaderParam("If-Match")
+    final String ifMatch, final InputStream src) throws RepositoryException {
+        final String resource = "representation/" + representationId;
+        final Set<Integer> versions = EntityTags.matchedVersions(ifMatch, entityId, resource);
+        if (versions != null && versions.isEmpty()) {
+            return EntityTags.preconditionFailed().build();
+        }
+        final int version;
+        try {
+            version = this.connectorService.updateRepresentation(session, entityId, representationId, src, versions);
+        } catch (VersionConflictException e) {
+            return EntityTags.preconditionFailed().entity(e.getMessage()).build();
+        }
+        return Response.ok().tag(EntityTags.create(entityId, version, resource)).build();
     }
 }
@@ -33,7 +33,7 @@ import eu.scape_project.model.File;
 import eu.scape_project.model.IntellectualEntity;
 import eu.scape_project.model.Representation;
 import eu.scape_project.service.ConnectorService;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.MarshallerService;
 
 /**
  * JAX-RS Resource for SRU search
@@ -52,11 +52,8 @@ public class SRUSearch {
     @Autowired
     private ConnectorService connectorService;
 
-    private final ScapeMarshaller marshaller;
-
-    public SRUSearch() throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
+    @Autowired
+    private MarshallerService marshallerService;
 
     /**
      * Exposes a HTTP end point modeled after the SRU specifications to search
@@ -218,7 +215,7 @@ public class SRUSearch {
         sru.append("<srw:recordData>");
         output.write(sru.toString().getBytes());
         try {
-            this.marshaller.serialize(o, output);
+            this.marshallerService.getMarshaller().serialize(o, output);
         } catch (JAXBException e) {
             throw new IOException(e);
         }
@@ -14,6 +14,8 @@
 
 package eu.scape_project.resource.planmanagement;
 
+import static eu.scape_project.rdf.ScapeRDFVocabulary.*;
+
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -21,6 +23,7 @@ import java.net.URI;
 import java.util.*;
 
 import javax.inject.Inject;
+import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.*;
@@ -31,7 +34,6 @@ import javax.ws.rs.core.UriInfo;
 import javax.xml.bind.JAXBException;
 
 import org.fcrepo.kernel.FedoraObject;
-import org.fcrepo.kernel.impl.rdf.SerializationUtils;
 import org.fcrepo.kernel.impl.rdf.impl.DefaultIdentifierTranslator;
 import org.fcrepo.kernel.rdf.IdentifierTranslator;
 import org.fcrepo.kernel.services.DatastreamService;
@@ -41,16 +43,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
-import com.hp.hpl.jena.query.Dataset;
-import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.RDFNode;
-import com.hp.hpl.jena.rdf.model.Resource;
-import com.hp.hpl.jena.rdf.model.StmtIterator;
-
 import eu.scape_project.model.plan.PlanExecutionState;
 import eu.scape_project.model.plan.PlanExecutionState.ExecutionState;
 import eu.scape_project.model.plan.PlanExecutionStateCollection;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.rdf.ScapeProperties;
+import eu.scape_project.service.MarshallerService;
+import eu.scape_project.service.RepositoryReader;
 
 /**
  * JAX-RS Resource for Plan Execution States
@@ -74,12 +72,11 @@ public class PlanExecutionStates {
     @Autowired
     private DatastreamService datastreamService;
 
-    private final ScapeMarshaller marshaller;
+    @Autowired
+    private MarshallerService marshallerService;
 
-    public PlanExecutionStates()
-            throws JAXBException {
-        this.marshaller = ScapeMarshaller.newInstance();
-    }
+    @Autowired
+    private RepositoryReader repositoryReader;
 
     /**
      * Exposes a HTTP end point to retrieve the {@link eu.scape_project.model.plan.PlanExecutionState} of a Plan stored in Fedora
@@ -95,36 +92,17 @@ public class PlanExecutionStates {
     UriInfo uriInfo) throws RepositoryException {
         /* fetch the plan RDF from fedora */
         final String planUri = "/" + Plans.PLAN_FOLDER + planId;
-        final FedoraObject plan =
-                this.objectService.findOrCreateObject(this.session, planUri);
+        final Node plan = this.repositoryReader.getNode(this.session, planUri);
 
-        /* get the relevant information from the RDF dataset */
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final Dataset data = plan.getPropertiesDataset(subjects);
-        final Model rdfModel = SerializationUtils.unifyDatasetModel(data);
-        final StmtIterator execs =
-                rdfModel.listStatements(
-                		subjects.getSubject(plan.getNode().getPath()),
-                        rdfModel.getProperty("http://scapeproject.eu/model#hasExecState"),
-                        (RDFNode) null);
-        /* create the response from the data saved in fcrepo */
+        /* read the execution states from the nodes referenced by the plan */
         List<PlanExecutionState> states = new ArrayList<>();
-        while (execs.hasNext()) {
-            final Resource res = rdfModel.createResource(execs.next().getObject().asLiteral().getString());
-            final Model stateModel = SerializationUtils.unifyDatasetModel(this.nodeService.getObject(session, subjects.getPathFromSubject(res)).getPropertiesDataset(subjects));
-
-            final StmtIterator stmtIterator = stateModel.listStatements(res,rdfModel.getProperty("http://scapeproject.eu/model#hasExecutionState"),(RDFNode) null);
-            if (!stmtIterator.hasNext()) {
+        for (String statePath : ScapeProperties.getPaths(plan, HAS_EXEC_STATE)) {
+            final Node stateNode = this.repositoryReader.getNode(this.session, statePath);
+            final String state = ScapeProperties.getString(stateNode, HAS_EXECUTION_STATE);
+            if (state == null) {
                 throw new RepositoryException("No execution state for plan " + planId + " could be found");
             }
-            final String state = stmtIterator.next().getObject().asLiteral()
-                            .getString();
-            final long timestamp = Long.parseLong(
-                    stateModel.listStatements(
-                            res,
-                            rdfModel.getProperty("http://scapeproject.eu/model#hasTimeStamp"),
-                            (RDFNode) null).next().getObject().asLiteral()
-                            .getString());
+            final long timestamp = Long.parseLong(ScapeProperties.getRequiredString(stateNode, HAS_TIMESTAMP));
             states.add(new PlanExecutionState(new Date(timestamp),
                     ExecutionState.valueOf(state)));
         }
@@ -138,7 +116,7 @@ public class PlanExecutionStates {
             public void write(OutputStream output) throws IOException,
                     WebApplicationException {
                 try {
-                    marshaller.serialize(coll, output);
+                    marshallerService.getMarshaller().serialize(coll, output);
                 } catch (JAXBException e) {
                     throw new IOException(e);
                 }
@@ -151,7 +129,7 @@ public class PlanExecutionStates {
     public Response addExecutionState(@PathParam("id")
     final String planId, InputStream src) throws RepositoryException,JAXBException {
 
-        final PlanExecutionState state = marshaller.deserialize(PlanExecutionState.class, src);
+        final PlanExecutionState state = marshallerService.getMarshaller().deserialize(PlanExecutionState.class, src);
         final String planPath = "/" + Plans.PLAN_FOLDER + planId;
         /* fetch the plan from the repository */
         final FedoraObject plan =
@@ -14,7 +14,10 @@
 
 package eu.scape_project.resource.planmanagement;
 
+import static eu.scape_project.rdf.ScapeRDFVocabulary.HAS_PLAN_LIFECYCLE_STATE;
+
 import javax.inject.Inject;
+import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.ws.rs.GET;
@@ -28,7 +31,6 @@ import javax.ws.rs.core.UriInfo;
 import javax.xml.bind.JAXBException;
 
 import org.fcrepo.kernel.FedoraObject;
-import org.fcrepo.kernel.impl.rdf.SerializationUtils;
 import org.fcrepo.kernel.impl.rdf.impl.DefaultIdentifierTranslator;
 import org.fcrepo.kernel.rdf.GraphProperties;
 import org.fcrepo.kernel.rdf.IdentifierTranslator;
@@ -37,9 +39,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
-import com.hp.hpl.jena.query.Dataset;
 import com.hp.hpl.jena.rdf.model.Model;
-import com.hp.hpl.jena.rdf.model.RDFNode;
+
+import eu.scape_project.rdf.ScapeProperties;
+import eu.scape_project.service.RepositoryReader;
 
 /**
  * JAX-RS Resource for Plan life cycle states
@@ -57,6 +60,9 @@ public class PlanLifecycleStates {
     @Autowired
     private ObjectService objectService;
 
+    @Autowired
+    private RepositoryReader repositoryReader;
+
     /**
      * Retrieve the life cycle state for a plan stored in Fedora
      * 
@@ -77,15 +83,10 @@ public class PlanLifecycleStates {
     UriInfo uriInfo) throws RepositoryException {
         /* fetch the plan RDF from fedora */
         final String planUri = "/" + Plans.PLAN_FOLDER + planId;
-        final FedoraObject plan = this.objectService.findOrCreateObject(this.session, planUri);
-
-        /* get the relevant information from the RDF dataset */
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();        final Dataset data = plan.getPropertiesDataset(subjects);
-        final Model rdfModel = SerializationUtils.unifyDatasetModel(data);
+        final Node plan = this.repositoryReader.getNode(this.session, planUri);
 
-        final String lifecycle = rdfModel
-                .listStatements(subjects.getSubject(plan.getNode().getPath()), rdfModel.getProperty("http://scapeproject.eu/model#hasLifecycleState"),
-                        (RDFNode) null).next().getObject().asLiteral().getString();
+        /* read the life cycle state from the plan's node */
+        final String lifecycle = ScapeProperties.getRequiredString(plan, HAS_PLAN_LIFECYCLE_STATE);
         return Response.ok(lifecycle, MediaType.TEXT_PLAIN).build();
     }
 
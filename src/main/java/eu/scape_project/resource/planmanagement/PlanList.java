@@ -46,7 +46,7 @@ import eu.scape_project.model.plan.PlanData;
 import eu.scape_project.model.plan.PlanDataCollection;
 import eu.scape_project.model.plan.PlanLifecycleState;
 import eu.scape_project.model.plan.PlanLifecycleState.PlanState;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.service.MarshallerService;
 
 /**
  * JAX-RS Resource for Plans
@@ -72,11 +72,8 @@ public class PlanList {
     @Autowired
     private DatastreamService datastreamService;
 
-    private final ScapeMarshaller marshaller;
-
-    public PlanList() throws JAXBException {
-        marshaller = ScapeMarshaller.newInstance();
-    }
+    @Autowired
+    private MarshallerService marshallerService;
 
     /**
      * Retrieve a {@link PlanList} of plans stored in Fedora
@@ -136,7 +133,7 @@ public class PlanList {
             @Override
             public void write(OutputStream sink) throws IOException, WebApplicationException {
                 try {
-                    marshaller.serialize(new PlanDataCollection(plans), sink);
+                    marshallerService.getMarshaller().serialize(new PlanDataCollection(plans), sink);
                 } catch (JAXBException e) {
                     throw new IOException(e);
                 }
@@ -27,6 +27,7 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
 
+import eu.scape_project.service.RepositoryReader;
 import eu.scape_project.util.XmlDeclarationStrippingInputstream;
 import org.apache.commons.io.IOUtils;
 import org.fcrepo.kernel.Datastream;
@@ -66,6 +67,8 @@ public class PlanSearch {
     @Autowired
     private RepositoryService repositoryService;
 
+    @Autowired
+    private RepositoryReader repositoryReader;
 
     /**
      * Search for plans in Fedora
@@ -136,7 +139,7 @@ public class PlanSearch {
                 sru.append("</srw:extraRecordData>");
                 sru.append("<srw:recordData>");
                 output.write(sru.toString().getBytes());
-                final Datastream plato = datastreamService.findOrCreateDatastream(session, uri.substring(uri.indexOf('/')) + "/plato-xml");
+                final Datastream plato = repositoryReader.getDatastream(session, uri.substring(uri.indexOf('/')) + "/plato-xml");
                 IOUtils.copy(new XmlDeclarationStrippingInputstream(plato.getBinary().getContent()), output);
                 sru.setLength(0);
                 sru.append("</srw:recordData>");
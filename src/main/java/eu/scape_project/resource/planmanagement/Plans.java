@@ -55,6 +55,7 @@ import com.hp.hpl.jena.rdf.model.Model;
 import eu.scape_project.model.plan.PlanData;
 import eu.scape_project.model.plan.PlanExecutionState;
 import eu.scape_project.model.plan.PlanLifecycleState;
+import eu.scape_project.service.RepositoryReader;
 
 /**
  * JAX-RS Resource for Plans
@@ -80,6 +81,9 @@ public class Plans {
     @Autowired
     private DatastreamService datastreamService;
 
+    @Autowired
+    private RepositoryReader repositoryReader;
+
     /**
      * Deploy a new Plan in Fedora
      * 
@@ -197,7 +201,7 @@ public class Plans {
     public Response retrievePlan(@PathParam("id")
     final String planId) throws RepositoryException {
         /* fetch the plan form the repository */
-        final Datastream ds = this.datastreamService.findOrCreateDatastream(this.session, PLAN_FOLDER + planId + "/plato-xml");
+        final Datastream ds = this.repositoryReader.getDatastream(this.session, "/" + PLAN_FOLDER + planId + "/plato-xml");
         return Response.ok(ds.getBinary().getContent(), ds.getBinary().getMimeType()).build();
     }
 
@@ -0,0 +1,163 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory index of the items in the asynchronous ingest queue,
+ * partitioned by their ingest state. The queued items are kept in the order
+ * they have been added, so that the next items to ingest and the state of a
+ * single item can be looked up without reading the queue from the repository.
+ * The index is rebuilt from the repository on startup
+ *
+ * @author frank asseg
+ *
+ */
+public class AsyncQueueIndex {
+
+    /**
+     * The ingest state of a queue item
+     */
+    public enum State {
+        QUEUED, INGESTING, INGEST_FAILED
+    }
+
+    private final Map<String, State> states = new HashMap<>();
+
+    private final LinkedHashSet<String> queued = new LinkedHashSet<>();
+
+    private final Map<State, Integer> counts = new EnumMap<>(State.class);
+
+    /**
+     * Add an item in the {@link State#QUEUED} state and wake up a thread
+     * waiting in {@link #claim()}
+     *
+     * @param id
+     *            the id of the item
+     */
+    public synchronized void queued(final String id) {
+        put(id, State.QUEUED);
+        if (queued.add(id)) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Mark an item as failed
+     *
+     * @param id
+     *            the id of the item
+     */
+    public synchronized void failed(final String id) {
+        queued.remove(id);
+        put(id, State.INGEST_FAILED);
+    }
+
+    /**
+     * Remove an item from the index
+     *
+     * @param id
+     *            the id of the item
+     */
+    public synchronized void remove(final String id) {
+        queued.remove(id);
+        put(id, null);
+    }
+
+    /**
+     * Get the state of an item
+     *
+     * @param id
+     *            the id of the item
+     * @return the item's {@link State} or <code>null</code> if the item is not
+     *         in the queue
+     */
+    public synchronized State getState(final String id) {
+        return states.get(id);
+    }
+
+    /**
+     * Get the ids of the next queued items without claiming them
+     *
+     * @param limit
+     *            the maximum number of ids to return
+     * @return a {@link List} containing the ids of the queued items
+     */
+    public synchronized List<String> nextQueued(final int limit) {
+        final List<String> ids = new ArrayList<>(Math.min(limit, queued.size()));
+        final Iterator<String> it = queued.iterator();
+        while (it.hasNext() && ids.size() < limit) {
+            ids.add(it.next());
+        }
+        return ids;
+    }
+
+    /**
+     * Get the number of items in a given {@link State}
+     *
+     * @param state
+     *            the {@link State} to count
+     * @return the number of items
+     */
+    public synchronized int count(final State state) {
+        final Integer count = counts.get(state);
+        return (count == null) ? 0 : count;
+    }
+
+    /**
+     * Wait for the next queued item and move it to the
+     * {@link State#INGESTING} state. Every item is handed to a single caller
+     * only
+     *
+     * @return the id of the claimed item
+     * @throws InterruptedException
+     *             if the thread has been interrupted while waiting
+     */
+    public synchronized String claim() throws InterruptedException {
+        while (queued.isEmpty()) {
+            wait();
+        }
+        final Iterator<String> it = queued.iterator();
+        final String id = it.next();
+        it.remove();
+        put(id, State.INGESTING);
+        return id;
+    }
+
+    /**
+     * Remove all items from the index
+     */
+    public synchronized void clear() {
+        queued.clear();
+        states.clear();
+        counts.clear();
+    }
+
+    private void put(final String id, final State state) {
+        final State previous = (state == null) ? states.remove(id) : states.put(id, state);
+        if (previous != null) {
+            counts.put(previous, counts.get(previous) - 1);
+        }
+        if (state != null) {
+            counts.put(state, count(state) + 1);
+        }
+    }
+}
@@ -18,11 +18,22 @@ import static eu.scape_project.rdf.ScapeRDFVocabulary.*;
 import java.io.*;
 import java.net.URI;
 import java.net.URLEncoder;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.jcr.*;
-import javax.jcr.NodeIterator;
+import javax.jcr.nodetype.NodeType;
 import javax.jcr.nodetype.NodeTypeDefinition;
 import javax.jcr.nodetype.NodeTypeManager;
 import javax.jcr.nodetype.NodeTypeTemplate;
@@ -34,39 +45,43 @@ import javax.jcr.query.qom.Constraint;
 import javax.jcr.query.qom.QueryObjectModelFactory;
 import javax.jcr.query.qom.Source;
 import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLStreamException;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.fcrepo.http.commons.session.SessionFactory;
 import org.fcrepo.kernel.Datastream;
 import org.fcrepo.kernel.FedoraObject;
 import org.fcrepo.kernel.RdfLexicon;
 import org.fcrepo.kernel.exception.InvalidChecksumException;
-import org.fcrepo.kernel.impl.rdf.SerializationUtils;
 import org.fcrepo.kernel.impl.rdf.impl.DefaultIdentifierTranslator;
 import org.fcrepo.kernel.rdf.IdentifierTranslator;
 import org.fcrepo.kernel.services.DatastreamService;
 import org.fcrepo.kernel.services.NodeService;
 import org.fcrepo.kernel.services.ObjectService;
 import org.fcrepo.kernel.services.RepositoryService;
+import org.fcrepo.kernel.services.TransactionService;
 import org.purl.dc.elements._1.ElementContainer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import com.google.books.gbs.GbsType;
 import com.hp.hpl.jena.query.Dataset;
-import com.hp.hpl.jena.rdf.model.*;
-import com.hp.hpl.jena.rdf.model.Property;
 import com.hp.hpl.jena.update.UpdateAction;
 
 import edu.harvard.hul.ois.xml.ns.fits.fits_output.Fits;
 import eu.scape_project.model.*;
 import eu.scape_project.model.File;
 import eu.scape_project.model.LifecycleState.State;
+import eu.scape_project.rdf.ScapeProperties;
 import eu.scape_project.rdf.ScapeRDFVocabulary;
+import eu.scape_project.util.BinaryRangeInputStream;
 import eu.scape_project.util.ContentTypeInputStream;
-import eu.scape_project.util.ScapeMarshaller;
+import eu.scape_project.util.PairtreeFileResolver;
+import eu.scape_project.util.SpillingOutputStream;
 import gov.loc.audiomd.AudioType;
 import gov.loc.marc21.slim.RecordType;
 import gov.loc.mix.v20.Mix;
@@ -88,14 +103,37 @@ public class ConnectorService {
 
     public final static String QUEUE_NODE = "/objects/scape/queue";
 
+    public final static String SNAPSHOT_DATASTREAM = "METS";
+
     public String fedoraUrl;
 
     public boolean referencedContent;
 
-    private final ScapeMarshaller marshaller;
+    private int maxConcurrentDownloads = 8;
+
+    private int maxConcurrentDownloadsPerEntity = 4;
+
+    private int ingestWorkers = 4;
+
+    private long entityCacheSize = 64 * 1024 * 1024;
+
+    private int versionCacheSize = 10000;
+
+    private boolean entitySnapshots = false;
+
+    private int entityShardDepth = 0;
+
+    private boolean entityLayoutMigration = false;
+
+    private String pairtreeBasePath;
+
+    private String pairtreeEncapsulated;
 
     private static final Logger LOG = LoggerFactory.getLogger(ConnectorService.class);
 
+    @Autowired
+    private MarshallerService marshallerService;
+
     @Autowired
     private ObjectService objectService;
 
@@ -111,18 +149,88 @@ public class ConnectorService {
     @Autowired
     private RepositoryService repositoryService;
 
+    @Autowired
+    private RepositoryReader repositoryReader;
+
+    @Autowired
+    private TransactionService transactionService;
+
     private final java.io.File tempDirectory;
 
+    private FileStager fileStager;
+
+    private ExecutorService ingestWorkerPool;
+
+    private final AsyncQueueIndex queueIndex = new AsyncQueueIndex();
+
+    private IngestJournal ingestJournal;
+
+    private EntityCache entityCache;
+
+    private final EntityCache transactionCache = new EntityCache(0, 0);
+
+    private ConnectorStatistics statistics;
+
+    private VersionComparator versionComparator;
+
+    private EntityPathResolver entityPaths;
+
+    /* the striped locks serializing the updates of an entity */
+    private final Lock[] entityLocks = new Lock[ENTITY_LOCK_STRIPES];
+
+    private ExecutorService snapshotBackfill;
+
+    /* the properties linking a version to its representations, files and bitstreams */
+    private static final String[] STRUCTURE_LINKS = new String[] { HAS_REPRESENTATION, HAS_FILE, HAS_BITSTREAM };
+
+    private static final String[] STRUCTURE_MIXINS = new String[] { "scape:representation", "scape:file", "scape:bitstream" };
+
+    private static final String[] METADATA_NAMES = new String[] { "DESCRIPTIVE", "TECHNICAL", "SOURCE", "PROVENANCE", "RIGHTS" };
+
+    /* the properties copied when an object is written again by a metadata update */
+    private static final String[] COPIED_PROPERTIES = new String[] { HAS_TYPE, HAS_TITLE, HAS_FILENAME, HAS_MIMETYPE, HAS_INGEST_SOURCE,
+            HAS_REFERENCED_CONTENT, HAS_BITSTREAM_TYPE };
+
+    private static final int ENTITY_LOCK_STRIPES = 256;
+
+    private static final int METADATA_BUFFER_THRESHOLD = 4 * 1024 * 1024;
+
+    /* the namespace prefix fcrepo registers in the session of a transaction */
+    private static final String TRANSACTION_NAMESPACE_PREFIX = "fcrepo4.tx.id";
+
+    /* the metadata types keyed by the namespace of the metadata's root element */
+    private static final Map<String, String> METADATA_TYPES = new HashMap<>();
+
+    static {
+        METADATA_TYPES.put("http://purl.org/dc/elements/1.1/", "dublin-core");
+        METADATA_TYPES.put("http://books.google.com/gbs", "gbs");
+        METADATA_TYPES.put("http://hul.harvard.edu/ois/xml/ns/fits/fits_output", "fits");
+        METADATA_TYPES.put("http://www.loc.gov/audioMD/", "audiomd");
+        METADATA_TYPES.put("http://www.loc.gov/MARC21/slim", "marc21");
+        METADATA_TYPES.put("http://www.loc.gov/mix/v20", "mix");
+        METADATA_TYPES.put("http://www.loc.gov/videoMD/", "videomd");
+        METADATA_TYPES.put("info:lc/xmlns/premis-v2", "premis");
+        METADATA_TYPES.put("info:lc/xmlns/textmd-v3", "textmd");
+    }
+
+    /* a buffer grown by a large record is released on reset, so only a small buffer is kept per thread */
+    private final ThreadLocal<SpillingOutputStream> metadataBuffers = new ThreadLocal<SpillingOutputStream>() {
+
+        @Override
+        protected SpillingOutputStream initialValue() {
+            return new SpillingOutputStream(METADATA_BUFFER_THRESHOLD, tempDirectory);
+        }
+    };
+
+    private final ConcurrentMap<String, AtomicLong> metadataMarshalTimes = new ConcurrentHashMap<>();
+
     /**
      * Create a new {@link ConnectorService} instance
-     *
-     * @throws javax.xml.bind.JAXBException
-     *             if the initizialization of the JAX-B marshalling mechanism
-     *             failed
      */
-    public ConnectorService() throws JAXBException {
-        System.out.println("new instance for marshaller");
-        marshaller = ScapeMarshaller.newInstance();
+    public ConnectorService() {
+        for (int i = 0; i < entityLocks.length; i++) {
+            entityLocks[i] = new ReentrantLock();
+        }
         tempDirectory = new java.io.File(System.getProperty("java.io.tmpdir") + "/scape-connector-queue");
         if (!tempDirectory.exists()) {
             tempDirectory.mkdir();
@@ -131,6 +239,15 @@ public class ConnectorService {
 
     @PostConstruct
     public void init() {
+        /* relative file locations are resolved in the local pairtree if one is configured */
+        final PairtreeFileResolver pairtree = (pairtreeBasePath != null && !pairtreeBasePath.isEmpty()) ? new PairtreeFileResolver(
+                pairtreeBasePath, pairtreeEncapsulated) : null;
+        this.fileStager = new FileStager(tempDirectory, maxConcurrentDownloads, maxConcurrentDownloadsPerEntity, pairtree);
+        this.entityCache = new EntityCache(entityCacheSize, versionCacheSize);
+        this.versionComparator = new VersionComparator(marshallerService);
+        this.entityPaths = new EntityPathResolver(ENTITY_FOLDER, entityShardDepth);
+        this.statistics = new ConnectorStatistics(this, marshallerService);
+        this.statistics.register();
         try {
             final Session session = this.sessionFactory.getInternalSession();
             /* make sure that the scape namespace is available in fcrepo */
@@ -225,11 +342,64 @@ public class ConnectorService {
             /* make sure that the queue object exists for async ingests */
             this.objectService.findOrCreateObject(session, ConnectorService.QUEUE_NODE).getNode().addMixin("scape:async-queue");
             session.save();
-        } catch (RepositoryException e) {
+
+            if (this.entityLayoutMigration) {
+                /* move the entities of a flat repository before any request is served */
+                new EntityLayoutMigration(session, this.objectService, this.entityPaths, this.fedoraUrl).migrate();
+            }
+
+            rebuildQueueIndex(session);
+            replayIngestJournal(session);
+        } catch (RepositoryException | IOException e) {
             LOG.error("Error while setting up scape connector api", e);
             throw new RuntimeException("Unable to setup scape on fedora");
         }
 
+        /* start the workers for the asynchronous ingest */
+        final int numWorkers = Math.max(1, this.ingestWorkers);
+        final AtomicInteger count = new AtomicInteger();
+        this.ingestWorkerPool = Executors.newFixedThreadPool(numWorkers, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "scape-ingest-worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < numWorkers; i++) {
+            this.ingestWorkerPool.execute(new IngestWorker());
+        }
+
+        /* write the snapshots of the versions ingested before snapshots have been enabled */
+        if (this.entitySnapshots) {
+            this.snapshotBackfill = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "scape-snapshot-backfill");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+            this.snapshotBackfill.execute(new SnapshotBackfill());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        this.statistics.unregister();
+        this.fileStager.shutdown();
+        this.ingestWorkerPool.shutdownNow();
+        if (this.snapshotBackfill != null) {
+            this.snapshotBackfill.shutdownNow();
+        }
+        try {
+            this.ingestJournal.close();
+        } catch (IOException e) {
+            LOG.warn("Unable to close the ingest journal", e);
+        }
     }
 
     private PropertyDefinitionTemplate createSinglePropertyDefTemplate(Session session, NodeTypeManager mgr, String name, int propertyType) throws RepositoryException {
@@ -298,6 +468,130 @@ public class ConnectorService {
         this.referencedContent = referencedContent;
     }
 
+    /**
+     * Set the maximum number of binary files which are fetched concurrently
+     * for all ingests in managed content mode
+     *
+     * @param maxConcurrentDownloads
+     *            the maximum number of concurrent downloads
+     */
+    public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+    }
+
+    /**
+     * Set the maximum number of binary files which are fetched concurrently
+     * for a single {@link IntellectualEntity} in managed content mode
+     *
+     * @param maxConcurrentDownloadsPerEntity
+     *            the maximum number of concurrent downloads per entity
+     */
+    public void setMaxConcurrentDownloadsPerEntity(int maxConcurrentDownloadsPerEntity) {
+        this.maxConcurrentDownloadsPerEntity = maxConcurrentDownloadsPerEntity;
+    }
+
+    /**
+     * Set the number of workers ingesting the {@link IntellectualEntity}s
+     * from the asynchronous queue concurrently
+     *
+     * @param ingestWorkers
+     *            the number of ingest workers
+     */
+    public void setIngestWorkers(int ingestWorkers) {
+        this.ingestWorkers = ingestWorkers;
+    }
+
+    /**
+     * Set the capacity of the entity cache as the maximum serialized size of
+     * the entities kept in memory. A value of 0 disables the cache
+     *
+     * @param entityCacheSize
+     *            the capacity of the entity cache in bytes
+     */
+    public void setEntityCacheSize(long entityCacheSize) {
+        this.entityCacheSize = entityCacheSize;
+    }
+
+    /**
+     * Set the maximum number of entities for which the current version number
+     * is kept in memory
+     *
+     * @param versionCacheSize
+     *            the number of current version numbers to keep
+     */
+    public void setVersionCacheSize(int versionCacheSize) {
+        this.versionCacheSize = versionCacheSize;
+    }
+
+    /**
+     * Enable the METS snapshots of the entity versions. If enabled the METS
+     * document of a version is serialized once when the version is written
+     * and stored next to the version, so that it can be served without
+     * assembling and marshalling the entity
+     *
+     * @param entitySnapshots
+     *            <code>true</code> if snapshots should be written and served
+     */
+    public void setEntitySnapshots(boolean entitySnapshots) {
+        this.entitySnapshots = entitySnapshots;
+    }
+
+    /**
+     * Set the number of shard folders between the entity folder and an
+     * entity. With a depth of 0 all the entities are stored directly in the
+     * entity folder
+     *
+     * @param entityShardDepth
+     *            the shard depth of the entity layout
+     */
+    public void setEntityShardDepth(int entityShardDepth) {
+        this.entityShardDepth = entityShardDepth;
+    }
+
+    /**
+     * Enable the migration of the entities stored directly in the entity
+     * folder into the configured shard folders on startup
+     *
+     * @param entityLayoutMigration
+     *            <code>true</code> if the entities should be migrated
+     */
+    public void setEntityLayoutMigration(boolean entityLayoutMigration) {
+        this.entityLayoutMigration = entityLayoutMigration;
+    }
+
+    /**
+     * Set the directory of the local pairtree in which the files with a
+     * relative location are looked up using the entity's id
+     *
+     * @param pairtreeBasePath
+     *            the base path of the pairtree or an empty string if relative
+     *            locations are not resolved in a pairtree
+     */
+    public void setPairtreeBasePath(String pairtreeBasePath) {
+        this.pairtreeBasePath = pairtreeBasePath;
+    }
+
+    /**
+     * Set the name of the encapsulating directory of an entity in the local
+     * pairtree
+     *
+     * @param pairtreeEncapsulated
+     *            the name of the directory or an empty string if the files are
+     *            stored directly in the entity's pairtree directory
+     */
+    public void setPairtreeEncapsulated(String pairtreeEncapsulated) {
+        this.pairtreeEncapsulated = pairtreeEncapsulated;
+    }
+
+    /**
+     * Get the hit, miss and eviction counters of the entity cache
+     *
+     * @return a {@link Map} containing the statistics of the entity cache
+     */
+    public Map<String, Long> getEntityCacheStatistics() {
+        return this.entityCache.getStatistics();
+    }
+
     /**
      * Retrieve the current version of an {@link IntellectualEntity} from Fedora
      *
@@ -329,44 +623,170 @@ public class ConnectorService {
      *             {@link IntellectualEntity} from Fedora
      */
     public IntellectualEntity fetchEntity(final Session session, final String id, final Integer versionNumber) throws RepositoryException {
+        final int version = (versionNumber != null) ? versionNumber : fetchCurrentVersionNumber(session, id);
+
+        /* versions are immutable so a cached version can be served as is */
+        final EntityCache cache = cacheFor(session);
+        IntellectualEntity ie = cache.get(id, version);
+        if (ie == null) {
+            ie = loadEntity(session, id, version);
+            if (cache.getCapacity() > 0) {
+                cache.put(id, version, ie, serializedSize(ie));
+            }
+        }
+        return ie;
+    }
 
-        final IntellectualEntity.Builder ie = new IntellectualEntity.Builder();
-        ie.identifier(new Identifier(id));
+    /* the size of an entity's METS document, by which the entity is weighed in the cache */
+    private long serializedSize(final IntellectualEntity ie) throws RepositoryException {
+        final CountingOutputStream sink = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        try {
+            this.marshallerService.getMarshaller().serialize(ie, sink, false);
+        } catch (JAXBException e) {
+            throw new RepositoryException(e);
+        }
+        return sink.getByteCount();
+    }
 
-        final String entityPath = ENTITY_FOLDER + "/" + id;
-        final FedoraObject ieObject = this.objectService.findOrCreateObject(session, entityPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String entityUri = subjects.getSubject(entityPath).getURI();
-        final Dataset ds = ieObject.getPropertiesDataset(subjects);
-        final Model entityModel = SerializationUtils.unifyDatasetModel(ds);
-        String versionPath;
-        if (versionNumber != null) {
-            versionPath = entityPath + "/version-" + versionNumber;
-        } else {
-            versionPath = getCurrentVersionPath(entityModel, entityUri);
+    /**
+     * Retrieve a projection of a version of an {@link IntellectualEntity}
+     * from Fedora. Only the metadata contained in the projection is read from
+     * the repository, unless the complete version is cached already
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param id
+     *            the id of the {@link IntellectualEntity}
+     * @param versionNumber
+     *            the version identifier or <code>null</code> for the current
+     *            version
+     * @param projection
+     *            the {@link EntityProjection} defining the metadata to include
+     * @return the projected {@link IntellectualEntity}
+     * @throws RepositoryException
+     *             if an error occurred while fetching the
+     *             {@link IntellectualEntity} from Fedora
+     */
+    public IntellectualEntity fetchEntity(final Session session, final String id, final Integer versionNumber, final EntityProjection projection)
+            throws RepositoryException {
+        if (projection.isFull()) {
+            return fetchEntity(session, id, versionNumber);
+        }
+        final int version = (versionNumber != null) ? versionNumber : fetchCurrentVersionNumber(session, id);
+        final IntellectualEntity cached = cacheFor(session).get(id, version);
+        if (cached != null) {
+            return projection.apply(cached);
+        }
+        /* a partial entity is not cached since it can't serve other projections */
+        final String entityPath = this.entityPaths.getEntityPath(id);
+        return newEntityLoader(session, projection).loadEntity(entityPath, entityPath + "/version-" + version);
+    }
+
+    /**
+     * Retrieve the stored METS snapshot of an {@link IntellectualEntity}'s
+     * version. The snapshot contains the METS document as it is rendered
+     * without references to the {@link File}s' content
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param id
+     *            the id of the {@link IntellectualEntity}
+     * @param versionNumber
+     *            the version number or <code>null</code> for the current
+     *            version
+     * @return a {@link ContentTypeInputStream} containing the METS document or
+     *         <code>null</code> if snapshots are disabled or the version does
+     *         not have a snapshot yet
+     * @throws RepositoryException
+     *             if an error occurred while reading the snapshot
+     */
+    public ContentTypeInputStream fetchEntitySnapshot(final Session session, final String id, final Integer versionNumber) throws RepositoryException {
+        if (!this.entitySnapshots) {
+            return null;
         }
+        final int version = (versionNumber != null) ? versionNumber : fetchCurrentVersionNumber(session, id);
+        final String path = this.entityPaths.getEntityPath(id) + "/version-" + version + "/" + SNAPSHOT_DATASTREAM;
+        if (!this.repositoryReader.exists(session, path)) {
+            return null;
+        }
+        final Datastream ds = this.repositoryReader.getDatastream(session, path);
+        return new ContentTypeInputStream(ds.getBinary().getMimeType(), ds.getBinary().getContentSize(), ds.getBinary().getContent());
+    }
 
-        final FedoraObject versionObject = this.objectService.findOrCreateObject(session, versionPath);
-        final Model versionModel = SerializationUtils.unifyDatasetModel(versionObject.getPropertiesDataset(subjects));
+    /* serialize a version's METS document once and store it next to the version */
+    private void writeEntitySnapshot(final Session session, final String id, final int versionNumber) {
+        if (!this.entitySnapshots) {
+            return;
+        }
+        final String path = this.entityPaths.getEntityPath(id) + "/version-" + versionNumber + "/" + SNAPSHOT_DATASTREAM;
+        final SpillingOutputStream sink = this.metadataBuffers.get();
+        try {
+            final IntellectualEntity ie = fetchEntity(session, id, versionNumber);
+            this.marshallerService.getMarshaller().serialize(ie, sink, false);
+            final Datastream ds = datastreamService.findOrCreateDatastream(session, path);
+            try (final InputStream src = sink.getInputStream()) {
+                ds.getBinary().setContent(src, "text/xml", null, null, datastreamService.getStoragePolicyDecisionPoint());
+            }
+            session.save();
+        } catch (RepositoryException | JAXBException | IOException | InvalidChecksumException e) {
+            /* the version has been saved already and is served without the snapshot */
+            LOG.warn("Unable to write the METS snapshot " + path, e);
+            try {
+                session.refresh(false);
+            } catch (RepositoryException re) {
+                LOG.warn("Unable to discard the snapshot changes", re);
+            }
+        } finally {
+            resetMetadataBuffer(sink);
+        }
+    }
 
-        /* fetch the ie's metadata form the repo */
-        ie.descriptive(fetchMetadata(session, versionPath + "/DESCRIPTIVE"));
+    /**
+     * Writes the missing METS snapshots of all the versions in the repository
+     */
+    private class SnapshotBackfill implements Runnable {
 
-        /* find all the representations of this entity */
-        final Resource versionResource = versionModel.createResource(subjects.getSubject(versionPath).getURI());
-        final List<Representation> reps = new ArrayList<>();
-        for (String repUri : getLiteralStrings(versionModel, versionResource, HAS_REPRESENTATION)) {
-            reps.add(fetchRepresentation(session, repUri.substring(repUri.indexOf('/'))));
+        @Override
+        public void run() {
+            int count = 0;
+            try {
+                final Session session = sessionFactory.getInternalSession();
+                try {
+                    final Iterator<Node> entities = entityPaths.iterateEntities(session);
+                    while (entities.hasNext() && !Thread.currentThread().isInterrupted()) {
+                        final Node entity = entities.next();
+                        final NodeIterator versions = entity.getNodes("version-*");
+                        while (versions.hasNext()) {
+                            final Node version = versions.nextNode();
+                            if (version.hasNode(SNAPSHOT_DATASTREAM)) {
+                                continue;
+                            }
+                            final String name = version.getName();
+                            writeEntitySnapshot(session, entity.getName(), Integer.parseInt(name.substring(name.lastIndexOf('-') + 1)));
+                            count++;
+                        }
+                    }
+                } finally {
+                    session.logout();
+                }
+            } catch (RepositoryException | NumberFormatException e) {
+                LOG.error("Unable to backfill the METS snapshots", e);
+            }
+            LOG.info("backfilled {} METS snapshots", count);
         }
-        ie.representations(reps);
+    }
+
+    private IntellectualEntity loadEntity(final Session session, final String id, final int versionNumber) throws RepositoryException {
+        final String entityPath = this.entityPaths.getEntityPath(id);
+        return newEntityLoader(session).loadEntity(entityPath, entityPath + "/version-" + versionNumber);
+    }
 
-        /* fetch the lifecycle state */
-        final Resource entityResource = versionModel.createResource(entityUri);
-        final String state = getFirstLiteralString(entityModel, entityResource, HAS_LIFECYCLESTATE);
-        final String details = getFirstLiteralString(entityModel, entityResource, HAS_LIFECYCLESTATE_DETAILS);
-        ie.lifecycleState(new LifecycleState(details, LifecycleState.State.valueOf(state)));
+    private EntityLoader newEntityLoader(final Session session) {
+        return newEntityLoader(session, EntityProjection.FULL);
+    }
 
-        return ie.build();
+    private EntityLoader newEntityLoader(final Session session, final EntityProjection projection) {
+        return new EntityLoader(this.repositoryReader, session, this.marshallerService, this.fedoraUrl, this.referencedContent, projection);
     }
 
     /**
@@ -382,7 +802,7 @@ public class ConnectorService {
      */
     public BitStream fetchBitStream(final Session session, final String bsUri) throws RepositoryException {
         final BitStream.Builder bs = new BitStream.Builder();
-        bs.identifier(new Identifier(bsUri.substring(bsUri.lastIndexOf('/') + 1)));
+        bs.identifier(new Identifier(this.repositoryReader.getNode(session, bsUri).getName()));
         bs.technical(fetchMetadata(session, bsUri + "/TECHNICAL"));
         return bs.build();
     }
@@ -406,23 +826,92 @@ public class ConnectorService {
      */
     public ContentTypeInputStream fetchBinaryFile(final Session session, final String entityId, final String repId, final String fileId, final String versionId)
             throws RepositoryException {
+        final Datastream ds = fetchBinaryFileDatastream(session, entityId, repId, fileId, versionId);
+        return new ContentTypeInputStream(ds.getBinary().getMimeType(), ds.getBinary().getContentSize(), ds.getBinary().getContent());
+    }
 
-        final String entityPath, dsPath;
-        if (versionId == null) {
-            entityPath = ENTITY_FOLDER + "/" + entityId;
-            final FedoraObject fo = this.objectService.findOrCreateObject(session, entityPath);
-            final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-            final String uri = subjects.getSubject(entityPath).getURI();
-            final Model entityModel = SerializationUtils.unifyDatasetModel(fo.getPropertiesDataset(subjects));
-            dsPath = this.getCurrentVersionPath(entityModel, uri) + "/" + repId + "/" + fileId + "/DATA";
-        } else {
-            entityPath = ENTITY_FOLDER + "/" + entityId + "/version-" + versionId;
-            dsPath = entityPath + "/" + repId + "/" + fileId + "/DATA";
+    /**
+     * Retrieve the URI of the referenced content of a {@link File}. The URI
+     * is taken from a cached version of the entity if possible, otherwise
+     * only the {@link File}'s node is read, so that a redirect does not
+     * require the whole {@link IntellectualEntity} to be loaded
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param entityId
+     *            the {@link IntellectualEntity}'s id
+     * @param repId
+     *            the {@link Representation}'s id
+     * @param fileId
+     *            the {@link File}'s id
+     * @param versionId
+     *            the version number or <code>null</code> for the current
+     *            version
+     * @return the {@link URI} of the {@link File}'s content
+     * @throws RepositoryException
+     *             if the {@link File} does not exist or could not be read
+     */
+    public URI fetchReferencedContentUri(final Session session, final String entityId, final String repId, final String fileId, final Integer versionId)
+            throws RepositoryException {
+        final int version = (versionId != null) ? versionId : fetchCurrentVersionNumber(session, entityId);
+
+        final IntellectualEntity cached = cacheFor(session).get(entityId, version);
+        if (cached != null && cached.getRepresentations() != null) {
+            for (Representation r : cached.getRepresentations()) {
+                if (r.getIdentifier().getValue().equals(repId) && r.getFiles() != null) {
+                    for (File f : r.getFiles()) {
+                        if (f.getIdentifier().getValue().equals(fileId)) {
+                            return f.getUri();
+                        }
+                    }
+                }
+            }
+        }
+
+        final String filePath = resolveVersionPath(session, entityId, version, repId + "/" + fileId);
+        final String uri = ScapeProperties.getString(this.repositoryReader.getNode(session, filePath), HAS_REFERENCED_CONTENT);
+        if (uri == null) {
+            throw new PathNotFoundException("No referenced content for " + filePath);
         }
+        return URI.create(uri);
+    }
+
+    /**
+     * Retrieve a range of the binary content of a {@link File}. The binary's
+     * stream is opened once and positioned at the start of the range
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param entityId
+     *            the {@link IntellectualEntity}'s id
+     * @param repId
+     *            the {@link Representation}'s id
+     * @param fileId
+     *            the {@link File}'s id
+     * @param versionId
+     *            the version id of the {@link File}
+     * @param offset
+     *            the position of the first byte of the range
+     * @param length
+     *            the number of bytes in the range
+     * @return a {@link ContentTypeInputStream} containing the range of the
+     *         binary file data
+     * @throws RepositoryException
+     *             if an error occurred while fetching he binary data
+     */
+    public ContentTypeInputStream fetchBinaryFile(final Session session, final String entityId, final String repId, final String fileId, final String versionId,
+            final long offset, final long length) throws RepositoryException {
+        final Datastream ds = fetchBinaryFileDatastream(session, entityId, repId, fileId, versionId);
+        final javax.jcr.Binary binary = ds.getNode().getNode(Node.JCR_CONTENT).getProperty(Property.JCR_DATA).getBinary();
+        return new ContentTypeInputStream(ds.getBinary().getMimeType(), length, new BinaryRangeInputStream(binary, offset, length));
+    }
 
-        final Datastream ds = this.datastreamService.findOrCreateDatastream(session, dsPath);
+    private Datastream fetchBinaryFileDatastream(final Session session, final String entityId, final String repId, final String fileId, final String versionId)
+            throws RepositoryException {
+        final int version = (versionId == null) ? fetchCurrentVersionNumber(session, entityId) : Integer.parseInt(versionId);
+        final String dsPath = resolveVersionPath(session, entityId, version, repId + "/" + fileId + "/DATA");
 
-        return new ContentTypeInputStream(ds.getBinary().getMimeType(), ds.getBinary().getContent());
+        return this.repositoryReader.getDatastream(session, dsPath);
     }
 
     /**
@@ -438,32 +927,7 @@ public class ConnectorService {
      *             Fedora
      */
     public File fetchFile(final Session session, final String fileUri) throws RepositoryException {
-        final File.Builder f = new File.Builder();
-        final FedoraObject fileObject = this.objectService.findOrCreateObject(session, fileUri);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final Model fileModel = SerializationUtils.unifyDatasetModel(fileObject.getPropertiesDataset(subjects));
-        final Resource parent = fileModel.createResource(subjects.getSubject(fileObject.getPath()).getURI());
-
-        /* fetch and add the properties and metadata from the repo */
-        f.technical(fetchMetadata(session, fileUri + "/TECHNICAL"));
-        String fileId = fileUri.substring(fileUri.lastIndexOf('/') + 1);
-        f.identifier(new Identifier(fileId));
-        f.filename(getFirstLiteralString(fileModel, parent, HAS_FILENAME));
-        f.mimetype(getFirstLiteralString(fileModel, parent, HAS_MIMETYPE));
-        String[] ids = fileUri.split("/");
-        if (this.referencedContent) {
-            f.uri(URI.create(getFirstLiteralString(fileModel, parent, HAS_REFERENCED_CONTENT)));
-        } else {
-            f.uri(URI.create(fedoraUrl + "/scape/file/" + ids[ids.length - 4] + "/" + ids[ids.length - 2] + "/" + ids[ids.length - 1]));
-        }
-        /* discover all the Bistreams and add them to the file */
-        final List<BitStream> streams = new ArrayList<>();
-        for (String bsUri : getLiteralStrings(fileModel, parent, HAS_BITSTREAM)) {
-            streams.add(fetchBitStream(session, bsUri.substring(bsUri.indexOf('/'))));
-        }
-        f.bitStreams(streams);
-
-        return f.build();
+        return newEntityLoader(session).loadFile(fileUri);
     }
 
     /**
@@ -478,29 +942,46 @@ public class ConnectorService {
      * @throws RepositoryException
      */
     public Object fetchCurrentMetadata(final Session session, final String path) throws RepositoryException {
+        try {
+            return this.marshallerService.deserializeMetadata(fetchCurrentMetadataDatastream(session, path).getBinary().getContent());
+        } catch (JAXBException e) {
+            throw new RepositoryException(e);
+        }
+    }
 
-        String[] ids = path.substring(ENTITY_FOLDER.length() + 1).split("/");
-        String entityPath = ENTITY_FOLDER + "/" + ids[0];
-        final FedoraObject entityObject = objectService.findOrCreateObject(session, entityPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(entityPath).getURI();
+    /**
+     * Retrieve the stored XML document of the current version of the metadata
+     * of an object saved in Fedora. In contrast to
+     * {@link #fetchCurrentMetadata(Session, String)} the document is not
+     * unmarshalled, so it can be passed on as it is stored
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param path
+     *            the path of the object in Fedora
+     * @return a {@link ContentTypeInputStream} containing the metadata's XML
+     *         document
+     * @throws RepositoryException
+     *             if the metadata does not exist or could not be read
+     */
+    public ContentTypeInputStream fetchCurrentMetadataContent(final Session session, final String path) throws RepositoryException {
+        final Datastream mdDs = fetchCurrentMetadataDatastream(session, path);
+        return new ContentTypeInputStream(mdDs.getBinary().getMimeType(), mdDs.getBinary().getContentSize(), mdDs.getBinary().getContent());
+    }
 
-        StringBuilder versionPath = new StringBuilder();
-        versionPath.append(this.getCurrentVersionPath(SerializationUtils.unifyDatasetModel(entityObject.getPropertiesDataset(subjects)), uri));
-        for (int i = 1; i < ids.length; i++) {
-            versionPath.append("/");
-            versionPath.append(ids[i]);
+    private Datastream fetchCurrentMetadataDatastream(final Session session, final String path) throws RepositoryException {
+        final String relativePath = path.substring(ENTITY_FOLDER.length() + 1);
+        if (relativePath.indexOf('/') == -1) {
+            throw new PathNotFoundException("No metadata available for " + path);
         }
+        final String entityId = relativePath.substring(0, relativePath.indexOf('/'));
+        final String versionPath = resolveVersionPath(session, entityId, fetchCurrentVersionNumber(session, entityId),
+                relativePath.substring(entityId.length() + 1));
 
-        try {
-            if (!this.datastreamService.exists(session, versionPath.toString())) {
-                throw new PathNotFoundException("No metadata available for " + path);
-            }
-            final Datastream mdDs = this.datastreamService.findOrCreateDatastream(session, versionPath.toString());
-            return this.marshaller.deserialize(mdDs.getBinary().getContent());
-        } catch (JAXBException e) {
-            throw new RepositoryException(e);
+        if (!this.repositoryReader.exists(session, versionPath)) {
+            throw new PathNotFoundException("No metadata available for " + path);
         }
+        return this.repositoryReader.getDatastream(session, versionPath);
     }
 
     /**
@@ -517,11 +998,11 @@ public class ConnectorService {
     public Object fetchMetadata(final Session session, final String path) throws RepositoryException {
 
         try {
-            if (!this.datastreamService.exists(session, path)) {
+            if (!this.repositoryReader.exists(session, path)) {
                 return null;
             }
-            final Datastream mdDs = this.datastreamService.findOrCreateDatastream(session, path);
-            return this.marshaller.deserialize(mdDs.getBinary().getContent());
+            final Datastream mdDs = this.repositoryReader.getDatastream(session, path);
+            return this.marshallerService.deserializeMetadata(mdDs.getBinary().getContent());
         } catch (JAXBException e) {
             throw new RepositoryException(e);
         }
@@ -540,31 +1021,7 @@ public class ConnectorService {
      *             {@link Representation}
      */
     public Representation fetchRepresentation(final Session session, final String repPath) throws RepositoryException {
-        final Representation.Builder rep = new Representation.Builder();
-        final FedoraObject repObject = this.objectService.findOrCreateObject(session, repPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(repPath).getURI();
-        final Model repModel = SerializationUtils.unifyDatasetModel(repObject.getPropertiesDataset(subjects));
-        final Resource parent = repModel.createResource(uri);
-
-        /* find the title and id */
-        rep.identifier(new Identifier(repPath.substring(repPath.lastIndexOf('/') + 1)));
-        rep.title(getFirstLiteralString(repModel, parent, HAS_TITLE));
-
-        /* find and add the metadata */
-        rep.technical(fetchMetadata(session, repObject.getPath() + "/TECHNICAL"));
-        rep.source(fetchMetadata(session, repObject.getPath() + "/SOURCE"));
-        rep.provenance(fetchMetadata(session, repObject.getPath() + "/PROVENANCE"));
-        rep.rights(fetchMetadata(session, repObject.getPath() + "/RIGHTS"));
-
-        /* add the individual files */
-        final List<File> files = new ArrayList<>();
-        for (String fileUri : getLiteralStrings(repModel, parent, HAS_FILE)) {
-            files.add(fetchFile(session, fileUri.substring(fileUri.indexOf('/'))));
-        }
-
-        rep.files(files);
-        return rep.build();
+        return newEntityLoader(session).loadRepresentation(repPath);
     }
 
     /**
@@ -585,24 +1042,61 @@ public class ConnectorService {
 
     public Representation fetchRepresentation(final Session session, final String entityId, String repId, Integer versionId) throws RepositoryException {
 
-        String entityPath, repPath;
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        if (versionId == null) {
-            entityPath = ENTITY_FOLDER + "/" + entityId;
-            final FedoraObject fo = this.objectService.findOrCreateObject(session, entityPath);
-            final String uri = subjects.getSubject(fo.getPath()).getURI();
-            final Model entityModel = SerializationUtils.unifyDatasetModel(fo.getPropertiesDataset(subjects));
-            repPath = this.getCurrentVersionPath(entityModel, uri) + "/" + repId;
-        } else {
-            entityPath = ENTITY_FOLDER + "/" + entityId + "/version-" + versionId;
-            repPath = entityPath + "/" + repId;
+        final int version = (versionId != null) ? versionId : fetchCurrentVersionNumber(session, entityId);
+
+        /* serve the representation from the cached entity if possible */
+        final IntellectualEntity cached = cacheFor(session).get(entityId, version);
+        if (cached != null && cached.getRepresentations() != null) {
+            for (Representation r : cached.getRepresentations()) {
+                if (r.getIdentifier().getValue().equals(repId)) {
+                    return r;
+                }
+            }
         }
 
-        return this.fetchRepresentation(session, repPath);
+        return this.fetchRepresentation(session, resolveVersionPath(session, entityId, version, repId));
     }
 
     /**
-     * Retrieve a {@link VersionList} from Fedora
+     * Retrieve a projection of a specific version of a {@link Representation}
+     * from Fedora. Only the metadata contained in the projection is read from
+     * the repository
+     *
+     * @param session
+     *            the {@link Session} to use for this operation
+     * @param entityId
+     *            the id of the {@link IntellectualEntity}
+     * @param repId
+     *            the id of the {@link Representation}
+     * @param versionId
+     *            the id of the version to fetch or <code>null</code> for the
+     *            current version
+     * @param projection
+     *            the {@link EntityProjection} defining the metadata to include
+     * @return the projected {@link Representation}
+     * @throws RepositoryException
+     *             if an error occurred while retrieving a
+     *             {@link Representation}
+     */
+    public Representation fetchRepresentation(final Session session, final String entityId, final String repId, final Integer versionId,
+            final EntityProjection projection) throws RepositoryException {
+        if (projection.isFull()) {
+            return fetchRepresentation(session, entityId, repId, versionId);
+        }
+        final int version = (versionId != null) ? versionId : fetchCurrentVersionNumber(session, entityId);
+        final IntellectualEntity cached = cacheFor(session).get(entityId, version);
+        if (cached != null && cached.getRepresentations() != null) {
+            for (Representation r : cached.getRepresentations()) {
+                if (r.getIdentifier().getValue().equals(repId)) {
+                    return projection.apply(r);
+                }
+            }
+        }
+        return newEntityLoader(session, projection).loadRepresentation(resolveVersionPath(session, entityId, version, repId));
+    }
+
+    /**
+     * Retrieve a {@link VersionList} from Fedora
      *
      * @param session
      *            the {@link Session} to use for the operation
@@ -613,13 +1107,8 @@ public class ConnectorService {
      *             if an error occurred while creating the {@link VersionList}
      */
     public VersionList fetchVersionList(final Session session, final String entityId) throws RepositoryException {
-        final String entityPath = ENTITY_FOLDER + "/" + entityId;
-        final FedoraObject entityObject = this.objectService.findOrCreateObject(session, entityPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(entityObject.getPath()).getURI();
-        final Model model = SerializationUtils.unifyDatasetModel(entityObject.getPropertiesDataset(subjects));
-        final Resource subject = model.createResource(uri);
-        return new VersionList(entityId, getLiteralStrings(model, subject, HAS_VERSION));
+        final Node entityNode = this.repositoryReader.getNode(session, this.entityPaths.getEntityPath(entityId));
+        return new VersionList(entityId, ScapeProperties.getStrings(entityNode, HAS_VERSION));
     }
 
     /**
@@ -656,22 +1145,32 @@ public class ConnectorService {
      *             {@link IntellectualEntity}
      */
     public String addEntity(final Session session, final InputStream src, String entityId) throws RepositoryException {
+        /* read the post body into an IntellectualEntity object */
+        final IntellectualEntity ie;
         try {
-            /* read the post body into an IntellectualEntity object */
-            final IntellectualEntity ie = this.marshaller.deserialize(IntellectualEntity.class, src);
-            final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
-
-            if (entityId == null) {
-                if (ie.getIdentifier() != null) {
-                    entityId = ie.getIdentifier().getValue();
-                    this.validateId(entityId);
-                } else {
-                    entityId = UUID.randomUUID().toString();
-                }
+            ie = this.marshallerService.getMarshaller().deserialize(IntellectualEntity.class, src);
+        } catch (JAXBException e) {
+            LOG.error(e.getLocalizedMessage(), e);
+            throw new RepositoryException(e);
+        }
 
+        /* the id is needed up front since relative file locations are resolved using it */
+        if (entityId == null) {
+            if (ie.getIdentifier() != null) {
+                entityId = ie.getIdentifier().getValue();
+                this.validateId(entityId);
+            } else {
+                entityId = UUID.randomUUID().toString();
             }
+        }
+
+        /* start fetching the binaries while the objects are created */
+        try (final FileStager.Batch staged = stageFiles(entityId, ie.getRepresentations(), null)) {
+            /* all the triples of the entity's graph are written in one update */
+            final TripleAccumulator triples = new TripleAccumulator();
+
             /* create the entity top level object in fcrepo as a first version */
-            final String entityPath = ENTITY_FOLDER + "/" + entityId;
+            final String entityPath = this.entityPaths.getEntityPath(entityId);
             final String versionPath = entityPath + "/version-1";
 
             if (this.objectService.exists(session, "/" + entityPath)) {
@@ -691,35 +1190,320 @@ public class ConnectorService {
 
             /* add the metadata datastream for descriptive metadata */
             if (ie.getDescriptive() != null) {
-                addMetadata(session, ie.getDescriptive(), versionPath + "/DESCRIPTIVE");
+                addMetadata(session, ie.getDescriptive(), versionPath + "/DESCRIPTIVE", triples);
             }
 
-
             /* add all the representations */
-            for (String repUri : addRepresentations(session, ie.getRepresentations(), versionPath)) {
-                sparql.append("INSERT DATA {<" + versionUri + "> " + prefix(HAS_REPRESENTATION) + " \"" + repUri + "\"};");
+            for (String repUri : addRepresentations(session, ie.getRepresentations(), versionPath, staged, null, triples)) {
+                triples.addLiteral(versionUri, prefix(HAS_REPRESENTATION), repUri);
             }
 
             /* update the intellectual entity's properties */
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_LIFECYCLESTATE) + " \"" + LifecycleState.State.INGESTED + "\"};");
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_LIFECYCLESTATE_DETAILS) + " \"successfully ingested at " + new Date().getTime() + "\"};");
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_TYPE) + " \"intellectualentity\"};");
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_VERSION) + " \"" + versionUri + "\"};");
-            sparql.append("INSERT DATA {<" + entityUri + "> " + prefix(HAS_CURRENT_VERSION) + "  <" + versionUri + "> };");
+            triples.addLiteral(entityUri, prefix(HAS_LIFECYCLESTATE), LifecycleState.State.INGESTED.toString());
+            triples.addLiteral(entityUri, prefix(HAS_LIFECYCLESTATE_DETAILS), "successfully ingested at " + new Date().getTime());
+            triples.addLiteral(entityUri, prefix(HAS_TYPE), "intellectualentity");
+            triples.addLiteral(entityUri, prefix(HAS_VERSION), versionUri);
+            triples.addResource(entityUri, prefix(HAS_CURRENT_VERSION), versionUri);
 
-            /* update the object and it's child's using sparql */
-            entityObject.updatePropertiesDataset(subjects, sparql.toString());
+            /* update the object and it's child's using a single sparql update */
+            triples.apply(entityObject, subjects);
 
             /* save the changes made to the objects */
             session.save();
+            writeEntitySnapshot(session, entityId, 1);
             return entityId;
+        }
+    }
 
-        } catch (JAXBException e) {
+    /**
+     * Save an {@link IntellectualEntity} in Fedora while its METS
+     * representation is being read. In contrast to
+     * {@link #addEntity(Session, InputStream, String)} the METS document is
+     * not unmarshalled into an {@link IntellectualEntity}, but the
+     * representations, files and metadata are written to the repository as
+     * they are encountered, so that the memory used does not depend on the
+     * size of the package
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param src
+     *            the {@link IntellectualEntity}'s METS representation
+     * @param entityId
+     *            the id to use for the entity. if <code>null</code> the
+     *            document's OBJID or a random UUID will be used as an
+     *            identifier for the {@link IntellectualEntity}
+     * @return the id of the {@link IntellectualEntity} as saved in Fedora
+     * @throws RepositoryException
+     *             if an error occurred while saving the
+     *             {@link IntellectualEntity}
+     */
+    public String addEntityStreaming(final Session session, final InputStream src, final String entityId) throws RepositoryException {
+        try (final MetsStreamParser parser = new MetsStreamParser(src, this.tempDirectory);
+                final FileStager.Batch staged = this.fileStager.stage(Collections.<URI> emptyList())) {
+            final StreamingIngest ingest = new StreamingIngest(session, entityId, staged);
+            parser.parse(ingest);
+            if (ingest.entityObject == null) {
+                throw new RepositoryException("The document does not contain a METS entity");
+            }
+
+            /* save the changes made to the objects */
+            session.save();
+            writeEntitySnapshot(session, ingest.entityId, 1);
+            return ingest.entityId;
+        } catch (IOException | XMLStreamException e) {
             LOG.error(e.getLocalizedMessage(), e);
             throw new RepositoryException(e);
         }
     }
 
+    /**
+     * Writes the parts of an entity reported by a {@link MetsStreamParser} to
+     * the repository
+     */
+    private class StreamingIngest implements MetsStreamParser.Handler {
+
+        private final Session session;
+
+        private final FileStager.Batch staged;
+
+        private final TripleAccumulator triples = new TripleAccumulator();
+
+        private final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+
+        private String entityId;
+
+        private FedoraObject entityObject;
+
+        private String versionPath;
+
+        private String versionUri;
+
+        private StreamingIngest(final Session session, final String entityId, final FileStager.Batch staged) {
+            this.session = session;
+            this.entityId = entityId;
+            this.staged = staged;
+        }
+
+        @Override
+        public void startEntity(final String id) throws RepositoryException {
+            if (entityId == null) {
+                if (id != null) {
+                    validateId(id);
+                    entityId = id;
+                } else {
+                    entityId = UUID.randomUUID().toString();
+                }
+            }
+            staged.setEntityId(entityId);
+            /* create the entity top level object in fcrepo as a first version */
+            final String entityPath = entityPaths.getEntityPath(entityId);
+            versionPath = entityPath + "/version-1";
+
+            if (objectService.exists(session, "/" + entityPath)) {
+                /* return a 409: Conflict result */
+                throw new ItemExistsException("Entity '" + entityId + "' already exists");
+            }
+
+            entityObject = objectService.findOrCreateObject(session, entityPath);
+            entityObject.getNode().addMixin("scape:intellectual-entity");
+
+            final FedoraObject versionObject = objectService.findOrCreateObject(session, versionPath);
+            versionObject.getNode().addMixin("scape:intellectual-entity-version");
+            versionUri = subjects.getSubject(versionObject.getPath()).getURI();
+        }
+
+        @Override
+        public void descriptive(final MetsStreamParser.MetadataSection md) throws RepositoryException {
+            addMetadata(session, md, versionPath + "/DESCRIPTIVE", triples);
+        }
+
+        @Override
+        public void fileDeclared(final MetsStreamParser.FileSection file) throws RepositoryException {
+            /* start fetching the binary while the rest of the document is read */
+            if (!referencedContent) {
+                try {
+                    staged.add(file.getUri());
+                } catch (IOException e) {
+                    throw new RepositoryException(e);
+                }
+            }
+        }
+
+        @Override
+        public void representation(final MetsStreamParser.RepresentationSection rep) throws RepositoryException {
+            final String repId = (rep.getId() != null) ? rep.getId() : UUID.randomUUID().toString();
+            final String repPath = versionPath + "/" + repId;
+            final FedoraObject repObject = objectService.findOrCreateObject(session, repPath);
+            final String repUri = subjects.getSubject(repObject.getPath()).getURI();
+            repObject.getNode().addMixin("scape:representation");
+
+            /* add the metadatasets of the rep as datastreams */
+            if (rep.getMetadata(MetsStreamParser.Kind.TECHNICAL) != null) {
+                addMetadata(session, rep.getMetadata(MetsStreamParser.Kind.TECHNICAL), repPath + "/TECHNICAL", triples);
+            }
+            if (rep.getMetadata(MetsStreamParser.Kind.SOURCE) != null) {
+                addMetadata(session, rep.getMetadata(MetsStreamParser.Kind.SOURCE), repPath + "/SOURCE", triples);
+            }
+            if (rep.getMetadata(MetsStreamParser.Kind.RIGHTS) != null) {
+                addMetadata(session, rep.getMetadata(MetsStreamParser.Kind.RIGHTS), repPath + "/RIGHTS", triples);
+            }
+            if (rep.getMetadata(MetsStreamParser.Kind.PROVENANCE) != null) {
+                addMetadata(session, rep.getMetadata(MetsStreamParser.Kind.PROVENANCE), repPath + "/PROVENANCE", triples);
+                addPremisRecords(repUri, repObject.getPath(), triples);
+            }
+
+            /* add all the files */
+            for (final MetsStreamParser.FileSection f : rep.getFiles()) {
+                triples.addLiteral(repUri, prefix(HAS_FILE), addFile(f, repPath));
+            }
+
+            /* set the type of this object */
+            triples.addLiteral(repUri, prefix(HAS_TYPE), "representation");
+            triples.addLiteral(repUri, prefix(HAS_TITLE), rep.getTitle());
+            triples.addLiteral(versionUri, prefix(HAS_REPRESENTATION), repUri);
+        }
+
+        private String addFile(final MetsStreamParser.FileSection f, final String repPath) throws RepositoryException {
+            final String fileId = (f.getId() != null) ? f.getId() : UUID.randomUUID().toString();
+            final String filePath = repPath + "/" + fileId;
+            final FedoraObject fileObject = objectService.findOrCreateObject(session, filePath);
+            fileObject.getNode().addMixin("scape:file");
+            final String uri = subjects.getSubject(fileObject.getPath()).getURI();
+
+            /* add the metadata */
+            if (f.getTechnical() != null) {
+                addMetadata(session, f.getTechnical(), filePath + "/TECHNICAL", triples);
+            }
+
+            /* add all bitstreams as child objects */
+            for (final MetsStreamParser.StreamSection bs : f.getStreams()) {
+                final String bsId = (bs.getId() != null) ? bs.getId() : UUID.randomUUID().toString();
+                final String bsPath = filePath + "/" + bsId;
+                final FedoraObject bsObject = objectService.findOrCreateObject(session, bsPath);
+                bsObject.getNode().addMixin("scape:bitstream");
+                final String bsUri = subjects.getSubject(bsObject.getPath()).getURI();
+                if (bs.getTechnical() != null) {
+                    addMetadata(session, bs.getTechnical(), bsPath + "/TECHNICAL", triples);
+                }
+                triples.addLiteral(bsUri, prefix(HAS_TYPE), "bitstream");
+                triples.addLiteral(bsUri, prefix(HAS_BITSTREAM_TYPE), bitStreamType(bs.getType()).name());
+                triples.addLiteral(uri, prefix(HAS_BITSTREAM), bsUri);
+            }
+
+            writeFileContent(session, uri, filePath, f.getUri(), f.getTitle(), f.getMimetype(), staged, triples);
+            return uri;
+        }
+
+        /* the type of a bit stream as given by its METS streamType attribute */
+        private BitStream.Type bitStreamType(final String streamType) {
+            if (streamType != null) {
+                for (BitStream.Type type : BitStream.Type.values()) {
+                    if (type.name().equalsIgnoreCase(streamType)) {
+                        return type;
+                    }
+                }
+                LOG.warn("Unknown bit stream type {}", streamType);
+            }
+            return BitStream.Type.STREAM;
+        }
+
+        @Override
+        public void endEntity() throws RepositoryException {
+            final String entityUri = subjects.getSubject(entityObject.getPath()).getURI();
+
+            /* update the intellectual entity's properties */
+            triples.addLiteral(entityUri, prefix(HAS_LIFECYCLESTATE), LifecycleState.State.INGESTED.toString());
+            triples.addLiteral(entityUri, prefix(HAS_LIFECYCLESTATE_DETAILS), "successfully ingested at " + new Date().getTime());
+            triples.addLiteral(entityUri, prefix(HAS_TYPE), "intellectualentity");
+            triples.addLiteral(entityUri, prefix(HAS_VERSION), versionUri);
+            triples.addResource(entityUri, prefix(HAS_CURRENT_VERSION), versionUri);
+
+            /* update the object and it's child's using a single sparql update */
+            triples.apply(entityObject, subjects);
+        }
+    }
+
+    /**
+     * The {@link Representation}s and {@link File}s of the version an update
+     * is based on, together with the paths they are stored at. Versions are
+     * never removed, so the objects of a previous version can be linked by a
+     * new version instead of being written again
+     */
+    private class PreviousVersion {
+
+        private final Session session;
+
+        private final String entityId;
+
+        private final int versionNumber;
+
+        private final Map<String, Representation> representations = new HashMap<>();
+
+        private final Map<String, String> representationPaths;
+
+        private final Map<String, Map<String, String>> filePaths = new HashMap<>();
+
+        private PreviousVersion(final Session session, final String entityId, final String versionPath, final int versionNumber)
+                throws RepositoryException {
+            this.session = session;
+            this.entityId = entityId;
+            this.versionNumber = versionNumber;
+            this.representationPaths = linkedPaths(session, versionPath, HAS_REPRESENTATION);
+        }
+
+        /* only the representations which are part of the update are loaded */
+        private Representation getRepresentation(final String repId) throws RepositoryException {
+            if (!this.representationPaths.containsKey(repId)) {
+                return null;
+            }
+            Representation rep = this.representations.get(repId);
+            if (rep == null) {
+                rep = fetchRepresentation(this.session, this.entityId, repId, this.versionNumber);
+                this.representations.put(repId, rep);
+            }
+            return rep;
+        }
+
+        private String getRepresentationPath(final String repId) {
+            return this.representationPaths.get(repId);
+        }
+
+        private File getFile(final Representation rep, final File file) throws RepositoryException {
+            if (rep.getIdentifier() == null || file.getIdentifier() == null) {
+                return null;
+            }
+            final Representation previousRep = getRepresentation(rep.getIdentifier().getValue());
+            if (previousRep == null || previousRep.getFiles() == null || getFilePath(rep, file) == null) {
+                return null;
+            }
+            for (File f : previousRep.getFiles()) {
+                if (f.getIdentifier().getValue().equals(file.getIdentifier().getValue())) {
+                    return f;
+                }
+            }
+            return null;
+        }
+
+        private String getFilePath(final Representation rep, final File file) throws RepositoryException {
+            final String repId = rep.getIdentifier().getValue();
+            Map<String, String> paths = this.filePaths.get(repId);
+            if (paths == null) {
+                paths = linkedPaths(this.session, getRepresentationPath(repId), HAS_FILE);
+                this.filePaths.put(repId, paths);
+            }
+            return paths.get(file.getIdentifier().getValue());
+        }
+
+        /* the path of the previous file if its content has not been changed */
+        private String getContentPath(final Representation rep, final File file) throws RepositoryException {
+            final File previousFile = getFile(rep, file);
+            if (previousFile == null || file.getUri() == null || !file.getUri().equals(previousFile.getUri())) {
+                return null;
+            }
+            return getFilePath(rep, file);
+        }
+    }
+
     private void validateId(String entityId) throws RepositoryException{
         try {
             if (!URLEncoder.encode(entityId, "UTF-8").equals(entityId)) {
@@ -744,46 +1528,144 @@ public class ConnectorService {
      *             {@link IntellectualEntity}
      */
     public void updateEntity(final Session session, final InputStream src, final String entityId) throws RepositoryException {
-        final String entityPath = ENTITY_FOLDER + "/" + entityId;
-        final FedoraObject entityObject = this.objectService.findOrCreateObject(session, entityPath);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(entityObject.getPath()).getURI();
-        /* fetch the current version number from the repo */
-        final String oldVersionPath = getCurrentVersionPath(SerializationUtils.unifyDatasetModel(entityObject.getPropertiesDataset(subjects)), uri);
-        final String oldVersionUri = subjects.getSubject(oldVersionPath).getURI();
-        int versionNumber = Integer.parseInt(oldVersionPath.substring(oldVersionPath.lastIndexOf('-') + 1)) + 1;
-        final String newVersionPath = entityPath + "/version-" + versionNumber;
-        final String newVersionUri = subjects.getSubject(newVersionPath).getURI();
+        updateEntity(session, src, entityId, null);
+    }
 
+    /**
+     * Update an {@link IntellectualEntity} in Fedora if its current version
+     * is one of the versions the update is based on
+     *
+     * @param session
+     *            the {@link Session} to use for the update operation
+     * @param src
+     *            the updated {@link IntellectualEntity}'s METS representation
+     * @param entityId
+     *            the id of the {@link IntellectualEntity} to update
+     * @param expectedVersions
+     *            the version numbers the update is based on or
+     *            <code>null</code> for an unconditional update
+     * @return the number of the new version
+     * @throws VersionConflictException
+     *             if the current version is not one of the expected versions
+     * @throws RepositoryException
+     *             if an error occurred while updating the
+     *             {@link IntellectualEntity}
+     */
+    public int updateEntity(final Session session, final InputStream src, final String entityId, final Set<Integer> expectedVersions)
+            throws RepositoryException {
+        /* read the post body into an IntellectualEntity object */
+        final IntellectualEntity ie;
         try {
-            /* read the post body into an IntellectualEntity object */
-            final IntellectualEntity ie = this.marshaller.deserialize(IntellectualEntity.class, src);
-            final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
+            ie = this.marshallerService.getMarshaller().deserialize(IntellectualEntity.class, src);
+        } catch (JAXBException e) {
+            LOG.error(e.getLocalizedMessage(), e);
+            throw new RepositoryException(e);
+        }
 
-            final FedoraObject versionObject = objectService.findOrCreateObject(session, newVersionPath);
+        try (final VersionWriter version = new VersionWriter(session, entityId, expectedVersions)) {
+            /* unchanged representations, files and binaries are shared with the previous version */
+            final PreviousVersion previous = new PreviousVersion(session, entityId, version.previousPath, version.number - 1);
 
-            /* add the metadata datastream for descriptive metadata */
-            if (ie.getDescriptive() != null) {
-                addMetadata(session, ie.getDescriptive(), newVersionPath + "/DESCRIPTIVE");
+            /* start fetching the binaries while the objects are created */
+            try (final FileStager.Batch staged = stageFiles(entityId, ie.getRepresentations(), previous)) {
+                /* add the metadata datastream for descriptive metadata */
+                if (ie.getDescriptive() != null) {
+                    addMetadata(session, ie.getDescriptive(), version.path + "/DESCRIPTIVE", version.triples);
+                }
+
+                /* add all the representations */
+                for (String repUri : addRepresentations(session, ie.getRepresentations(), version.path, staged, previous, version.triples)) {
+                    version.triples.addLiteral(version.uri, prefix(HAS_REPRESENTATION), repUri);
+                }
+
+                version.commit();
             }
+            return version.number;
+        }
+    }
 
-            /* add all the representations */
-            addRepresentations(session, ie.getRepresentations(), newVersionPath);
+    /**
+     * A new version of an {@link IntellectualEntity} which is written by an
+     * update. All the triples of the new version's graph are collected and
+     * written in one update when the version is committed. The entity's lock
+     * is held from reading the current version number until the writer is
+     * closed, so that concurrent updates of an entity are applied one after
+     * the other, while updates of different entities run in parallel
+     */
+    private class VersionWriter implements AutoCloseable {
+
+        private final Lock lock;
+
+        private final Session session;
+
+        private final String entityId;
+
+        private final FedoraObject entityObject;
 
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_VERSION) + " <" + newVersionUri + ">};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_CURRENT_VERSION) + "  <" + newVersionUri + ">};");
+        private final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
 
-            /* update the object and it's child's using sparql */
-            entityObject.updatePropertiesDataset(subjects, sparql.toString());
+        private final TripleAccumulator triples = new TripleAccumulator();
+
+        private final String previousPath;
+
+        private final int number;
+
+        private final String path;
+
+        private final String uri;
+
+        private VersionWriter(final Session session, final String entityId, final Set<Integer> expectedVersions) throws RepositoryException {
+            this.session = session;
+            this.entityId = entityId;
+            this.lock = entityLocks[(entityId.hashCode() & Integer.MAX_VALUE) % entityLocks.length];
+            this.lock.lock();
+            try {
+                final String entityPath = entityPaths.getEntityPath(entityId);
+                this.entityObject = objectService.findOrCreateObject(session, entityPath);
+
+                /* fetch the current version number from the repo */
+                this.previousPath = ScapeProperties.getPath(this.entityObject.getNode(), HAS_CURRENT_VERSION);
+                final int current = Integer.parseInt(this.previousPath.substring(this.previousPath.lastIndexOf('-') + 1));
+                if (expectedVersions != null && !expectedVersions.contains(current)) {
+                    throw new VersionConflictException(entityId, current);
+                }
+                this.number = current + 1;
+                this.path = entityPath + "/version-" + this.number;
+
+                final FedoraObject versionObject = objectService.findOrCreateObject(session, this.path);
+                versionObject.getNode().addMixin("scape:intellectual-entity-version");
+                this.uri = this.subjects.getSubject(versionObject.getPath()).getURI();
+            } catch (RepositoryException | RuntimeException e) {
+                this.lock.unlock();
+                throw e;
+            }
+        }
+
+        private void commit() throws RepositoryException {
+            final String entityUri = this.subjects.getSubject(this.entityObject.getPath()).getURI();
+            this.triples.addResource(entityUri, prefix(HAS_VERSION), this.uri);
+            this.triples.addResource(entityUri, prefix(HAS_CURRENT_VERSION), this.uri);
+
+            /* update the object and it's child's using a single sparql update */
+            this.triples.apply(this.entityObject, this.subjects);
 
             /* save the changes made to the objects */
-            session.save();
+            this.session.save();
 
-        } catch (JAXBException e) {
-            LOG.error(e.getLocalizedMessage(), e);
-            throw new RepositoryException(e);
+            /* point readers to the new version, the old versions stay valid in the cache */
+            final String transaction = transactionId(this.session);
+            if (transaction != null) {
+                entityCache.setPendingVersion(this.entityId, this.number, transaction);
+            } else {
+                entityCache.setCurrentVersion(this.entityId, this.number);
+            }
+            writeEntitySnapshot(this.session, this.entityId, this.number);
         }
 
+        @Override
+        public void close() {
+            this.lock.unlock();
+        }
     }
 
     /**
@@ -802,29 +1684,64 @@ public class ConnectorService {
      *             {@link Representation}
      */
     public void updateRepresentation(Session session, String entityId, String repId, InputStream src) throws RepositoryException {
-        try {
-            final Representation rep = (Representation) this.marshaller.deserialize(src);
-            final List<Representation> representations = new ArrayList<>();
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            if (orig.getRepresentations() != null) {
-                for (Representation r : orig.getRepresentations()) {
-                    if (!r.getIdentifier().getValue().equals(repId)) {
-                        representations.add(r);
-                    }
-                }
-                representations.add(rep);
-            }
-
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).representations(representations).build();
-
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
+        updateRepresentation(session, entityId, repId, src, null);
+    }
 
+    /**
+     * Update a {@link Representation} in Fedora if the entity's current
+     * version is one of the versions the update is based on
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param entityId
+     *            the id of the {@link IntellectualEntity}
+     * @param repId
+     *            the id of the {@link Representation}
+     * @param src
+     *            a XML document containing the updated {@link Representation}
+     * @param expectedVersions
+     *            the version numbers the update is based on or
+     *            <code>null</code> for an unconditional update
+     * @return the number of the new version
+     * @throws VersionConflictException
+     *             if the current version is not one of the expected versions
+     * @throws RepositoryException
+     *             if an error occurred while updating the
+     *             {@link Representation}
+     */
+    public int updateRepresentation(final Session session, final String entityId, final String repId, final InputStream src,
+            final Set<Integer> expectedVersions) throws RepositoryException {
+        final Representation rep;
+        try {
+            rep = (Representation) this.marshallerService.getMarshaller().deserialize(src);
         } catch (JAXBException e) {
             throw new RepositoryException(e);
         }
 
+        final List<Representation> representations = Collections.singletonList(rep);
+        try (final VersionWriter version = new VersionWriter(session, entityId, expectedVersions)) {
+            final PreviousVersion previous = new PreviousVersion(session, entityId, version.previousPath, version.number - 1);
+
+            try (final FileStager.Batch staged = stageFiles(entityId, representations, previous)) {
+                /* the descriptive metadata is copied as it is stored */
+                if (this.repositoryReader.exists(session, version.previousPath + "/DESCRIPTIVE")) {
+                    copyMetadata(session, version.previousPath + "/DESCRIPTIVE", version.path + "/DESCRIPTIVE", version.triples);
+                }
+
+                /* link the other representations and add the updated one as the last representation */
+                for (Map.Entry<String, String> r : linkedPaths(session, version.previousPath, HAS_REPRESENTATION).entrySet()) {
+                    if (!r.getKey().equals(repId)) {
+                        version.triples.addLiteral(version.uri, prefix(HAS_REPRESENTATION), version.subjects.getSubject(r.getValue()).getURI());
+                    }
+                }
+                for (String repUri : addRepresentations(session, representations, version.path, staged, previous, version.triples)) {
+                    version.triples.addLiteral(version.uri, prefix(HAS_REPRESENTATION), repUri);
+                }
+
+                version.commit();
+            }
+            return version.number;
+        }
     }
 
     /**
@@ -841,26 +1758,48 @@ public class ConnectorService {
      *             if an error occurred while updating the metadata set
      */
     public void updateMetadata(final Session session, final String path, final InputStream src) throws RepositoryException {
+        updateMetadata(session, path, src, null);
+    }
+
+    /**
+     * Update a metadata set of an {@link IntellectualEntity}, a
+     * {@link Representation}, a {@link File} or a{@link BitStream} in Fedora
+     * if the entity's current version is one of the versions the update is
+     * based on
+     *
+     * @param session
+     *            the {@link Session} to use for this operation
+     * @param path
+     *            the path of the metadata save in Fedora
+     * @param src
+     *            a XML document containing the updated XML metadata
+     * @param expectedVersions
+     *            the version numbers the update is based on or
+     *            <code>null</code> for an unconditional update
+     * @return the number of the new version
+     * @throws VersionConflictException
+     *             if the current version is not one of the expected versions
+     * @throws RepositoryException
+     *             if an error occurred while updating the metadata set
+     */
+    public int updateMetadata(final Session session, final String path, final InputStream src, final Set<Integer> expectedVersions)
+            throws RepositoryException {
         String[] ids = path.split("/");
         final String entityId = ids[0];
         final String metadataName = ids[ids.length - 1];
         switch (ids.length) {
         case 2:
             /* it's entity metadata */
-            updateEntityMetadata(session, entityId, metadataName, src);
-            break;
+            return updateEntityMetadata(session, entityId, metadataName, src, expectedVersions);
         case 3:
             /* it's rep metadata */
-            updateRepresentationMetadata(session, entityId, ids[1], metadataName, src);
-            break;
+            return updateRepresentationMetadata(session, entityId, ids[1], metadataName, src, expectedVersions);
         case 4:
             /* it's file metadata */
-            updateFileMetadata(session, entityId, ids[1], ids[2], metadataName, src);
-            break;
+            return updateFileMetadata(session, entityId, ids[1], ids[2], metadataName, src, expectedVersions);
         case 5:
             /* it's bitstream metadata */
-            updateBitStreamMetadata(session, entityId, ids[1], ids[2], ids[3], metadataName, src);
-            break;
+            return updateBitStreamMetadata(session, entityId, ids[1], ids[2], ids[3], metadataName, src, expectedVersions);
         default:
             throw new RepositoryException("Unable to parse path for metadata update");
         }
@@ -881,25 +1820,49 @@ public class ConnectorService {
      *             {@link IntellectualEntity} to the asynchronous queue
      */
     public String queueEntityForIngest(final Session session, final InputStream src) throws RepositoryException {
+        java.io.File document = null;
         try {
-            /* try to deserialize and extraxt an existing id */
-            IntellectualEntity ie = this.marshaller.deserialize(IntellectualEntity.class, src);
-            String id = (ie.getIdentifier() == null || ie.getIdentifier().getValue() == null || ie.getIdentifier().getValue().length() == 0) ? UUID
-                    .randomUUID().toString() : ie.getIdentifier().getValue();
-
-            /* copy the data to a temporary node */
-            ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ie, sink);
-            final FedoraObject queue = this.objectService.findOrCreateObject(session, QUEUE_NODE);
-            if (this.objectService.exists(session,ENTITY_FOLDER + "/" + id)) {
+            /* spool the request so that the journal is only locked while copying local data */
+            document = java.io.File.createTempFile("queued-", ".xml", this.tempDirectory);
+            java.nio.file.Files.copy(src, document.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+            /* try to extract an existing id */
+            String id;
+            try (final InputStream in = new FileInputStream(document)) {
+                id = MetsStreamParser.readObjectId(in);
+            }
+            if (id == null || id.length() == 0) {
+                id = UUID.randomUUID().toString();
+            }
+
+            if (this.objectService.exists(session, this.entityPaths.getEntityPath(id))) {
                 throw new RepositoryException("Unable to queue item with id " + id
                         + " for ingest since an intellectual entity with that id already esists in the repository");
             }
-            if (this.datastreamService.exists(session, QUEUE_NODE + "/" + id)) {
+            if (this.queueIndex.getState(id) != null) {
                 throw new RepositoryException("Unable to queue item with id " + id + " for ingest since an item with that id is alread in the queue");
             }
+
+            /* the METS document is parsed by the ingest worker */
+            this.ingestJournal.append(id, document);
+
+            /* wake up a worker */
+            this.queueIndex.queued(id);
+            return id;
+        } catch (IOException | XMLStreamException e) {
+            throw new RepositoryException(e);
+        } finally {
+            if (document != null && !document.delete()) {
+                LOG.warn("Unable to delete {}", document.getAbsolutePath());
+            }
+        }
+    }
+
+    private void addQueueItem(final Session session, final String id, final InputStream src, final String state) throws RepositoryException {
+        try {
+            final FedoraObject queue = this.objectService.findOrCreateObject(session, QUEUE_NODE);
             final Datastream item = this.datastreamService.findOrCreateDatastream(session, QUEUE_NODE + "/" + id);
-            item.getBinary().setContent(new ByteArrayInputStream(sink.toByteArray()), "text/xml", null, null, datastreamService.getStoragePolicyDecisionPoint());
+            item.getBinary().setContent(src, "text/xml", null, null, datastreamService.getStoragePolicyDecisionPoint());
             item.getContentNode().addMixin("scape:async-queue-item");
             /* update the ingest queue */
             final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
@@ -907,129 +1870,242 @@ public class ConnectorService {
             final String itemUri = subjects.getSubject(item.getPath()).getURI();
             final StringBuilder sparql = new StringBuilder("PREFIX scape: <http://scapeproject.eu/model#> ");
             sparql.append("INSERT DATA {<" + queueUri + "> " + prefix(HAS_ITEM) + " \"" + itemUri + "\"};");
-            sparql.append("INSERT DATA {<" + itemUri + "> " + prefix(HAS_INGEST_STATE) + " \"QUEUED\"};");
+            sparql.append("INSERT DATA {<" + itemUri + "> " + prefix(HAS_INGEST_STATE) + " \"" + state + "\"};");
             queue.updatePropertiesDataset(subjects, sparql.toString());
+        } catch (InvalidChecksumException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    /**
+     * Retrieve the {@link LifecycleState} of an {@link IntellectualEntity}.
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param entityId
+     *            the id of the {@link IntellectualEntity}
+     * @return the {@link LifecycleState} of an {@link IntellectualEntity}
+     * @throws RepositoryException
+     *             if an error occurred while fetching the
+     *             {@link LifecycleState}
+     */
+    public LifecycleState fetchLifeCycleState(Session session, String entityId) throws RepositoryException {
+        /* check the async queue for the entity */
+        final AsyncQueueIndex.State queueState = this.queueIndex.getState(entityId);
+        if (queueState != null) {
+            switch (queueState) {
+            case INGESTING:
+                return new LifecycleState("", State.INGESTING);
+            case INGEST_FAILED:
+                return new LifecycleState("", State.INGEST_FAILED);
+            case QUEUED:
+                return new LifecycleState("", State.INGESTING);
+            default:
+                break;
+            }
+        }
+
+        /* check if the entity exists */
+        if (this.repositoryReader.exists(session, this.entityPaths.getEntityPath(entityId))) {
+            /* fetch the state form the entity itself */
+            final Node entityNode = this.repositoryReader.getNode(session, this.entityPaths.getEntityPath(entityId));
+            final String state = ScapeProperties.getRequiredString(entityNode, HAS_LIFECYCLESTATE);
+            final String details = ScapeProperties.getString(entityNode, HAS_LIFECYCLESTATE_DETAILS);
+            return new LifecycleState(details, LifecycleState.State.valueOf(state));
+        } else {
+            throw new ItemNotFoundException("Unable to find lifecycle for '" + entityId + "'");
+        }
+
+    }
+
+    /**
+     * Ingest a single item from the asynchronous queue using a session of its
+     * own, so that every item is committed independently
+     *
+     * @param id
+     *            the id of the queue item which has been claimed from the
+     *            {@link AsyncQueueIndex}
+     * @throws RepositoryException
+     *             if the ingest state could not be updated
+     */
+    private void ingestQueueItem(final String id) throws RepositoryException {
+        final String item = QUEUE_NODE + "/" + id;
+        final Session session = sessionFactory.getInternalSession();
+        try {
+            if (this.ingestJournal.contains(id)) {
+                ingestJournalItem(session, id);
+                return;
+            }
+            /* items queued in the repository by a previous version */
+            if (!this.datastreamService.exists(session, item)) {
+                this.queueIndex.remove(id);
+                return;
+            }
+            /* update the ingest state so that it won't get ingested twice */
+            final Datastream ds = this.datastreamService.findOrCreateDatastream(session, item);
+            setIngestState(ds, "INGESTING");
             session.save();
-            return id;
-        } catch (InvalidChecksumException | JAXBException e) {
+            try {
+                addEntity(session, ds.getBinary().getContent(), id);
+                deleteFromQueue(session, item);
+                this.queueIndex.remove(id);
+            } catch (Exception e) {
+                LOG.error("Unable to ingest " + item, e);
+                /* discard the partially written entity */
+                session.refresh(false);
+                setIngestState(this.datastreamService.findOrCreateDatastream(session, item), "INGEST_FAILED");
+                session.save();
+                this.queueIndex.failed(id);
+            }
+        } finally {
+            session.logout();
+        }
+    }
+
+    private void ingestJournalItem(final Session session, final String id) throws RepositoryException {
+        try {
+            try (final InputStream src = this.ingestJournal.open(id)) {
+                addEntity(session, src, id);
+                this.queueIndex.remove(id);
+            } catch (Exception e) {
+                LOG.error("Unable to ingest " + id, e);
+                /* discard the partially written entity and keep the failed item in the repository */
+                session.refresh(false);
+                try (final InputStream src = this.ingestJournal.open(id)) {
+                    addQueueItem(session, id, src, "INGEST_FAILED");
+                }
+                session.save();
+                this.queueIndex.failed(id);
+            }
+            /*
+             * the entry is only retired once the entity or the failed item has
+             * been saved, otherwise the submission is replayed on the next start
+             */
+            this.ingestJournal.done(id);
+        } catch (IOException e) {
             throw new RepositoryException(e);
         }
-
     }
 
     /**
-     * Retrieve the {@link LifecycleState} of an {@link IntellectualEntity}.
+     * Open the ingest journal and queue the submissions which have not been
+     * ingested before the service was stopped
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @throws IOException
+     *             if the journal could not be read
+     * @throws RepositoryException
+     *             if an error occurred while checking the repository
+     */
+    private void replayIngestJournal(final Session session) throws IOException, RepositoryException {
+        this.ingestJournal = new IngestJournal(new java.io.File(this.tempDirectory, "ingest.journal"));
+        for (String id : this.ingestJournal.replay()) {
+            if (this.objectService.exists(session, this.entityPaths.getEntityPath(id)) || this.queueIndex.getState(id) == AsyncQueueIndex.State.INGEST_FAILED) {
+                /* the ingest has finished but has not been recorded */
+                this.ingestJournal.done(id);
+            } else {
+                this.queueIndex.queued(id);
+            }
+        }
+        LOG.info("Replayed {} pending submissions from the ingest journal", this.ingestJournal.size());
+    }
+
+    /**
+     * Read the state of all the items in the asynchronous queue into the
+     * {@link AsyncQueueIndex}. Items which were being ingested when the
+     * service was stopped are queued again, since their ingest has not been
+     * saved
      *
      * @param session
      *            the {@link Session} to use for the operation
-     * @param entityId
-     *            the id of the {@link IntellectualEntity}
-     * @return the {@link LifecycleState} of an {@link IntellectualEntity}
      * @throws RepositoryException
-     *             if an error occurred while fetching the
-     *             {@link LifecycleState}
+     *             if the queue could not be read
      */
-    public LifecycleState fetchLifeCycleState(Session session, String entityId) throws RepositoryException {
-        /* check the async queue for the entity */
+    private void rebuildQueueIndex(final Session session) throws RepositoryException {
+        this.queueIndex.clear();
         final FedoraObject queueObject = this.objectService.findOrCreateObject(session, QUEUE_NODE);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(queueObject.getPath()).getURI();
-        final Model queueModel = SerializationUtils.unifyDatasetModel(queueObject.getPropertiesDataset(subjects));
-        final Resource parent = queueModel.createResource(uri);
-        final List<String> asyncIds = this.getLiteralStrings(queueModel, parent, HAS_ITEM);
-        final String itemPath = QUEUE_NODE + "/" + entityId;
-        if (asyncIds.contains(subjects.getSubject(itemPath).getURI())) {
-            final Datastream ds = this.datastreamService.findOrCreateDatastream(session, itemPath);
-            final String state = ds.getNode()
-                    .getProperties(prefix(HAS_INGEST_STATE))
-                    .nextProperty()
-                    .getValues()[0]
-                    .getString();
-
-            switch (state) {
-            case "INGESTING":
-                return new LifecycleState("", State.INGESTING);
-            case "INGEST_FAILED":
-                return new LifecycleState("", State.INGEST_FAILED);
-            case "QUEUED":
-                return new LifecycleState("", State.INGESTING);
-            default:
-                break;
+        for (String path : ScapeProperties.getPaths(queueObject.getNode(), HAS_ITEM)) {
+            if (!this.repositoryReader.exists(session, path)) {
+                continue;
+            }
+            final Datastream ds = this.repositoryReader.getDatastream(session, path);
+            final String state = ScapeProperties.getRequiredString(ds.getNode(), HAS_INGEST_STATE);
+            final String id = path.substring(QUEUE_NODE.length() + 1);
+            if (state.equals("INGEST_FAILED")) {
+                this.queueIndex.failed(id);
+            } else {
+                if (state.equals("INGESTING")) {
+                    setIngestState(ds, "QUEUED");
+                }
+                this.queueIndex.queued(id);
             }
         }
+        session.save();
+        LOG.info("Found {} queued and {} failed items in the asynchronous queue", this.queueIndex.count(AsyncQueueIndex.State.QUEUED),
+                this.queueIndex.count(AsyncQueueIndex.State.INGEST_FAILED));
+    }
 
-        /* check if the entity exists */
-        if (this.objectService.exists(session, ENTITY_FOLDER + "/" + entityId)) {
-            /* fetch the state form the entity itself */
-            final FedoraObject entityObject = this.objectService.findOrCreateObject(session, ENTITY_FOLDER + "/" + entityId);
-            final String entityUri = subjects.getSubject(entityObject.getPath()).getURI();
-            final Model entityModel = SerializationUtils.unifyDatasetModel(entityObject.getPropertiesDataset(subjects));
-            final Resource subject = entityModel.createResource(entityUri);
-            final String state = this.getFirstLiteralString(entityModel, subject, HAS_LIFECYCLESTATE);
-            final String details = this.getFirstLiteralString(entityModel, subject, HAS_LIFECYCLESTATE_DETAILS);
-            return new LifecycleState(details, LifecycleState.State.valueOf(state));
-        } else {
-            throw new ItemNotFoundException("Unable to find lifecycle for '" + entityId + "'");
-        }
-
+    private void setIngestState(final Datastream ds, final String state) throws RepositoryException {
+        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        final String uri = subjects.getSubject(ds.getPath()).getURI();
+        ds.updatePropertiesDataset(subjects, "PREFIX scape: <http://scapeproject.eu/model#> INSERT DATA {<" + uri + "> " + prefix(HAS_INGEST_STATE)
+                + " \"" + state + "\"};");
     }
 
     /**
-     * This method checks the asynhcronous storage queue for work at a fixed
-     * rate using Spring's {@link Scheduled} annotation
-     *
-     * @throws RepositoryException
-     *             if an error occurred while chekcing the queue
+     * Claims queued items from the {@link AsyncQueueIndex} until the pool is
+     * shut down
      */
-    @Scheduled(fixedDelay = 1000, initialDelay = 5000)
-    public void ingestFromQueue() throws RepositoryException {
-        Session session = sessionFactory.getInternalSession();
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        if (!this.objectService.exists(session, QUEUE_NODE)) {
-            return;
-        }
-        for (String item : getItemsFromQueue(session)) {
-            final Datastream ds = this.datastreamService.findOrCreateDatastream(session, item);
-            /* update the ingest state so that it won't get ingested twice */
-            try {
-                final StringBuilder sparql = new StringBuilder("PREFIX scape: <http://scapeproject.eu/model#> ");
-                final String uri = subjects.getSubject(ds.getPath()).getURI();
-                sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_INGEST_STATE) + " \"INGESTING\"};");
-                ds.updatePropertiesDataset(subjects, sparql.toString());
-                addEntity(session, ds.getBinary().getContent(), item.substring(QUEUE_NODE.length() + 1));
-                deleteFromQueue(session, item);
-            } catch (Exception e) {
-                final StringBuilder sparql = new StringBuilder("PREFIX scape: <http://scapeproject.eu/model#> ");
-                final String uri = subjects.getSubject(ds.getPath()).getURI();
-                sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_INGEST_STATE) + " \"INGEST_FAILED\"};");
-                ds.updatePropertiesDataset(subjects, sparql.toString());
-                e.printStackTrace();
+    private class IngestWorker implements Runnable {
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                final String id;
+                try {
+                    id = queueIndex.claim();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    ingestQueueItem(id);
+                } catch (Exception e) {
+                    LOG.error("Error while processing queue item " + id, e);
+                    queueIndex.failed(id);
+                }
             }
         }
-        session.save();
     }
 
     /**
-     * Retrieve a {@link IntellectualEntityCollection} form Fedora containing a
-     * set of {@link IntellectualEntity}
+     * Fetch the current versions of a list of {@link IntellectualEntity}s,
+     * handing them out in the order of the list. Every entity is checked to
+     * exist using the given session before any entity is fetched, so that a
+     * missing entity is reported before a response is written. The entities
+     * are loaded one at a time with the request's session while the response
+     * is written, so that the user's permissions and an open transaction
+     * apply, and the memory used does not depend on the length of the list
      *
      * @param session
-     *            the {@link Session} to use for the operation
-     * @param paths
-     *            the paths of the {@link IntellectualEntity}s in Fedora
-     * @return a {@link IntellectualEntityCollection} containing the requested
-     *         {@link IntellectualEntity}s
+     *            the {@link Session} of the request
+     * @param ids
+     *            the ids of the {@link IntellectualEntity}s
+     * @return a {@link LazyEntityIterator} handing out the entities
      * @throws RepositoryException
-     *             if an error occurred while retrieving the
-     *             {@link IntellectualEntity}s from Fedora
+     *             if an entity does not exist or could not be read
      */
-    public IntellectualEntityCollection fetchEntites(final Session session, final List<String> paths) throws RepositoryException {
-        List<IntellectualEntity> entities = new ArrayList<>();
-        for (String path : paths) {
-            path = path.substring(path.indexOf("/scape/entity") + 14);
-            entities.add(this.fetchEntity(session, path));
+    public LazyEntityIterator fetchEntitiesLazily(final Session session, final List<String> ids) throws RepositoryException {
+        for (String id : ids) {
+            this.repositoryReader.getNode(session, this.entityPaths.getEntityPath(id));
         }
-        return new IntellectualEntityCollection(entities);
+        return new LazyEntityIterator(new LazyEntityIterator.Loader() {
+
+            @Override
+            public IntellectualEntity load(String id) throws RepositoryException {
+                return fetchEntity(session, id);
+            }
+        }, ids);
     }
 
     /**
@@ -1131,23 +2207,138 @@ public class ConnectorService {
         return uris;
     }
 
-    private String getCurrentVersionPath(Model entityModel, String uri) throws RepositoryException {
-        final Resource parent = entityModel.createResource(uri);
-        String version = getResourceFromModel(entityModel, parent, HAS_CURRENT_VERSION);
-        return version.substring(version.indexOf('/'));
+    /*
+     * a transaction sees its own uncommitted versions, so it must neither read
+     * nor populate the shared cache
+     */
+    private EntityCache cacheFor(final Session session) throws RepositoryException {
+        return (transactionId(session) != null) ? this.transactionCache : this.entityCache;
+    }
+
+    /* the id of the session's transaction or null if the session is not in a transaction */
+    private static String transactionId(final Session session) throws RepositoryException {
+        try {
+            return session.getNamespaceURI(TRANSACTION_NAMESPACE_PREFIX);
+        } catch (NamespaceException e) {
+            return null;
+        }
+    }
+
+    /*
+     * a committed or rolled back transaction is no longer known to the
+     * transaction service, so its pending versions are discarded and the
+     * current versions read afterwards are kept again
+     */
+    private void discardFinishedTransactions() {
+        for (String transaction : this.entityCache.getPendingTransactions()) {
+            if (!this.transactionService.exists(transaction)) {
+                this.entityCache.discardTransaction(transaction);
+            }
+        }
+    }
+
+    /**
+     * Retrieve the number of the current version of an
+     * {@link IntellectualEntity}. The number is served from the entity cache
+     * if possible, so that it can be used to answer conditional requests
+     * without reading the entity
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param entityId
+     *            the id of the {@link IntellectualEntity}
+     * @return the current version number
+     * @throws RepositoryException
+     *             if the entity does not exist or could not be read
+     */
+    public int fetchCurrentVersionNumber(final Session session, final String entityId) throws RepositoryException {
+        final Integer cached = cacheFor(session).getCurrentVersion(entityId);
+        if (cached != null) {
+            return cached;
+        }
+        /* discarded before reading, so that a version read before a commit is not kept */
+        if (transactionId(session) == null) {
+            discardFinishedTransactions();
+        }
+        final Node entityNode = this.repositoryReader.getNode(session, this.entityPaths.getEntityPath(entityId));
+        final String versionPath = ScapeProperties.getPath(entityNode, HAS_CURRENT_VERSION);
+        final int version = Integer.parseInt(versionPath.substring(versionPath.lastIndexOf('-') + 1));
+        cacheFor(session).setCurrentVersion(entityId, version);
+        return version;
+    }
+
+    /**
+     * Retrieve the date at which a version of an {@link IntellectualEntity}
+     * has been written. Since a version is never changed afterwards, this is
+     * the last modification date of every object in the version
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param entityId
+     *            the id of the {@link IntellectualEntity}
+     * @param version
+     *            the version number
+     * @return the creation date of the version or <code>null</code> if the
+     *         repository did not record one
+     * @throws PathNotFoundException
+     *             if the version does not exist
+     * @throws RepositoryException
+     *             if the version could not be read
+     */
+    public Date fetchVersionDate(final Session session, final String entityId, final int version) throws RepositoryException {
+        final Node versionNode = this.repositoryReader.getNode(session, this.entityPaths.getEntityPath(entityId) + "/version-" + version);
+        if (!versionNode.hasProperty(Property.JCR_CREATED)) {
+            return null;
+        }
+        return versionNode.getProperty(Property.JCR_CREATED).getDate().getTime();
     }
 
-    private String getResourceFromModel(Model model, Resource parent, String propertyName) {
-        StmtIterator it = model.listStatements(parent, model.createProperty(namespace(propertyName)), (RDFNode) null);
-        String uri = it.next().getResource().getURI();
-        return uri;
+    /**
+     * Resolve the path of an object in a version of an
+     * {@link IntellectualEntity}. Since a version shares the
+     * {@link Representation}s, {@link File}s and {@link BitStream}s which
+     * have not been changed with the previous version, an object is not
+     * necessarily stored below the version's node, but is found by following
+     * the links of its parent
+     *
+     * @param session
+     *            the {@link Session} to use for the operation
+     * @param entityId
+     *            the id of the {@link IntellectualEntity}
+     * @param version
+     *            the version number
+     * @param relativePath
+     *            the path of the object relative to the version, e.g.
+     *            <code>rep-1/file-1/TECHNICAL</code>
+     * @return the path of the object in Fedora
+     * @throws RepositoryException
+     *             if the links could not be read
+     */
+    public String resolveVersionPath(final Session session, final String entityId, final int version, final String relativePath) throws RepositoryException {
+        String path = this.entityPaths.getEntityPath(entityId) + "/version-" + version;
+        final String[] ids = relativePath.split("/");
+        for (int i = 0; i < ids.length; i++) {
+            final String child = path + "/" + ids[i];
+            if (i < STRUCTURE_LINKS.length && !this.repositoryReader.exists(session, child) && this.repositoryReader.exists(session, path)) {
+                /* the object is shared with a previous version */
+                final String linked = linkedPaths(session, path, STRUCTURE_LINKS[i]).get(ids[i]);
+                if (linked != null) {
+                    path = linked;
+                    continue;
+                }
+            }
+            path = child;
+        }
+        return path;
     }
 
-    private List<String> getResourcesFromModel(Model model, Resource parent, String propertyName) {
-        StmtIterator it = model.listStatements(parent, model.createProperty(namespace(propertyName)), (RDFNode) null);
-        final List<String> resources = new ArrayList<>(16);
-        resources.add(it.next().getResource().getURI());
-        return resources;
+    /* map the names of the objects linked by a property to their paths in the order of the links */
+    private Map<String, String> linkedPaths(final Session session, final String path, final String property) throws RepositoryException {
+        final Map<String, String> paths = new LinkedHashMap<>();
+        for (String linked : ScapeProperties.getPaths(this.repositoryReader.getNode(session, path), property)) {
+            paths.put(linked.substring(linked.lastIndexOf('/') + 1), linked);
+        }
+        return paths;
     }
 
     private void deleteFromQueue(final Session session, final String item) throws RepositoryException {
@@ -1162,207 +2353,208 @@ public class ConnectorService {
         session.save();
     }
 
-    private List<String> getItemsFromQueue(final Session session) throws RepositoryException {
-        final FedoraObject queueObject = this.objectService.findOrCreateObject(session, QUEUE_NODE);
-        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
-        final String uri = subjects.getSubject(queueObject.getPath()).getURI();
-        final Model queueModel = SerializationUtils.unifyDatasetModel(queueObject.getPropertiesDataset(subjects));
-        final Resource parent = queueModel.createResource(uri);
-        StmtIterator it = queueModel.listStatements(parent, queueModel.createProperty(namespace(HAS_ITEM)), (RDFNode) null);
-        List<String> queueItems = new ArrayList<>();
-        while (it.hasNext()) {
-            final String itemUri = it.nextStatement().getObject().asLiteral().getString();
-            final String path = subjects.getPathFromSubject(queueModel.createResource(itemUri));
-            final Datastream ds = this.datastreamService.findOrCreateDatastream(session, path);
-            final javax.jcr.Property p = ds.getNode().getProperties(prefix(HAS_INGEST_STATE)).nextProperty();
-            final String val = p.getValues()[0].getString();
+    private int updateBitStreamMetadata(Session session, String entityId, String repId, String fileId, String bsId, String metadataName, InputStream src,
+            Set<Integer> expectedVersions) throws RepositoryException {
+        if (!metadataName.equals("TECHNICAL")) {
+            throw new RepositoryException("Unknown metadata type " + metadataName);
+        }
+        return updateObjectMetadata(session, entityId, Arrays.asList(repId, fileId, bsId), metadataName, src, expectedVersions);
+    }
 
-            if (val.equals("QUEUED")) {
-                queueItems.add(path);
-            }
+    private int updateFileMetadata(Session session, String entityId, String repId, String fileId, String metadataName, InputStream src,
+            Set<Integer> expectedVersions) throws RepositoryException {
+        if (!metadataName.equals("TECHNICAL")) {
+            throw new RepositoryException("Unknown metadata type " + metadataName);
+        }
+        return updateObjectMetadata(session, entityId, Arrays.asList(repId, fileId), metadataName, src, expectedVersions);
+    }
+
+    private int updateRepresentationMetadata(Session session, String entityId, String repId, String metadataName, InputStream src,
+            Set<Integer> expectedVersions) throws RepositoryException {
+        if (!(metadataName.equals("TECHNICAL") || metadataName.equals("SOURCE") || metadataName.equals("PROVENANCE") || metadataName.equals("RIGHTS"))) {
+            throw new RepositoryException("Unknown metadata type " + metadataName);
         }
-        return queueItems;
+        return updateObjectMetadata(session, entityId, Arrays.asList(repId), metadataName, src, expectedVersions);
     }
 
-    private void updateBitStreamMetadata(Session session, String entityId, String repId, String fileId, String bsId, String metadataName, InputStream src)
+    private int updateEntityMetadata(Session session, String entityId, String metadataName, InputStream src, Set<Integer> expectedVersions)
             throws RepositoryException {
+        if (!metadataName.equals("DESCRIPTIVE")) {
+            throw new RepositoryException("Unknown metadata type " + metadataName);
+        }
+        return updateObjectMetadata(session, entityId, Collections.<String> emptyList(), metadataName, src, expectedVersions);
+    }
 
+    /*
+     * write a new version in which only the updated metadata datastream and
+     * the objects on the path to it are new, while all the other objects are
+     * linked from the previous version
+     */
+    private int updateObjectMetadata(final Session session, final String entityId, final List<String> objectIds, final String metadataName,
+            final InputStream src, final Set<Integer> expectedVersions) throws RepositoryException {
+        final Object metadata;
         try {
-
-            if (!metadataName.equals("TECHNICAL")) {
-                throw new RepositoryException("Unknown metadata type " + metadataName);
-            }
-            final Object metadata = this.marshaller.deserialize(src);
-
-            final List<Representation> representations = new ArrayList<>();
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            for (Representation r : orig.getRepresentations()) {
-                if (!r.getIdentifier().getValue().equals(repId)) {
-                    representations.add(r);
-                } else {
-                    Representation.Builder newRep = new Representation.Builder(r);
-                    List<File> files = new ArrayList<>();
-                    for (File f : r.getFiles()) {
-                        if (!f.getIdentifier().getValue().equals(fileId)) {
-                            files.add(f);
-                        } else {
-                            File.Builder newFile = new File.Builder(f);
-                            List<BitStream> bitstreams = new ArrayList<>();
-                            for (BitStream bs : f.getBitStreams()) {
-                                if (!bs.getIdentifier().getValue().equals(bsId)) {
-                                    bitstreams.add(bs);
-                                } else {
-                                    BitStream newBs = new BitStream.Builder(bs).technical(metadata).build();
-                                    bitstreams.add(newBs);
-                                }
-                            }
-                            newFile.bitStreams(bitstreams);
-                            files.add(newFile.build());
-                        }
-                    }
-                    newRep.files(files);
-                    representations.add(newRep.build());
-                }
-            }
-
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).representations(representations).build();
-
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
-
+            metadata = this.marshallerService.deserializeMetadata(src);
         } catch (JAXBException e) {
             throw new RepositoryException(e);
         }
+        try (final VersionWriter version = new VersionWriter(session, entityId, expectedVersions)) {
+            copyObject(session, version.previousPath, version.path, version.uri, objectIds, 0, metadataName, metadata, version.triples);
+            version.commit();
+            return version.number;
+        }
     }
 
-    private void updateFileMetadata(Session session, String entityId, String repId, String fileId, String metadataName, InputStream src)
-            throws RepositoryException {
-        try {
-
-            if (!metadataName.equals("TECHNICAL")) {
-                throw new RepositoryException("Unknown metadata type " + metadataName);
+    /*
+     * fill a new object with the content of the object it replaces. metadata
+     * and binary content are copied as they are stored and the child objects
+     * are linked, except for the child on the path to the updated metadata,
+     * which is copied the same way
+     */
+    private void copyObject(final Session session, final String sourcePath, final String targetPath, final String targetUri, final List<String> objectIds,
+            final int depth, final String metadataName, final Object metadata, final TripleAccumulator triples) throws RepositoryException {
+        final Node source = this.repositoryReader.getNode(session, sourcePath);
+        final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+        final boolean updated = depth == objectIds.size();
+
+        /* the metadata datastreams */
+        for (String name : METADATA_NAMES) {
+            if (updated && name.equals(metadataName)) {
+                addMetadata(session, metadata, targetPath + "/" + name, triples);
+            } else if (source.hasNode(name)) {
+                copyMetadata(session, sourcePath + "/" + name, targetPath + "/" + name, triples);
             }
-            final Object metadata = this.marshaller.deserialize(src);
+        }
+        if (depth == 1 && (source.hasNode("PROVENANCE") || (updated && metadataName.equals("PROVENANCE")))) {
+            addPremisRecords(targetUri, targetPath, triples);
+        }
 
-            final List<Representation> representations = new ArrayList<>();
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            for (Representation r : orig.getRepresentations()) {
-                if (!r.getIdentifier().getValue().equals(repId)) {
-                    representations.add(r);
-                } else {
-                    Representation.Builder newRep = new Representation.Builder(r);
-                    List<File> files = new ArrayList<>();
-                    for (File f : r.getFiles()) {
-                        if (!f.getIdentifier().getValue().equals(fileId)) {
-                            files.add(f);
-                        } else {
-                            File newFile = new File.Builder(f).technical(metadata).build();
-                            files.add(newFile);
-                        }
-                    }
-                    newRep.files(files);
-                    representations.add(newRep.build());
-                }
+        /* the properties of the object */
+        for (String property : COPIED_PROPERTIES) {
+            for (String value : ScapeProperties.getStrings(source, property)) {
+                triples.addLiteral(targetUri, prefix(property), value);
             }
+        }
 
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).representations(representations).build();
-
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
+        /* the content of a file */
+        if (source.hasNode("DATA")) {
+            linkContent(session, sourcePath + "/DATA", targetPath + "/DATA", null);
+        }
 
-        } catch (JAXBException e) {
-            throw new RepositoryException(e);
+        /* the child objects */
+        if (depth == STRUCTURE_LINKS.length) {
+            return;
+        }
+        boolean found = updated;
+        for (Map.Entry<String, String> child : linkedPaths(session, sourcePath, STRUCTURE_LINKS[depth]).entrySet()) {
+            if (!updated && child.getKey().equals(objectIds.get(depth))) {
+                final String childPath = targetPath + "/" + child.getKey();
+                final FedoraObject childObject = this.objectService.findOrCreateObject(session, childPath);
+                childObject.getNode().addMixin(STRUCTURE_MIXINS[depth]);
+                final String childUri = subjects.getSubject(childObject.getPath()).getURI();
+                copyObject(session, child.getValue(), childPath, childUri, objectIds, depth + 1, metadataName, metadata, triples);
+                triples.addLiteral(targetUri, prefix(STRUCTURE_LINKS[depth]), childUri);
+                found = true;
+            } else {
+                triples.addLiteral(targetUri, prefix(STRUCTURE_LINKS[depth]), subjects.getSubject(child.getValue()).getURI());
+            }
+        }
+        if (!found) {
+            throw new PathNotFoundException("No object " + objectIds.get(depth) + " found in " + sourcePath);
         }
     }
 
-    private void updateRepresentationMetadata(Session session, String entityId, String repId, String metadataName, InputStream src) throws RepositoryException {
-
-        try {
-
-            if (!(metadataName.equals("TECHNICAL") || metadataName.equals("SOURCE") || metadataName.equals("PROVENANCE") || metadataName.equals("RIGHTS"))) {
-                throw new RepositoryException("Unknown metadata type " + metadataName);
+    /*
+     * point a new content datastream at the binary of an existing one. The
+     * binary value is content addressed, so setting it on the new node only
+     * stores a reference, and the content is neither read nor hashed again
+     */
+    private void linkContent(final Session session, final String sourcePath, final String targetPath, final String mimeType)
+            throws RepositoryException {
+        final Node source = this.repositoryReader.getDatastream(session, sourcePath).getNode().getNode(Node.JCR_CONTENT);
+        final Node target = this.datastreamService.findOrCreateDatastream(session, targetPath).getNode();
+        final Node content = target.hasNode(Node.JCR_CONTENT) ? target.getNode(Node.JCR_CONTENT) : target.addNode(Node.JCR_CONTENT, source
+                .getPrimaryNodeType().getName());
+        for (NodeType mixin : source.getMixinNodeTypes()) {
+            content.addMixin(mixin.getName());
+        }
+        /* the binary, its digest, size and mime type */
+        final PropertyIterator properties = source.getProperties();
+        while (properties.hasNext()) {
+            final Property property = properties.nextProperty();
+            if (property.getDefinition().isProtected()) {
+                continue;
             }
-            final Object metadata = this.marshaller.deserialize(src);
-
-            final List<Representation> representations = new ArrayList<>();
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            for (Representation r : orig.getRepresentations()) {
-                if (!r.getIdentifier().getValue().equals(repId)) {
-                    representations.add(r);
-                } else {
-                    Representation.Builder newRep = new Representation.Builder(r);
-                    if (metadataName.equals("TECHNICAL")) {
-                        newRep.technical(metadata);
-                    } else if (metadataName.equals("SOURCE")) {
-                        newRep.source(metadata);
-                    } else if (metadataName.equals("PROVENANCE")) {
-                        newRep.provenance(metadata);
-                    } else if (metadataName.equals("RIGHTS")) {
-                        newRep.rights(metadata);
-                    }
-                    representations.add(newRep.build());
-                }
+            if (property.isMultiple()) {
+                content.setProperty(property.getName(), property.getValues());
+            } else {
+                content.setProperty(property.getName(), property.getValue());
             }
-
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).representations(representations).build();
-
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
-
-        } catch (JAXBException e) {
-            throw new RepositoryException(e);
+        }
+        if (mimeType != null) {
+            content.setProperty(Property.JCR_MIMETYPE, mimeType);
         }
     }
 
-    private void updateEntityMetadata(Session session, String entityId, String metadataName, InputStream src) throws RepositoryException {
-        try {
-            final IntellectualEntity orig = this.fetchEntity(session, entityId);
-            if (!metadataName.equals("DESCRIPTIVE")) {
-                throw new RepositoryException("Unknown metadata type " + metadataName);
-            }
-            final Object desc = this.marshaller.deserialize(src);
-            final IntellectualEntity ieUpdate = new IntellectualEntity.Builder(orig).descriptive(desc).build();
-
-            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
-            this.marshaller.serialize(ieUpdate, sink);
-            this.updateEntity(session, new ByteArrayInputStream(sink.toByteArray()), entityId);
-
-        } catch (JAXBException e) {
+    /* copy a metadata datastream as it is stored without unmarshalling it */
+    private void copyMetadata(final Session session, final String sourcePath, final String targetPath, final TripleAccumulator triples)
+            throws RepositoryException {
+        final Datastream source = this.repositoryReader.getDatastream(session, sourcePath);
+        final String type = ScapeProperties.getString(source.getNode(), HAS_TYPE);
+        final String schema = ScapeProperties.getString(source.getNode(), HAS_SCHEMA);
+        try (final InputStream src = source.getBinary().getContent()) {
+            writeMetadata(session, targetPath, type, schema, src, triples);
+        } catch (IOException e) {
             throw new RepositoryException(e);
         }
     }
 
-    private String getFirstLiteralString(Model model, Resource subject, String propertyName) {
-
-        final Property p = model.createProperty(namespace(propertyName));
-        final StmtIterator it = model.listStatements(subject, p, (RDFNode) null);
-        return it.next().getLiteral().getString();
+    private void addPremisRecords(final String repUri, final String repPath, final TripleAccumulator triples) {
+        triples.addResource(repUri, "<http://fedora.info/definitions/v4/config#hasPremisFullV2Record>", fedoraUrl + repPath + "/PROVENANCE");
+        triples.addResource(repUri, "<http://fedora.info/definitions/v4/config#hasPremisEventV2Record>", fedoraUrl + repPath + "/PROVENANCE");
     }
 
-    private List<String> getLiteralStrings(Model model, Resource subject, String propertyName) {
-        final List<String> result = new ArrayList<>();
-        final Property p = model.createProperty(namespace(propertyName));
-        final StmtIterator it = model.listStatements(subject, p, (RDFNode) null);
-        while (it.hasNext()) {
-            result.add(it.next().getLiteral().getString());
+    private FileStager.Batch stageFiles(final String entityId, final List<Representation> representations, final PreviousVersion previous)
+            throws RepositoryException {
+        final List<URI> uris = new ArrayList<>();
+        if (!this.referencedContent && representations != null) {
+            for (Representation rep : representations) {
+                if (rep.getFiles() != null) {
+                    for (File f : rep.getFiles()) {
+                        /* the content of unchanged files is not fetched again */
+                        if (previous == null || previous.getContentPath(rep, f) == null) {
+                            uris.add(f.getUri());
+                        }
+                    }
+                }
+            }
+        }
+        try {
+            return this.fileStager.stage(entityId, uris);
+        } catch (IOException e) {
+            throw new RepositoryException(e);
         }
-        return result;
     }
 
-    private List<String> addRepresentations(final Session session, final List<Representation> representations, final String versionPath) throws RepositoryException {
+    private List<String> addRepresentations(final Session session, final List<Representation> representations, final String versionPath,
+            final FileStager.Batch staged, final PreviousVersion previous, final TripleAccumulator triples) throws RepositoryException {
         if (representations == null) {
             return Collections.<String>emptyList();
         }
-        final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
         final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
         final String versionUri = subjects.getSubject("/" + versionPath).getURI();
         final List<String> repUris = new ArrayList<>(representations.size());
 
         for (Representation rep : representations) {
             final String repId = (rep.getIdentifier() != null) ? rep.getIdentifier().getValue() : UUID.randomUUID().toString();
+
+            /* link an unchanged representation of the previous version instead of copying it */
+            final Representation previousRep = (previous != null) ? previous.getRepresentation(repId) : null;
+            if (previousRep != null && this.versionComparator.sameRepresentation(rep, previousRep)) {
+                repUris.add(subjects.getSubject(previous.getRepresentationPath(repId)).getURI());
+                continue;
+            }
+
             final String repPath = versionPath + "/" + repId;
             final FedoraObject repObject = objectService.findOrCreateObject(session, repPath);
             final String repUri = subjects.getSubject(repObject.getPath()).getURI();
@@ -1371,38 +2563,35 @@ public class ConnectorService {
 
             /* add the metadatasets of the rep as datastreams */
             if (rep.getTechnical() != null) {
-                addMetadata(session, rep.getTechnical(), repPath + "/TECHNICAL");
+                addMetadata(session, rep.getTechnical(), repPath + "/TECHNICAL", triples);
             }
             if (rep.getSource() != null) {
-                addMetadata(session, rep.getSource(), repPath + "/SOURCE");
+                addMetadata(session, rep.getSource(), repPath + "/SOURCE", triples);
             }
             if (rep.getRights() != null) {
-                addMetadata(session, rep.getRights(), repPath + "/RIGHTS");
+                addMetadata(session, rep.getRights(), repPath + "/RIGHTS", triples);
             }
             if (rep.getProvenance() != null) {
-                addMetadata(session, rep.getProvenance(), repPath + "/PROVENANCE");
-                sparql.append("INSERT DATA {<" + repUri + "> <http://fedora.info/definitions/v4/config#hasPremisFullV2Record> <" + fedoraUrl + repObject.getPath() + "/PROVENANCE>};");
-                sparql.append("INSERT DATA {<" + repUri + "> <http://fedora.info/definitions/v4/config#hasPremisEventV2Record> <" + fedoraUrl + repObject.getPath() + "/PROVENANCE>};");
-
+                addMetadata(session, rep.getProvenance(), repPath + "/PROVENANCE", triples);
+                addPremisRecords(repUri, repObject.getPath(), triples);
             }
 
             /* add all the files */
-            for (final String fileUri : addFiles(session, rep.getFiles(), repPath)) {
-                sparql.append("INSERT DATA {<" + repUri + "> " + prefix(HAS_FILE) + " \"" + fileUri + "\"};");
+            for (final String fileUri : addFiles(session, rep, repPath, staged, previous, triples)) {
+                triples.addLiteral(repUri, prefix(HAS_FILE), fileUri);
             }
 
-            /* add a sparql query to set the type of this object */
-            sparql.append("INSERT DATA {<" + repUri + "> " + prefix(HAS_TYPE) + " \"representation\"};");
-            sparql.append("INSERT DATA {<" + repUri + "> " + prefix(HAS_TITLE) + " \"" + rep.getTitle() + "\"};");
-            repObject.updatePropertiesDataset(subjects, sparql.toString());
+            /* set the type of this object */
+            triples.addLiteral(repUri, prefix(HAS_TYPE), "representation");
+            triples.addLiteral(repUri, prefix(HAS_TITLE), rep.getTitle());
         }
         return repUris;
 
     }
 
-    private List<String> addBitStreams(final Session session, final List<BitStream> bitStreams, final String filePath) throws RepositoryException {
+    private List<String> addBitStreams(final Session session, final List<BitStream> bitStreams, final String filePath, final TripleAccumulator triples)
+            throws RepositoryException {
 
-        final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
         final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
         final List<String> bsUris = new ArrayList<>(bitStreams.size());
 
@@ -1414,33 +2603,35 @@ public class ConnectorService {
             final String uri = subjects.getSubject(bsObject.getPath()).getURI();
             final String fileUri = subjects.getSubject(filePath).getURI();
             if (bs.getTechnical() != null) {
-                addMetadata(session, bs.getTechnical(), bsPath + "/TECHNICAL");
+                addMetadata(session, bs.getTechnical(), bsPath + "/TECHNICAL", triples);
             }
             final String bsType = (bs.getType() != null) ? bs.getType().name() : BitStream.Type.STREAM.name();
 
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_TYPE) + " \"bitstream\"};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_BITSTREAM_TYPE) + " \"" + bsType + "\"};");
-            bsObject.updatePropertiesDataset(subjects, sparql.toString());
+            triples.addLiteral(uri, prefix(HAS_TYPE), "bitstream");
+            triples.addLiteral(uri, prefix(HAS_BITSTREAM_TYPE), bsType);
             bsUris.add(uri);
         }
 
         return bsUris;
     }
 
-    private List<String> addFiles(final Session session, final List<File> files, final String repPath) throws RepositoryException {
+    private List<String> addFiles(final Session session, final Representation rep, final String repPath, final FileStager.Batch staged,
+            final PreviousVersion previous, final TripleAccumulator triples) throws RepositoryException {
+        final List<File> files = rep.getFiles();
         if (files == null) {
             return Collections.<String>emptyList();
         }
         final List<String> fileUris = new ArrayList<>(files.size());
-        final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
         for (File f : files) {
 
             final String fileId = (f.getIdentifier() != null) ? f.getIdentifier().getValue() : UUID.randomUUID().toString();
             final String filePath = repPath + "/" + fileId;
 
-            URI fileUri = f.getUri();
-            if (fileUri.getScheme() == null) {
-                fileUri = URI.create("file:" + fileUri.toASCIIString());
+            /* link an unchanged file of the previous version instead of copying it */
+            final File previousFile = (previous != null) ? previous.getFile(rep, f) : null;
+            if (previousFile != null && this.versionComparator.sameFile(f, previousFile)) {
+                fileUris.add(new DefaultIdentifierTranslator().getSubject(previous.getFilePath(rep, f)).getURI());
+                continue;
             }
 
             /* create a datastream in fedora for this file */
@@ -1451,123 +2642,222 @@ public class ConnectorService {
 
             /* add the metadata */
             if (f.getTechnical() != null) {
-                addMetadata(session, f.getTechnical(), filePath + "/TECHNICAL");
+                addMetadata(session, f.getTechnical(), filePath + "/TECHNICAL", triples);
             }
 
             /* add all bitstreams as child objects */
             if (f.getBitStreams() != null) {
-                for (final String bsUri : addBitStreams(session, f.getBitStreams(), "/" + filePath)) {
-                    sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_BITSTREAM) + " \"" + bsUri + "\"};");
+                for (final String bsUri : addBitStreams(session, f.getBitStreams(), "/" + filePath, triples)) {
+                    triples.addLiteral(uri, prefix(HAS_BITSTREAM), bsUri);
                 }
             }
-            String fileName = f.getFilename();
-            if (fileName == null) {
-                fileName = f.getUri().toASCIIString().substring(f.getUri().toASCIIString().lastIndexOf('/') + 1);
+            final String previousContent = (previous != null) ? previous.getContentPath(rep, f) : null;
+            writeFileContent(session, uri, filePath, f.getUri(), f.getFilename(), f.getMimetype(), staged, previousContent, triples);
+            fileUris.add(uri);
+        }
+        return fileUris;
+    }
+
+    private void writeFileContent(final Session session, final String uri, final String filePath, final URI source, final String filename,
+            final String mimetype, final FileStager.Batch staged, final TripleAccumulator triples) throws RepositoryException {
+        writeFileContent(session, uri, filePath, source, filename, mimetype, staged, null, triples);
+    }
+
+    private void writeFileContent(final Session session, final String uri, final String filePath, final URI source, final String filename,
+            final String mimetype, final FileStager.Batch staged, final String previousFilePath, final TripleAccumulator triples)
+            throws RepositoryException {
+        final URI fileUri;
+        try {
+            fileUri = staged.resolve(source);
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        }
+        String fileName = filename;
+        if (fileName == null) {
+            fileName = source.toASCIIString().substring(source.toASCIIString().lastIndexOf('/') + 1);
+        }
+        final String mimeType = (mimetype != null) ? mimetype : "application/binary";
+
+        /* a file sharing the content of the previous version keeps the original source */
+        String ingestSource = source.toString();
+        if (previousFilePath != null) {
+            final String previousSource = ScapeProperties.getString(this.repositoryReader.getNode(session, previousFilePath), HAS_INGEST_SOURCE);
+            if (previousSource != null) {
+                ingestSource = previousSource;
             }
-            final String mimeType = (f.getMimetype() != null) ? f.getMimetype() : "application/binary";
+        }
 
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_TYPE) + " \"file\"};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_FILENAME) + " \"" + fileName + "\"};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_MIMETYPE) + " \"" + mimeType + "\"};");
-            sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_INGEST_SOURCE) + " \"" + f.getUri() + "\"};");
+        triples.addLiteral(uri, prefix(HAS_TYPE), "file");
+        triples.addLiteral(uri, prefix(HAS_FILENAME), fileName);
+        triples.addLiteral(uri, prefix(HAS_MIMETYPE), mimeType);
+        triples.addLiteral(uri, prefix(HAS_INGEST_SOURCE), ingestSource);
 
+        if (this.referencedContent) {
+            /* only write a reference to the file URI as a node property */
+            triples.addLiteral(uri, prefix(HAS_REFERENCED_CONTENT), fileUri.toString());
+            return;
+        }
+        /*
+         * unchanged content is linked to the binary of the previous version
+         * instead of being fetched from its source or read again
+         */
+        if (previousFilePath != null) {
+            linkContent(session, previousFilePath + "/DATA", filePath + "/DATA", mimetype);
+            return;
+        }
 
-            if (this.referencedContent) {
-                /* only write a reference to the file URI as a node property */
-                sparql.append("INSERT DATA {<" + uri + "> " + prefix(HAS_REFERENCED_CONTENT) + " \"" + fileUri + "\"};");
-            } else {
-                /* load the actual binary data into the repo */
-                LOG.info("reading binary from {}", fileUri.toASCIIString());
-                try (final InputStream src = fileUri.toURL().openStream()) {
-                    final Datastream fileDs = this.datastreamService.findOrCreateDatastream(session, filePath + "/DATA");
-                    fileDs.getBinary().setContent(src, f.getMimetype(), null, null, datastreamService.getStoragePolicyDecisionPoint());
-                } catch (IOException | InvalidChecksumException e) {
-                    throw new RepositoryException(e);
-                }
-            }
-            fileUris.add(uri);
-            fileObject.updatePropertiesDataset(subjects, sparql.toString());
+        /* load the actual binary data into the repo */
+        final InputStream src;
+        try {
+            src = staged.open(fileUri);
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        }
+        try {
+            final Datastream fileDs = this.datastreamService.findOrCreateDatastream(session, filePath + "/DATA");
+            fileDs.getBinary().setContent(src, mimetype, null, null, datastreamService.getStoragePolicyDecisionPoint());
+        } catch (InvalidChecksumException e) {
+            throw new RepositoryException(e);
+        } finally {
+            IOUtils.closeQuietly(src);
         }
-        return fileUris;
     }
 
-    private void addMetadata(final Session session, final Object metadata, final String path) throws RepositoryException {
-        final StringBuilder sparql = new StringBuilder("PREFIX scape: <" + SCAPE_NAMESPACE + "> ");
+    private void addMetadata(final Session session, final Object metadata, final String path, final TripleAccumulator triples)
+            throws RepositoryException {
+        /* get the type of the metadata */
+        String type = "unknown";
+        String schema = "";
+
+        if (metadata.getClass() == ElementContainer.class) {
+            type = "dublin-core";
+            schema = "http://purl.org/dc/elements/1.1/";
+        } else if (metadata.getClass() == GbsType.class) {
+            type = "gbs";
+            schema = "http://books.google.com/gbs";
+        } else if (metadata.getClass() == Fits.class) {
+            type = "fits";
+            schema = "http://hul.harvard.edu/ois/xml/ns/fits/fits_output";
+        } else if (metadata.getClass() == AudioType.class) {
+            type = "audiomd";
+            schema = "http://www.loc.gov/audioMD/";
+        } else if (metadata.getClass() == RecordType.class) {
+            type = "marc21";
+            schema = "http://www.loc.gov/MARC21/slim";
+        } else if (metadata.getClass() == Mix.class) {
+            type = "mix";
+            schema = "http://www.loc.gov/mix/v20";
+        } else if (metadata.getClass() == VideoType.class) {
+            type = "videomd";
+            schema = "http://www.loc.gov/videoMD/";
+        } else if (metadata.getClass() == PremisComplexType.class) {
+            type = "premis-provenance";
+            schema = "info:lc/xmlns/premis-v2";
+        } else if (metadata.getClass() == RightsComplexType.class) {
+            type = "premis-rights";
+            schema = "info:lc/xmlns/premis-v2";
+        } else if (metadata.getClass() == TextMD.class) {
+            type = "textmd";
+            schema = "info:lc/xmlns/textmd-v3";
+        }
+
+        /* marshal the metadata into this thread's buffer and copy it to the repo */
+        final SpillingOutputStream sink = this.metadataBuffers.get();
         try {
+            final long start = System.nanoTime();
+            this.marshallerService.serializeMetadata(metadata, sink);
+            recordMarshalTime(type, System.nanoTime() - start);
+            writeMetadata(session, path, type, schema, sink, triples);
+        } catch (JAXBException e) {
+            throw new RepositoryException(e);
+        } finally {
+            resetMetadataBuffer(sink);
+        }
+    }
 
-            /* use piped streams to copy the data to the repo */
-            final PipedInputStream dcSrc = new PipedInputStream();
-            final PipedOutputStream dcSink = new PipedOutputStream();
-            dcSink.connect(dcSrc);
-            new Thread(new Runnable() {
+    private void addMetadata(final Session session, final MetsStreamParser.MetadataSection metadata, final String path,
+            final TripleAccumulator triples) throws RepositoryException {
+        /* the type is derived from the root element since the metadata is not unmarshalled */
+        final String schema = metadata.getElement().getNamespaceURI();
+        String type = METADATA_TYPES.get(schema);
+        if (type == null) {
+            type = "unknown";
+        } else if (type.equals("premis")) {
+            type = metadata.getElement().getLocalPart().equals("rights") ? "premis-rights" : "premis-provenance";
+        }
 
-                @Override
-                public void run() {
-                    try {
-                        ConnectorService.this.marshaller.getJaxbMarshaller().marshal(metadata, dcSink);
-                        dcSink.flush();
-                        dcSink.close();
-                    } catch (JAXBException e) {
-                        LOG.error(e.getLocalizedMessage(), e);
-                    } catch (IOException e) {
-                        LOG.error(e.getLocalizedMessage(), e);
-                    }
-                }
-            }).start();
+        final SpillingOutputStream sink = this.metadataBuffers.get();
+        try {
+            metadata.writeTo(sink);
+            writeMetadata(session, path, type, type.equals("unknown") ? "" : schema, sink, triples);
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        } finally {
+            resetMetadataBuffer(sink);
+        }
+    }
+
+    private void writeMetadata(final Session session, final String path, final String type, final String schema, final SpillingOutputStream sink,
+            final TripleAccumulator triples) throws RepositoryException {
+        try (final InputStream src = sink.getInputStream()) {
+            writeMetadata(session, path, type, schema, src, triples);
+        } catch (IOException e) {
+            throw new RepositoryException(e);
+        }
+    }
 
+    private void writeMetadata(final Session session, final String path, final String type, final String schema, final InputStream src,
+            final TripleAccumulator triples) throws RepositoryException {
+        try {
             final Datastream ds = datastreamService.findOrCreateDatastream(session, path);
-            ds.getBinary().setContent(dcSrc, "text/xml", null, null, datastreamService.getStoragePolicyDecisionPoint());
+            ds.getBinary().setContent(src, "text/xml", null, null, datastreamService.getStoragePolicyDecisionPoint());
             final Node desc = ds.getNode();
             desc.addMixin("scape:metadata");
 
             final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
             final String dsUri = subjects.getSubject(desc.getPath()).getURI();
-            /* get the type of the metadata */
-            String type = "unknown";
-            String schema = "";
-
-            if (metadata.getClass() == ElementContainer.class) {
-                type = "dublin-core";
-                schema = "http://purl.org/dc/elements/1.1/";
-            } else if (metadata.getClass() == GbsType.class) {
-                type = "gbs";
-                schema = "http://books.google.com/gbs";
-            } else if (metadata.getClass() == Fits.class) {
-                type = "fits";
-                schema = "http://hul.harvard.edu/ois/xml/ns/fits/fits_output";
-            } else if (metadata.getClass() == AudioType.class) {
-                type = "audiomd";
-                schema = "http://www.loc.gov/audioMD/";
-            } else if (metadata.getClass() == RecordType.class) {
-                type = "marc21";
-                schema = "http://www.loc.gov/MARC21/slim";
-            } else if (metadata.getClass() == Mix.class) {
-                type = "mix";
-                schema = "http://www.loc.gov/mix/v20";
-            } else if (metadata.getClass() == VideoType.class) {
-                type = "videomd";
-                schema = "http://www.loc.gov/videoMD/";
-            } else if (metadata.getClass() == PremisComplexType.class) {
-                type = "premis-provenance";
-                schema = "info:lc/xmlns/premis-v2";
-            } else if (metadata.getClass() == RightsComplexType.class) {
-                type = "premis-rights";
-                schema = "info:lc/xmlns/premis-v2";
-            } else if (metadata.getClass() == TextMD.class) {
-                type = "textmd";
-                schema = "info:lc/xmlns/textmd-v3";
-            }
-
-            /* add a sparql query to set the type of this object */
-            sparql.append("INSERT DATA {<" + dsUri + "> " + prefix(HAS_TYPE) + " '" + type + "'};");
-            sparql.append("INSERT DATA {<" + dsUri + "> " + prefix(HAS_SCHEMA) + " '" + schema + "'};");
-
-            ds.updatePropertiesDataset(subjects, sparql.toString());
 
-        } catch (IOException e) {
-            throw new RepositoryException(e);
+            /* set the type of this object */
+            triples.addLiteral(dsUri, prefix(HAS_TYPE), type);
+            triples.addLiteral(dsUri, prefix(HAS_SCHEMA), schema);
         } catch (InvalidChecksumException e) {
             throw new RepositoryException(e);
         }
     }
+
+    private void resetMetadataBuffer(final SpillingOutputStream sink) {
+        try {
+            sink.reset();
+        } catch (IOException e) {
+            LOG.warn("Unable to reset metadata buffer", e);
+        }
+    }
+
+    private void recordMarshalTime(final String type, final long nanos) {
+        AtomicLong time = this.metadataMarshalTimes.get(type);
+        if (time == null) {
+            final AtomicLong created = new AtomicLong();
+            time = this.metadataMarshalTimes.putIfAbsent(type, created);
+            if (time == null) {
+                time = created;
+            }
+        }
+        time.addAndGet(nanos);
+        LOG.debug("marshalled {} metadata in {} µs", type, nanos / 1000);
+    }
+
+    /**
+     * Get the accumulated time spent marshalling metadata records into XML
+     * during ingests, grouped by the metadata type
+     *
+     * @return a {@link Map} containing the marshalling time in milliseconds
+     *         for every metadata type
+     */
+    public Map<String, Long> getMetadataMarshalTimes() {
+        final Map<String, Long> times = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> e : this.metadataMarshalTimes.entrySet()) {
+            times.put(e.getKey(), e.getValue().get() / 1000000);
+        }
+        return times;
+    }
 }
@@ -0,0 +1,119 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exposes the statistics of a {@link ConnectorService} as an MXBean named
+ * <code>eu.scape_project:type=ConnectorStatistics</code> in the platform
+ * MBean server, so that they can be watched using e.g. jconsole
+ *
+ * @author frank asseg
+ *
+ */
+public class ConnectorStatistics implements ConnectorStatisticsMXBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectorStatistics.class);
+
+    /** The name the statistics are registered with */
+    public static final String OBJECT_NAME = "eu.scape_project:type=ConnectorStatistics";
+
+    private final ConnectorService connectorService;
+
+    private final MarshallerService marshallerService;
+
+    private ObjectName name;
+
+    /**
+     * Create a new {@link ConnectorStatistics}
+     *
+     * @param connectorService
+     *            the {@link ConnectorService} to expose
+     * @param marshallerService
+     *            the {@link MarshallerService} of the connector
+     */
+    public ConnectorStatistics(final ConnectorService connectorService, final MarshallerService marshallerService) {
+        this.connectorService = connectorService;
+        this.marshallerService = marshallerService;
+    }
+
+    /**
+     * Register the statistics in the platform MBean server, replacing the
+     * statistics of a previous connector which have not been unregistered
+     */
+    public void register() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+            this.name = objectName;
+        } catch (JMException e) {
+            /* the connector works without its statistics */
+            LOG.warn("Unable to register the connector statistics", e);
+        }
+    }
+
+    /**
+     * Remove the statistics from the platform MBean server
+     */
+    public void unregister() {
+        if (this.name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+        } catch (JMException e) {
+            LOG.warn("Unable to unregister the connector statistics", e);
+        } finally {
+            this.name = null;
+        }
+    }
+
+    @Override
+    public long getMarshallerHits() {
+        return this.marshallerService.getHits();
+    }
+
+    @Override
+    public long getMarshallerContextsCreated() {
+        return this.marshallerService.getContextsCreated();
+    }
+
+    @Override
+    public long getMarshallerContextCreationTime() {
+        return this.marshallerService.getContextCreationTime();
+    }
+
+    @Override
+    public Map<String, Long> getMetadataMarshalTimes() {
+        return this.connectorService.getMetadataMarshalTimes();
+    }
+
+    @Override
+    public Map<String, Long> getEntityCacheStatistics() {
+        return this.connectorService.getEntityCacheStatistics();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.util.Map;
+
+/**
+ * The statistics of the connector exposed via JMX
+ *
+ * @author frank asseg
+ *
+ */
+public interface ConnectorStatisticsMXBean {
+
+    /**
+     * Get the number of requests that have been served by an already
+     * existing marshaller
+     *
+     * @return the number of marshaller reuses
+     */
+    long getMarshallerHits();
+
+    /**
+     * Get the number of JAX-B contexts that have been created
+     *
+     * @return the number of created contexts
+     */
+    long getMarshallerContextsCreated();
+
+    /**
+     * Get the accumulated time spent creating JAX-B contexts
+     *
+     * @return the context creation time in milliseconds
+     */
+    long getMarshallerContextCreationTime();
+
+    /**
+     * Get the accumulated time spent marshalling metadata records during
+     * ingests, grouped by the metadata type
+     *
+     * @return the marshalling time in milliseconds for every metadata type
+     */
+    Map<String, Long> getMetadataMarshalTimes();
+
+    /**
+     * Get the statistics of the entity cache
+     *
+     * @return the hit, miss and eviction counters and the size of the cache
+     */
+    Map<String, Long> getEntityCacheStatistics();
+}
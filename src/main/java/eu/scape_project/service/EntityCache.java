@@ -0,0 +1,388 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import eu.scape_project.model.IntellectualEntity;
+
+/**
+ * A bounded in-memory cache of {@link IntellectualEntity} objects keyed by the
+ * entity's id and version. Since a version is never changed once it has been
+ * written, a cached entity does not have to be invalidated. The size of the
+ * cache is limited by the serialized size of the cached entities in bytes, so
+ * that a few entities with large metadata records can not exhaust the heap,
+ * and the least recently used entities are evicted first.
+ * <p>
+ * Additionally a small map of the current version of the entities is kept, so
+ * that the current version can be resolved without reading the entity from
+ * the repository. Since version numbers only increase, the map keeps the
+ * highest version number it has seen for an entity. A version written in a
+ * transaction is only announced as pending, and the entity's version number
+ * is not kept until a reader outside of the transaction has seen the pending
+ * version, so that a not yet committed version is not served from the map.
+ * The pending versions of a transaction which has been rolled back have to be
+ * discarded using {@link #discardTransaction(String)}
+ * </p>
+ *
+ * @author frank asseg
+ *
+ */
+public class EntityCache {
+
+    private final long capacity;
+
+    private final int pointerCapacity;
+
+    private final LinkedHashMap<String, CachedEntity> entities = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, Integer> currentVersions;
+
+    private final Map<String, PendingVersion> pendingVersions = new HashMap<>();
+
+    private long weight;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong versionHits = new AtomicLong();
+
+    private final AtomicLong versionMisses = new AtomicLong();
+
+    /**
+     * Create a new {@link EntityCache}
+     *
+     * @param capacity
+     *            the maximum serialized size of all the cached entities in
+     *            bytes. A value of 0 disables the cache
+     * @param pointerCapacity
+     *            the maximum number of current version numbers to keep
+     */
+    public EntityCache(final long capacity, final int pointerCapacity) {
+        this.capacity = capacity;
+        this.pointerCapacity = pointerCapacity;
+        this.currentVersions = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > EntityCache.this.pointerCapacity;
+            }
+        };
+    }
+
+    /**
+     * Get a cached version of an entity
+     *
+     * @param id
+     *            the id of the entity
+     * @param version
+     *            the version number
+     * @return the cached {@link IntellectualEntity} or <code>null</code> if the
+     *         version is not in the cache
+     */
+    public IntellectualEntity get(final String id, final int version) {
+        final CachedEntity cached;
+        synchronized (this) {
+            cached = entities.get(key(id, version));
+        }
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.entity;
+    }
+
+    /**
+     * Add a version of an entity to the cache, evicting the least recently
+     * used entities if the capacity is exceeded. An entity larger than the
+     * capacity is not cached at all
+     *
+     * @param id
+     *            the id of the entity
+     * @param version
+     *            the version number
+     * @param entity
+     *            the {@link IntellectualEntity} to cache
+     * @param size
+     *            the serialized size of the entity in bytes
+     */
+    public void put(final String id, final int version, final IntellectualEntity entity, final long size) {
+        if (size > capacity) {
+            return;
+        }
+        synchronized (this) {
+            final CachedEntity previous = entities.put(key(id, version), new CachedEntity(entity, size));
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            weight += size;
+            final Iterator<CachedEntity> it = entities.values().iterator();
+            while (weight > capacity && it.hasNext()) {
+                weight -= it.next().weight;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Get the current version number of an entity
+     *
+     * @param id
+     *            the id of the entity
+     * @return the version number or <code>null</code> if it is not known
+     */
+    public Integer getCurrentVersion(final String id) {
+        final Integer version;
+        synchronized (currentVersions) {
+            version = currentVersions.get(id);
+        }
+        if (version == null) {
+            versionMisses.incrementAndGet();
+        } else {
+            versionHits.incrementAndGet();
+        }
+        return version;
+    }
+
+    /**
+     * Record the current version number of an entity. A version number lower
+     * than the one already recorded is ignored, so that a reader which has
+     * fetched the version number before an update can not overwrite the newer
+     * one
+     *
+     * @param id
+     *            the id of the entity
+     * @param version
+     *            the version number
+     */
+    public void setCurrentVersion(final String id, final int version) {
+        if (pointerCapacity <= 0) {
+            return;
+        }
+        synchronized (currentVersions) {
+            final PendingVersion pending = pendingVersions.get(id);
+            if (pending != null) {
+                if (version < pending.version) {
+                    /* the pending version has not been committed yet */
+                    return;
+                }
+                pendingVersions.remove(id);
+            }
+            final Integer previous = currentVersions.get(id);
+            if (previous == null || previous < version) {
+                currentVersions.put(id, version);
+            }
+        }
+    }
+
+    /**
+     * Record a version of an entity which has been written in a transaction.
+     * The current version number of the entity is removed and not kept again
+     * until a version number at least as high as the pending one is recorded,
+     * i.e. until the transaction has been committed, or until the transaction
+     * is discarded
+     *
+     * @param id
+     *            the id of the entity
+     * @param version
+     *            the version number written in the transaction
+     * @param transaction
+     *            the id of the transaction
+     */
+    public void setPendingVersion(final String id, final int version, final String transaction) {
+        synchronized (currentVersions) {
+            currentVersions.remove(id);
+            final PendingVersion previous = pendingVersions.get(id);
+            if (previous == null || previous.version < version) {
+                pendingVersions.put(id, new PendingVersion(version, transaction));
+            }
+        }
+    }
+
+    /**
+     * Get the ids of the transactions which have written pending versions
+     *
+     * @return the ids of the transactions
+     */
+    public Set<String> getPendingTransactions() {
+        final Set<String> transactions = new HashSet<>();
+        synchronized (currentVersions) {
+            for (PendingVersion pending : pendingVersions.values()) {
+                transactions.add(pending.transaction);
+            }
+        }
+        return transactions;
+    }
+
+    /**
+     * Discard the pending versions of a transaction which has been committed
+     * or rolled back, so that the current version numbers of its entities are
+     * kept again
+     *
+     * @param transaction
+     *            the id of the transaction
+     */
+    public void discardTransaction(final String transaction) {
+        synchronized (currentVersions) {
+            final Iterator<PendingVersion> it = pendingVersions.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().transaction.equals(transaction)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove the current version number of an entity
+     *
+     * @param id
+     *            the id of the entity
+     */
+    public void invalidate(final String id) {
+        synchronized (currentVersions) {
+            currentVersions.remove(id);
+        }
+    }
+
+    /**
+     * Remove all entities and version numbers from the cache
+     */
+    public void clear() {
+        synchronized (this) {
+            entities.clear();
+            weight = 0;
+        }
+        synchronized (currentVersions) {
+            currentVersions.clear();
+            pendingVersions.clear();
+        }
+    }
+
+    /**
+     * Get the number of cached entity versions
+     *
+     * @return the number of entity versions
+     */
+    public synchronized int size() {
+        return entities.size();
+    }
+
+    /**
+     * Get the maximum serialized size of all the cached entities
+     *
+     * @return the capacity of the cache in bytes
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the serialized size of all the cached entities
+     *
+     * @return the weight of the cache in bytes
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Get the number of lookups which have been served from the cache
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups which have not been served from the cache
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of entities evicted from the cache
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the statistics of this cache
+     *
+     * @return a {@link Map} containing the hit, miss and eviction counters and
+     *         the current size of the cache
+     */
+    public Map<String, Long> getStatistics() {
+        final Map<String, Long> stats = new TreeMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("version-hits", versionHits.get());
+        stats.put("version-misses", versionMisses.get());
+        synchronized (this) {
+            stats.put("entities", (long) entities.size());
+            stats.put("weight", weight);
+        }
+        return stats;
+    }
+
+    private static String key(final String id, final int version) {
+        return id + "/version-" + version;
+    }
+
+    private static class PendingVersion {
+
+        private final int version;
+
+        private final String transaction;
+
+        private PendingVersion(final int version, final String transaction) {
+            this.version = version;
+            this.transaction = transaction;
+        }
+    }
+
+    private static class CachedEntity {
+
+        private final IntellectualEntity entity;
+
+        private final long weight;
+
+        private CachedEntity(final IntellectualEntity entity, final long weight) {
+            this.entity = entity;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.XMLEvent;
+
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.IntellectualEntityCollection;
+
+/**
+ * Writes the XML document of an {@link IntellectualEntityCollection} one
+ * {@link IntellectualEntity} at a time. Every entity is marshalled as a
+ * collection containing only this entity and the children of the
+ * collection's root element are copied to the output, so that the document
+ * is the same as the one of the complete collection, while only a single
+ * entity has to be kept in memory
+ *
+ * @author frank asseg
+ *
+ */
+public class EntityCollectionWriter {
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    static {
+        OUTPUT_FACTORY.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, true);
+    }
+
+    private final MarshallerService marshallerService;
+
+    private final OutputStream out;
+
+    private XMLEventWriter writer;
+
+    private EndElement rootEnd;
+
+    /**
+     * Create a new {@link EntityCollectionWriter}
+     *
+     * @param marshallerService
+     *            the {@link MarshallerService} used to marshal the entities
+     * @param out
+     *            the {@link OutputStream} to write the document to
+     */
+    public EntityCollectionWriter(final MarshallerService marshallerService, final OutputStream out) {
+        this.marshallerService = marshallerService;
+        this.out = out;
+    }
+
+    /**
+     * Write an {@link IntellectualEntity} to the collection
+     *
+     * @param entity
+     *            the {@link IntellectualEntity} to write
+     * @throws IOException
+     *             if the entity could not be written
+     */
+    public void write(final IntellectualEntity entity) throws IOException {
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try {
+            this.marshallerService.getMarshaller().serialize(new IntellectualEntityCollection(Collections.singletonList(entity)), sink);
+            final XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(new ByteArrayInputStream(sink.toByteArray()));
+            int depth = 0;
+            while (reader.hasNext()) {
+                final XMLEvent event = reader.nextEvent();
+                if (event.isStartElement() && ++depth == 1) {
+                    /* the root element is only written for the first entity */
+                    if (writer == null) {
+                        writer = OUTPUT_FACTORY.createXMLEventWriter(out, "UTF-8");
+                        writer.add(EVENT_FACTORY.createStartDocument("UTF-8", "1.0"));
+                        writer.add(event);
+                    }
+                    continue;
+                }
+                if (event.isEndElement() && --depth == 0) {
+                    rootEnd = event.asEndElement();
+                    continue;
+                }
+                if (depth > 0) {
+                    writer.add(event);
+                }
+            }
+            reader.close();
+            writer.flush();
+        } catch (JAXBException | XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Finish the document after all the entities have been written
+     *
+     * @throws IOException
+     *             if the document could not be finished
+     */
+    public void finish() throws IOException {
+        try {
+            if (writer == null) {
+                /* an empty collection */
+                this.marshallerService.getMarshaller().serialize(new IntellectualEntityCollection(Collections.<IntellectualEntity> emptyList()), out);
+                return;
+            }
+            writer.add(rootEnd);
+            writer.add(EVENT_FACTORY.createEndDocument());
+            writer.flush();
+        } catch (JAXBException | XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+}
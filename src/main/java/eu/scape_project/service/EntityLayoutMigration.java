@@ -0,0 +1,203 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.NamespaceException;
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.ValueFactory;
+
+import org.fcrepo.kernel.impl.rdf.impl.DefaultIdentifierTranslator;
+import org.fcrepo.kernel.rdf.IdentifierTranslator;
+import org.fcrepo.kernel.services.ObjectService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.scape_project.model.IntellectualEntity;
+
+/**
+ * Moves the {@link IntellectualEntity}s of a repository with a flat layout,
+ * i.e. with all the entities stored as direct children of the entity folder,
+ * into the shard folders of an {@link EntityPathResolver}. The links between
+ * the versions, representations, files and bitstreams are stored as URIs, so
+ * every scape property pointing into a moved entity is rewritten to the new
+ * path, as are the absolute URLs of the PREMIS records of the
+ * representations. The migration has to run while no requests are served and saves the
+ * session after every batch of entities, so that an interrupted migration
+ * can be resumed by running it again
+ *
+ * @author frank asseg
+ *
+ */
+public class EntityLayoutMigration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntityLayoutMigration.class);
+
+    private static final int BATCH_SIZE = 100;
+
+    private static final String TEMPORARY_SUFFIX = ".migrating";
+
+    private static final String CONFIG_NAMESPACE = "http://fedora.info/definitions/v4/config#";
+
+    private final Session session;
+
+    private final ObjectService objectService;
+
+    private final EntityPathResolver paths;
+
+    private final String fedoraUrl;
+
+    private final IdentifierTranslator subjects = new DefaultIdentifierTranslator();
+
+    /**
+     * Create a new {@link EntityLayoutMigration}
+     *
+     * @param session
+     *            the {@link Session} used for the migration
+     * @param objectService
+     *            the {@link ObjectService} used to create the shard folders
+     * @param paths
+     *            the {@link EntityPathResolver} of the target layout
+     * @param fedoraUrl
+     *            the URL of fcrepo used in the absolute links to the PREMIS
+     *            records
+     */
+    public EntityLayoutMigration(final Session session, final ObjectService objectService, final EntityPathResolver paths, final String fedoraUrl) {
+        this.session = session;
+        this.objectService = objectService;
+        this.paths = paths;
+        this.fedoraUrl = fedoraUrl;
+    }
+
+    /**
+     * Move all the {@link IntellectualEntity}s found directly below the entity
+     * folder into their shard folders
+     *
+     * @return the number of migrated entities
+     * @throws RepositoryException
+     *             if an entity could not be moved
+     */
+    public int migrate() throws RepositoryException {
+        if (this.paths.getDepth() == 0 || !this.session.nodeExists(this.paths.getRoot())) {
+            return 0;
+        }
+        /* collect the names first, since the root's children change while moving */
+        final List<String> ids = new ArrayList<>();
+        final NodeIterator children = this.session.getNode(this.paths.getRoot()).getNodes();
+        while (children.hasNext()) {
+            final Node child = children.nextNode();
+            if (child.isNodeType("scape:intellectual-entity")) {
+                final String name = child.getName();
+                /* an entity moved aside by an interrupted migration */
+                ids.add(name.endsWith(TEMPORARY_SUFFIX) ? name.substring(0, name.length() - TEMPORARY_SUFFIX.length()) : name);
+            }
+        }
+        LOG.info("migrating {} entities to a shard depth of {}", ids.size(), this.paths.getDepth());
+
+        /* entities named like a shard folder are moved aside so the folder can be created */
+        for (String id : ids) {
+            if (this.paths.isShardName(id) && this.session.nodeExists(flatPath(id))) {
+                this.session.move(flatPath(id), flatPath(id) + TEMPORARY_SUFFIX);
+            }
+        }
+        this.session.save();
+
+        final String[] names = linkProperties();
+        int count = 0;
+        final long start = System.currentTimeMillis();
+        for (String id : ids) {
+            final String source = this.paths.isShardName(id) ? flatPath(id) + TEMPORARY_SUFFIX : flatPath(id);
+            final String target = this.paths.getEntityPath(id);
+            this.objectService.findOrCreateObject(this.session, this.paths.getShardPath(id));
+            this.session.move(source, target);
+            rewriteLinks(this.session.getNode(target), names, prefixes(flatPath(id)), prefixes(target));
+            if (++count % BATCH_SIZE == 0) {
+                this.session.save();
+                LOG.info("migrated {} of {} entities in {} ms", count, ids.size(), System.currentTimeMillis() - start);
+            }
+        }
+        this.session.save();
+        LOG.info("migrated {} entities in {} ms", count, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    private String flatPath(final String id) {
+        return this.paths.getRoot() + "/" + id;
+    }
+
+    /* an object is linked by its fcrepo URI and the PREMIS records by their absolute URL */
+    private String[] prefixes(final String path) {
+        final String uri = this.subjects.getSubject(path).getURI();
+        return (this.fedoraUrl == null) ? new String[] { uri } : new String[] { uri, this.fedoraUrl + path };
+    }
+
+    /* the names of the properties which may link into an entity */
+    private String[] linkProperties() throws RepositoryException {
+        try {
+            return new String[] { "scape:*", this.session.getNamespacePrefix(CONFIG_NAMESPACE) + ":hasPremis*" };
+        } catch (NamespaceException e) {
+            /* no PREMIS record has been written yet */
+            return new String[] { "scape:*" };
+        }
+    }
+
+    /* rewrite the link properties of the object and its children which point into the moved entity */
+    private void rewriteLinks(final Node node, final String[] names, final String[] oldPrefixes, final String[] newPrefixes)
+            throws RepositoryException {
+        final ValueFactory values = this.session.getValueFactory();
+        final PropertyIterator properties = node.getProperties(names);
+        while (properties.hasNext()) {
+            final Property property = properties.nextProperty();
+            if (property.isMultiple()) {
+                final Value[] stored = property.getValues();
+                final Value[] rewritten = new Value[stored.length];
+                boolean changed = false;
+                for (int i = 0; i < stored.length; i++) {
+                    final String value = rewrite(stored[i].getString(), oldPrefixes, newPrefixes);
+                    changed |= (value != null);
+                    rewritten[i] = (value != null) ? values.createValue(value, stored[i].getType()) : stored[i];
+                }
+                if (changed) {
+                    property.setValue(rewritten);
+                }
+            } else {
+                final String value = rewrite(property.getString(), oldPrefixes, newPrefixes);
+                if (value != null) {
+                    property.setValue(values.createValue(value, property.getType()));
+                }
+            }
+        }
+        final NodeIterator children = node.getNodes();
+        while (children.hasNext()) {
+            rewriteLinks(children.nextNode(), names, oldPrefixes, newPrefixes);
+        }
+    }
+
+    private static String rewrite(final String value, final String[] oldPrefixes, final String[] newPrefixes) {
+        for (int i = 0; i < oldPrefixes.length; i++) {
+            if (value.equals(oldPrefixes[i]) || value.startsWith(oldPrefixes[i] + "/")) {
+                return newPrefixes[i] + value.substring(oldPrefixes[i].length());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import static eu.scape_project.rdf.ScapeProperties.*;
+import static eu.scape_project.rdf.ScapeRDFVocabulary.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.xml.bind.JAXBException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.scape_project.model.BitStream;
+import eu.scape_project.model.File;
+import eu.scape_project.model.Identifier;
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.LifecycleState;
+import eu.scape_project.model.Representation;
+import eu.scape_project.rdf.ScapeProperties;
+
+/**
+ * Assembles {@link IntellectualEntity} objects by walking the JCR nodes of a
+ * version's subtree once. The scape properties are read directly from the
+ * nodes using {@link ScapeProperties} and the metadata is deserialized from the content node of the
+ * metadata datastreams, instead of building an RDF graph for every object and
+ * looking up every metadata datastream via the datastream service. A loader
+ * is meant to be used for a single fetch and counts the number of nodes it
+ * has read
+ *
+ * @author frank asseg
+ *
+ */
+public class EntityLoader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EntityLoader.class);
+
+    private final RepositoryReader repositoryReader;
+
+    private final Session session;
+
+    private final MarshallerService marshallerService;
+
+    private final String fedoraUrl;
+
+    private final boolean referencedContent;
+
+    private final EntityProjection projection;
+
+    private int reads;
+
+    /**
+     * Create a new {@link EntityLoader}
+     *
+     * @param repositoryReader
+     *            the {@link RepositoryReader} used to look up the nodes
+     * @param session
+     *            the {@link Session} to read the nodes from
+     * @param marshallerService
+     *            the {@link MarshallerService} used to deserialize the
+     *            metadata
+     * @param fedoraUrl
+     *            the base URL of Fedora used for the URIs of managed files
+     * @param referencedContent
+     *            whether the files' URIs point to referenced content
+     */
+    public EntityLoader(final RepositoryReader repositoryReader, final Session session, final MarshallerService marshallerService, final String fedoraUrl, final boolean referencedContent) {
+        this(repositoryReader, session, marshallerService, fedoraUrl, referencedContent, EntityProjection.FULL);
+    }
+
+    /**
+     * Create a new {@link EntityLoader} which only reads the metadata of a
+     * projection
+     *
+     * @param repositoryReader
+     *            the {@link RepositoryReader} used to look up the nodes
+     * @param session
+     *            the {@link Session} to read the nodes from
+     * @param marshallerService
+     *            the {@link MarshallerService} used to deserialize the
+     *            metadata
+     * @param fedoraUrl
+     *            the base URL of Fedora used for the URIs of managed files
+     * @param referencedContent
+     *            whether the files' URIs point to referenced content
+     * @param projection
+     *            the {@link EntityProjection} defining the metadata to read
+     */
+    public EntityLoader(final RepositoryReader repositoryReader, final Session session, final MarshallerService marshallerService, final String fedoraUrl,
+            final boolean referencedContent, final EntityProjection projection) {
+        this.repositoryReader = repositoryReader;
+        this.session = session;
+        this.marshallerService = marshallerService;
+        this.fedoraUrl = fedoraUrl;
+        this.referencedContent = referencedContent;
+        this.projection = projection;
+    }
+
+    /**
+     * Load a version of an {@link IntellectualEntity}
+     *
+     * @param entityPath
+     *            the path of the entity in Fedora
+     * @param versionPath
+     *            the path of the entity's version in Fedora
+     * @return the {@link IntellectualEntity}
+     * @throws RepositoryException
+     *             if the entity could not be read
+     */
+    public IntellectualEntity loadEntity(final String entityPath, final String versionPath) throws RepositoryException {
+        final Node entityNode = node(entityPath);
+        final Node versionNode = node(versionPath);
+
+        final IntellectualEntity.Builder ie = new IntellectualEntity.Builder();
+        ie.identifier(new Identifier(entityNode.getName()));
+        ie.descriptive(loadMetadata(versionNode, "DESCRIPTIVE"));
+
+        final List<Representation> reps = new ArrayList<>();
+        for (String repPath : getPaths(versionNode, HAS_REPRESENTATION)) {
+            reps.add(loadRepresentation(child(versionNode, repPath)));
+        }
+        ie.representations(reps);
+
+        final String state = getRequiredString(entityNode, HAS_LIFECYCLESTATE);
+        final String details = getString(entityNode, HAS_LIFECYCLESTATE_DETAILS);
+        ie.lifecycleState(new LifecycleState(details, LifecycleState.State.valueOf(state)));
+
+        LOG.debug("loaded entity {} reading {} nodes", versionPath, reads);
+        return ie.build();
+    }
+
+    /**
+     * Load a {@link Representation}
+     *
+     * @param repPath
+     *            the path of the representation in Fedora
+     * @return the {@link Representation}
+     * @throws RepositoryException
+     *             if the representation could not be read
+     */
+    public Representation loadRepresentation(final String repPath) throws RepositoryException {
+        return loadRepresentation(node(repPath));
+    }
+
+    /**
+     * Load a {@link File}
+     *
+     * @param filePath
+     *            the path of the file in Fedora
+     * @return the {@link File}
+     * @throws RepositoryException
+     *             if the file could not be read
+     */
+    public File loadFile(final String filePath) throws RepositoryException {
+        return loadFile(node(filePath));
+    }
+
+    /**
+     * Get the number of nodes read by this loader
+     *
+     * @return the number of nodes
+     */
+    public int getReads() {
+        return reads;
+    }
+
+    private Representation loadRepresentation(final Node repNode) throws RepositoryException {
+        final Representation.Builder rep = new Representation.Builder();
+        rep.identifier(new Identifier(repNode.getName()));
+        rep.title(getString(repNode, HAS_TITLE));
+        rep.technical(loadMetadata(repNode, "TECHNICAL"));
+        rep.source(loadMetadata(repNode, "SOURCE"));
+        rep.provenance(loadMetadata(repNode, "PROVENANCE"));
+        rep.rights(loadMetadata(repNode, "RIGHTS"));
+
+        final List<File> files = new ArrayList<>();
+        for (String filePath : getPaths(repNode, HAS_FILE)) {
+            files.add(loadFile(child(repNode, filePath)));
+        }
+        rep.files(files);
+        return rep.build();
+    }
+
+    private File loadFile(final Node fileNode) throws RepositoryException {
+        final File.Builder f = new File.Builder();
+        f.identifier(new Identifier(fileNode.getName()));
+        f.technical(loadMetadata(fileNode, "TECHNICAL"));
+        f.filename(getString(fileNode, HAS_FILENAME));
+        f.mimetype(getString(fileNode, HAS_MIMETYPE));
+        if (referencedContent) {
+            f.uri(URI.create(getString(fileNode, HAS_REFERENCED_CONTENT)));
+        } else {
+            final String[] ids = fileNode.getPath().split("/");
+            f.uri(URI.create(fedoraUrl + "/scape/file/" + ids[ids.length - 4] + "/" + ids[ids.length - 2] + "/" + ids[ids.length - 1]));
+        }
+
+        final List<BitStream> streams = new ArrayList<>();
+        for (String bsPath : getPaths(fileNode, HAS_BITSTREAM)) {
+            final Node bsNode = child(fileNode, bsPath);
+            final BitStream.Builder bs = new BitStream.Builder();
+            bs.identifier(new Identifier(bsNode.getName()));
+            bs.technical(loadMetadata(bsNode, "TECHNICAL"));
+            streams.add(bs.build());
+        }
+        f.bitStreams(streams);
+        return f.build();
+    }
+
+    private Object loadMetadata(final Node parent, final String name) throws RepositoryException {
+        /* metadata outside of the projection is never read */
+        if (!projection.includes(name) || !parent.hasNode(name)) {
+            return null;
+        }
+        reads++;
+        final Node content = parent.getNode(name).getNode(Node.JCR_CONTENT);
+        try (final InputStream src = content.getProperty(Property.JCR_DATA).getBinary().getStream()) {
+            return this.marshallerService.deserializeMetadata(src);
+        } catch (JAXBException | IOException e) {
+            throw new RepositoryException(e);
+        }
+    }
+
+    private Node node(final String path) throws RepositoryException {
+        reads++;
+        return repositoryReader.getNode(session, path);
+    }
+
+    /* resolve a child relative to the parent to avoid a lookup from the root */
+    private Node child(final Node parent, final String path) throws RepositoryException {
+        final String parentPath = parent.getPath();
+        if (path.startsWith(parentPath + "/")) {
+            reads++;
+            return parent.getNode(path.substring(parentPath.length() + 1));
+        }
+        return node(path);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import eu.scape_project.model.IntellectualEntity;
+
+/**
+ * Maps the id of an {@link IntellectualEntity} to the path of the entity's
+ * object in the repository. With a depth of 0 the entities are stored as
+ * direct children of the entity folder. Otherwise the entities are spread
+ * over a tree of shard folders named after the leading pairs of hex digits of
+ * the MD5 hash of the id, e.g. <code>entities/3f/a1/entity-1</code> for a
+ * depth of 2, so that no folder has more than 256 shard folders as children
+ * and ModeShape does not have to maintain huge child lists
+ *
+ * @author frank asseg
+ *
+ */
+public class EntityPathResolver {
+
+    private static final int SEGMENT_LENGTH = 2;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String root;
+
+    private final int depth;
+
+    /**
+     * Create a new {@link EntityPathResolver}
+     *
+     * @param root
+     *            the path of the folder containing the entities
+     * @param depth
+     *            the number of shard folders between the root and an entity
+     */
+    public EntityPathResolver(final String root, final int depth) {
+        if (depth < 0 || depth * SEGMENT_LENGTH > 32) {
+            throw new IllegalArgumentException("The shard depth has to be between 0 and " + (32 / SEGMENT_LENGTH));
+        }
+        this.root = root;
+        this.depth = depth;
+    }
+
+    /**
+     * Get the path of an {@link IntellectualEntity}'s object
+     *
+     * @param id
+     *            the id of the {@link IntellectualEntity}
+     * @return the path of the entity object
+     */
+    public String getEntityPath(final String id) {
+        return getShardPath(id) + "/" + id;
+    }
+
+    /**
+     * Get the path of the folder an {@link IntellectualEntity} is stored in
+     *
+     * @param id
+     *            the id of the {@link IntellectualEntity}
+     * @return the path of the entity's shard folder
+     */
+    public String getShardPath(final String id) {
+        if (this.depth == 0) {
+            return this.root;
+        }
+        final String hash = hash(id);
+        final StringBuilder path = new StringBuilder(this.root.length() + this.depth * (SEGMENT_LENGTH + 1)).append(this.root);
+        for (int i = 0; i < this.depth; i++) {
+            path.append('/').append(hash, i * SEGMENT_LENGTH, (i + 1) * SEGMENT_LENGTH);
+        }
+        return path.toString();
+    }
+
+    /**
+     * Check if a name is a valid shard folder name
+     *
+     * @param name
+     *            the name to check
+     * @return <code>true</code> if the name could be used for a shard folder
+     */
+    public boolean isShardName(final String name) {
+        if (name.length() != SEGMENT_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.digit(name.charAt(i), 16) == -1 || Character.isUpperCase(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Iterate over the objects of all the {@link IntellectualEntity}s stored
+     * in the layout. The shard folders are walked one at a time, so the
+     * entities are not collected in memory
+     *
+     * @param session
+     *            the {@link Session} used to read the folders
+     * @return an {@link Iterator} over the entity objects
+     * @throws RepositoryException
+     *             if the root folder could not be read
+     */
+    public Iterator<Node> iterateEntities(final Session session) throws RepositoryException {
+        if (!session.nodeExists(this.root)) {
+            return new ArrayDeque<Node>().iterator();
+        }
+        return new EntityIterator(session.getNode(this.root).getNodes());
+    }
+
+    public String getRoot() {
+        return root;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    private static String hash(final String id) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(id.getBytes(UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+        final char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /* a depth first walk over the shard folders returning the nodes at the entity level */
+    private class EntityIterator implements Iterator<Node> {
+
+        private final Deque<NodeIterator> levels = new ArrayDeque<>();
+
+        private Node next;
+
+        private EntityIterator(final NodeIterator top) {
+            this.levels.push(top);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null && !this.levels.isEmpty()) {
+                final NodeIterator level = this.levels.peek();
+                if (!level.hasNext()) {
+                    this.levels.pop();
+                    continue;
+                }
+                final Node node = level.nextNode();
+                if (this.levels.size() > depth) {
+                    this.next = node;
+                } else {
+                    try {
+                        if (isShardName(node.getName())) {
+                            this.levels.push(node.getNodes());
+                        }
+                    } catch (RepositoryException e) {
+                        throw new IllegalStateException("Unable to read the shard folder", e);
+                    }
+                }
+            }
+            return this.next != null;
+        }
+
+        @Override
+        public Node next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException("No more entities");
+            }
+            final Node node = this.next;
+            this.next = null;
+            return node;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("Entities can not be removed while iterating");
+        }
+    }
+}
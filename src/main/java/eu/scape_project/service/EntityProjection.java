@@ -0,0 +1,243 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import eu.scape_project.model.BitStream;
+import eu.scape_project.model.File;
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.Representation;
+
+/**
+ * The parts of an {@link IntellectualEntity} requested by a client. The
+ * structure of an entity, i.e. the identifiers of the representations, files
+ * and bitstreams and the files' names, mimetypes and URIs is always included,
+ * while each kind of metadata can be requested separately. Metadata which has
+ * not been requested is not read from the repository at all
+ *
+ * @author frank asseg
+ *
+ */
+public final class EntityProjection {
+
+    public static final String STRUCTURE = "structure";
+
+    public static final String DESCRIPTIVE = "descriptive";
+
+    public static final String TECHNICAL = "technical";
+
+    public static final String SOURCE = "source";
+
+    public static final String PROVENANCE = "provenance";
+
+    public static final String RIGHTS = "rights";
+
+    public static final String ALL = "all";
+
+    private static final String[] METADATA = new String[] { DESCRIPTIVE, TECHNICAL, SOURCE, PROVENANCE, RIGHTS };
+
+    /**
+     * The projection containing the complete entity
+     */
+    public static final EntityProjection FULL = new EntityProjection(true, true, true, true, true);
+
+    private final boolean descriptive;
+
+    private final boolean technical;
+
+    private final boolean source;
+
+    private final boolean provenance;
+
+    private final boolean rights;
+
+    private EntityProjection(final boolean descriptive, final boolean technical, final boolean source, final boolean provenance, final boolean rights) {
+        this.descriptive = descriptive;
+        this.technical = technical;
+        this.source = source;
+        this.provenance = provenance;
+        this.rights = rights;
+    }
+
+    /**
+     * Parse the value of an <code>include</code> parameter, e.g.
+     * <code>structure,descriptive,technical</code>
+     *
+     * @param include
+     *            a comma separated list of the parts to include or
+     *            <code>null</code> for the complete entity
+     * @return the {@link EntityProjection}
+     * @throws IllegalArgumentException
+     *             if the list contains an unknown part
+     */
+    public static EntityProjection parse(final String include) {
+        if (include == null || include.trim().isEmpty()) {
+            return FULL;
+        }
+        boolean descriptive = false, technical = false, source = false, provenance = false, rights = false;
+        for (String part : include.split(",")) {
+            part = part.trim().toLowerCase(Locale.ENGLISH);
+            switch (part) {
+            case ALL:
+                return FULL;
+            case STRUCTURE:
+                break;
+            case DESCRIPTIVE:
+                descriptive = true;
+                break;
+            case TECHNICAL:
+                technical = true;
+                break;
+            case SOURCE:
+                source = true;
+                break;
+            case PROVENANCE:
+                provenance = true;
+                break;
+            case RIGHTS:
+                rights = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown part '" + part + "' in include parameter");
+            }
+        }
+        return new EntityProjection(descriptive, technical, source, provenance, rights);
+    }
+
+    /**
+     * Check if a metadata datastream is part of this projection
+     *
+     * @param name
+     *            the name of the metadata datastream, e.g.
+     *            <code>TECHNICAL</code>
+     * @return <code>true</code> if the metadata has to be read
+     */
+    public boolean includes(final String name) {
+        switch (name.toLowerCase(Locale.ENGLISH)) {
+        case DESCRIPTIVE:
+            return descriptive;
+        case TECHNICAL:
+            return technical;
+        case SOURCE:
+            return source;
+        case PROVENANCE:
+            return provenance;
+        case RIGHTS:
+            return rights;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Check if this projection contains the complete entity
+     *
+     * @return <code>true</code> if all the metadata is included
+     */
+    public boolean isFull() {
+        return descriptive && technical && source && provenance && rights;
+    }
+
+    /**
+     * Get a canonical representation of this projection, which can be used
+     * to distinguish the responses for different projections
+     *
+     * @return the parts of this projection separated by commas
+     */
+    public String getKey() {
+        final StringBuilder key = new StringBuilder(STRUCTURE);
+        for (String md : METADATA) {
+            if (includes(md)) {
+                key.append(',').append(md);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Remove the metadata which is not part of this projection from a
+     * complete {@link IntellectualEntity}, e.g. one served from the cache
+     *
+     * @param entity
+     *            the complete {@link IntellectualEntity}
+     * @return the projected {@link IntellectualEntity}
+     */
+    public IntellectualEntity apply(final IntellectualEntity entity) {
+        if (isFull()) {
+            return entity;
+        }
+        final IntellectualEntity.Builder ie = new IntellectualEntity.Builder(entity);
+        ie.descriptive(descriptive ? entity.getDescriptive() : null);
+        if (entity.getRepresentations() != null) {
+            final List<Representation> reps = new ArrayList<>(entity.getRepresentations().size());
+            for (Representation r : entity.getRepresentations()) {
+                reps.add(apply(r));
+            }
+            ie.representations(reps);
+        }
+        return ie.build();
+    }
+
+    /**
+     * Remove the metadata which is not part of this projection from a
+     * complete {@link Representation}
+     *
+     * @param representation
+     *            the complete {@link Representation}
+     * @return the projected {@link Representation}
+     */
+    public Representation apply(final Representation representation) {
+        if (isFull()) {
+            return representation;
+        }
+        final Representation.Builder rep = new Representation.Builder();
+        rep.identifier(representation.getIdentifier());
+        rep.title(representation.getTitle());
+        rep.technical(technical ? representation.getTechnical() : null);
+        rep.source(source ? representation.getSource() : null);
+        rep.provenance(provenance ? representation.getProvenance() : null);
+        rep.rights(rights ? representation.getRights() : null);
+        if (representation.getFiles() != null) {
+            final List<File> files = new ArrayList<>(representation.getFiles().size());
+            for (File f : representation.getFiles()) {
+                files.add(apply(f));
+            }
+            rep.files(files);
+        }
+        return rep.build();
+    }
+
+    private File apply(final File file) {
+        final File.Builder f = new File.Builder();
+        f.identifier(file.getIdentifier());
+        f.filename(file.getFilename());
+        f.mimetype(file.getMimetype());
+        f.uri(file.getUri());
+        f.technical(technical ? file.getTechnical() : null);
+        if (file.getBitStreams() != null) {
+            final List<BitStream> streams = new ArrayList<>(file.getBitStreams().size());
+            for (BitStream b : file.getBitStreams()) {
+                final BitStream.Builder bs = new BitStream.Builder();
+                bs.identifier(b.getIdentifier());
+                bs.technical(technical ? b.getTechnical() : null);
+                streams.add(bs.build());
+            }
+            f.bitStreams(streams);
+        }
+        return f.build();
+    }
+}
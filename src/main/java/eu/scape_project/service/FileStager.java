@@ -0,0 +1,391 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import eu.scape_project.util.PairtreeFileResolver;
+
+/**
+ * Downloads the binary content of the files of an entity concurrently into a
+ * local staging directory, so that the JCR writes which have to happen on the
+ * session's thread can read the content from local disk. The number of
+ * concurrent downloads is bounded globally by the size of the worker pool and
+ * for every single entity by the size of a {@link Batch}'s window.
+ * <p>
+ * Relative locations are resolved to local files if a
+ * {@link PairtreeFileResolver} is configured. Local files are not copied but checked when
+ * they are added to a {@link Batch} and read directly through a
+ * {@link FileChannel}
+ * </p>
+ *
+ * @author frank asseg
+ *
+ */
+public class FileStager {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileStager.class);
+
+    private final java.io.File stagingDirectory;
+
+    private final int maxDownloadsPerEntity;
+
+    private final ExecutorService executor;
+
+    private final PairtreeFileResolver pairtree;
+
+    /**
+     * Create a new {@link FileStager}
+     *
+     * @param stagingDirectory
+     *            the directory in which the downloaded files are kept
+     * @param maxDownloads
+     *            the maximum number of concurrent downloads in total
+     * @param maxDownloadsPerEntity
+     *            the maximum number of concurrent downloads for a single
+     *            entity
+     */
+    public FileStager(final java.io.File stagingDirectory, final int maxDownloads, final int maxDownloadsPerEntity) {
+        this(stagingDirectory, maxDownloads, maxDownloadsPerEntity, null);
+    }
+
+    /**
+     * Create a new {@link FileStager} resolving relative locations in a local
+     * pairtree
+     *
+     * @param stagingDirectory
+     *            the directory in which the downloaded files are kept
+     * @param maxDownloads
+     *            the maximum number of concurrent downloads in total
+     * @param maxDownloadsPerEntity
+     *            the maximum number of concurrent downloads for a single
+     *            entity
+     * @param pairtree
+     *            the {@link PairtreeFileResolver} used for relative
+     *            locations or <code>null</code> if relative locations are
+     *            rejected
+     */
+    public FileStager(final java.io.File stagingDirectory, final int maxDownloads, final int maxDownloadsPerEntity,
+            final PairtreeFileResolver pairtree) {
+        this.stagingDirectory = stagingDirectory;
+        this.pairtree = pairtree;
+        this.maxDownloadsPerEntity = Math.max(1, maxDownloadsPerEntity);
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, maxDownloads), new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread t = new Thread(r, "scape-file-stager-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Start staging the given {@link URI}s. URIs using the <code>file</code>
+     * scheme are not copied but read directly from their location
+     *
+     * @param uris
+     *            the {@link URI}s of the binary content to fetch
+     * @return a {@link Batch} which can be used to open the staged content
+     * @throws IOException
+     *             if a local file does not exist or can not be read
+     */
+    public Batch stage(final Collection<URI> uris) throws IOException {
+        return stage(null, uris);
+    }
+
+    /**
+     * Start staging the given {@link URI}s of an entity. Relative locations
+     * are resolved using the entity's id
+     *
+     * @param entityId
+     *            the id of the entity or <code>null</code> if it is not known
+     *            yet
+     * @param uris
+     *            the {@link URI}s of the binary content to fetch
+     * @return a {@link Batch} which can be used to open the staged content
+     * @throws IOException
+     *             if a local file does not exist or can not be read
+     */
+    public Batch stage(final String entityId, final Collection<URI> uris) throws IOException {
+        final Batch batch = new Batch();
+        batch.setEntityId(entityId);
+        try {
+            for (final URI uri : uris) {
+                batch.add(uri);
+            }
+        } catch (IOException e) {
+            batch.close();
+            throw e;
+        }
+        return batch;
+    }
+
+    /**
+     * Stop the worker pool
+     */
+    public void shutdown() {
+        /* the downloads which have never been started are cancelled, so that closing their batches does not wait for them */
+        for (Runnable r : this.executor.shutdownNow()) {
+            ((FutureTask<?>) r).cancel(false);
+        }
+    }
+
+    /**
+     * The set of staged files of a single entity ingest. A {@link Batch} must
+     * be closed after the ingest in order to remove the staged files
+     */
+    public class Batch implements AutoCloseable {
+
+        private final Map<URI, FutureTask<java.io.File>> downloads = new LinkedHashMap<>();
+
+        private final Queue<FutureTask<java.io.File>> pending = new LinkedList<>();
+
+        private final List<java.io.File> stagedFiles = new ArrayList<>();
+
+        /* the sizes of the local files as checked when they have been added */
+        private final Map<URI, Long> localFiles = new HashMap<>();
+
+        private String entityId;
+
+        private boolean closed = false;
+
+        private int active = 0;
+
+        /**
+         * Set the id of the entity used to resolve relative locations. A
+         * streaming ingest only knows the id once the document's header has
+         * been read
+         *
+         * @param entityId
+         *            the id of the entity
+         */
+        public synchronized void setEntityId(final String entityId) {
+            this.entityId = entityId;
+        }
+
+        /**
+         * Resolve the location of a file's content. Relative locations are
+         * mapped to the entity's directory in the pairtree
+         *
+         * @param uri
+         *            the location as given in the METS document
+         * @return the absolute {@link URI} of the content
+         * @throws IOException
+         *             if the location is relative and no pairtree is
+         *             configured, or if it points outside of the entity's
+         *             directory
+         */
+        public synchronized URI resolve(final URI uri) throws IOException {
+            if (uri.getScheme() != null) {
+                return uri;
+            }
+            if (pairtree == null || entityId == null) {
+                throw new IOException("Unable to resolve the relative location " + uri + " without a pairtree");
+            }
+            return pairtree.resolve(entityId, uri.getPath()).toURI();
+        }
+
+        /**
+         * Add a {@link URI} to this batch and start the download as soon as
+         * the entity's window permits. This allows an ingest to start staging
+         * content while it is still discovering the files of the entity. Local
+         * files are not downloaded, but checked right away so that a missing
+         * file fails the ingest before anything has been written
+         *
+         * @param uri
+         *            the {@link URI} of the binary content to fetch
+         * @throws IOException
+         *             if a local file does not exist or can not be read
+         */
+        public synchronized void add(final URI uri) throws IOException {
+            final URI resolved = resolve(uri);
+            if (closed || downloads.containsKey(resolved) || localFiles.containsKey(resolved)) {
+                return;
+            }
+            if ("file".equals(resolved.getScheme())) {
+                final java.io.File f = new java.io.File(resolved);
+                if (!f.isFile() || !f.canRead()) {
+                    throw new FileNotFoundException("Unable to read the local file " + f.getAbsolutePath());
+                }
+                localFiles.put(resolved, f.length());
+                return;
+            }
+            final FutureTask<java.io.File> download = createDownload(resolved);
+            downloads.put(resolved, download);
+            pending.add(download);
+            fillWindow();
+        }
+
+        private FutureTask<java.io.File> createDownload(final URI uri) {
+            return new FutureTask<java.io.File>(new Callable<java.io.File>() {
+
+                @Override
+                public java.io.File call() throws Exception {
+                    return download(uri);
+                }
+            }) {
+
+                /* called when the download has finished or has been cancelled before it started */
+                @Override
+                protected void done() {
+                    submitNext();
+                }
+            };
+        }
+
+        private java.io.File download(final URI uri) throws IOException {
+            final java.io.File target;
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("The batch has been closed before " + uri + " has been staged");
+                }
+                target = java.io.File.createTempFile("staged-", ".bin", stagingDirectory);
+                stagedFiles.add(target);
+            }
+            LOG.info("staging binary from {}", uri.toASCIIString());
+            try (final InputStream src = uri.toURL().openStream()) {
+                java.nio.file.Files.copy(src, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            synchronized (this) {
+                /* the batch has been closed without waiting for this download */
+                if (closed && !stagedFiles.contains(target)) {
+                    if (!target.delete()) {
+                        LOG.warn("Unable to delete staged file {}", target.getAbsolutePath());
+                    }
+                    throw new IOException("The batch has been closed while staging " + uri);
+                }
+            }
+            return target;
+        }
+
+        private synchronized void submitNext() {
+            active--;
+            if (!closed) {
+                fillWindow();
+            }
+            notifyAll();
+        }
+
+        private void fillWindow() {
+            while (active < maxDownloadsPerEntity && !pending.isEmpty()) {
+                active++;
+                executor.execute(pending.poll());
+            }
+        }
+
+        /**
+         * Open the binary content of a {@link URI}, waiting for the download
+         * to finish if the content is being staged
+         *
+         * @param uri
+         *            the {@link URI} of the binary content
+         * @return an {@link InputStream} serving the content
+         * @throws IOException
+         *             if the content could not be fetched
+         */
+        public InputStream open(final URI uri) throws IOException {
+            final URI resolved = resolve(uri);
+            final FutureTask<java.io.File> download;
+            final Long size;
+            synchronized (this) {
+                download = downloads.get(resolved);
+                size = localFiles.get(resolved);
+            }
+            if ("file".equals(resolved.getScheme())) {
+                return openLocal(resolved, size);
+            }
+            if (download == null) {
+                LOG.info("reading binary from {}", resolved.toASCIIString());
+                return resolved.toURL().openStream();
+            }
+            try {
+                return new FileInputStream(download.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while staging " + uri, e);
+            } catch (ExecutionException e) {
+                throw new IOException("Unable to fetch " + uri, e.getCause());
+            }
+        }
+
+        /* read a local file through its channel instead of a URL connection */
+        private InputStream openLocal(final URI uri, final Long size) throws IOException {
+            LOG.info("reading local binary from {}", uri.getPath());
+            final FileChannel channel = FileChannel.open(Paths.get(uri), StandardOpenOption.READ);
+            if (size != null && channel.size() != size) {
+                channel.close();
+                throw new IOException("The size of " + uri.getPath() + " has changed from " + size + " to " + channel.size() + " bytes");
+            }
+            return Channels.newInputStream(channel);
+        }
+
+        /**
+         * Drop all downloads which have not yet been started, wait for the
+         * running downloads to finish and delete the staged files
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                closed = true;
+                pending.clear();
+                /* a running download must not write into a file after it has been deleted */
+                while (active > 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        LOG.warn("Interrupted while waiting for {} running downloads", active);
+                        break;
+                    }
+                }
+                for (java.io.File f : stagedFiles) {
+                    if (f.exists() && !f.delete()) {
+                        LOG.warn("Unable to delete staged file {}", f.getAbsolutePath());
+                    }
+                }
+                stagedFiles.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only journal for the METS documents submitted for asynchronous
+ * ingest. A submission is written to the journal and synced to disk before
+ * it is acknowledged, so that it can be replayed if the service is stopped
+ * before the ingest has finished. Concurrent submissions share a single
+ * fsync: a thread which finds its record already synced by another thread
+ * returns without syncing again.
+ * <p>
+ * Every record starts with a magic number and a type. A submission consists
+ * of the entity's id, the length of the document, the document and a CRC32
+ * checksum. A finished ingest is recorded by a record containing only the
+ * id. The journal is truncated once no submission is pending anymore.
+ * </p>
+ *
+ * @author frank asseg
+ *
+ */
+public class IngestJournal implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestJournal.class);
+
+    private static final int MAGIC = 0x53434a31;
+
+    private static final byte SUBMITTED = 1;
+
+    private static final byte DONE = 2;
+
+    private final java.io.File file;
+
+    private final RandomAccessFile raf;
+
+    private final FileChannel channel;
+
+    /* the pending submissions keyed by the entity id */
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+
+    private final Object syncLock = new Object();
+
+    private long position;
+
+    /* the number of bytes ever appended and synced, not affected by truncation */
+    private long appended;
+
+    private long synced;
+
+    /**
+     * Open a journal file. The file is created if it does not exist
+     *
+     * @param file
+     *            the journal file
+     * @throws IOException
+     *             if the file could not be opened
+     */
+    public IngestJournal(final java.io.File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    /**
+     * Read the journal and collect the submissions which have not been
+     * finished. An incomplete or corrupt record at the end of the journal,
+     * e.g. from a crash while appending, is discarded
+     *
+     * @return the ids of the pending submissions in the order they have been
+     *         submitted
+     * @throws IOException
+     *             if the journal could not be read
+     */
+    public synchronized List<String> replay() throws IOException {
+        pending.clear();
+        long pos = 0;
+        final CountingInput in = new CountingInput(new BufferedInputStream(new FileInputStream(file)));
+        try (final DataInputStream data = new DataInputStream(in)) {
+            while (true) {
+                try {
+                    if (data.readInt() != MAGIC) {
+                        break;
+                    }
+                    final byte type = data.readByte();
+                    final String id = data.readUTF();
+                    if (type == SUBMITTED) {
+                        final long length = data.readLong();
+                        final long offset = in.count;
+                        final CRC32 crc = new CRC32();
+                        final byte[] buf = new byte[65536];
+                        long remaining = length;
+                        while (remaining > 0) {
+                            final int read = data.read(buf, 0, (int) Math.min(buf.length, remaining));
+                            if (read < 0) {
+                                throw new EOFException();
+                            }
+                            crc.update(buf, 0, read);
+                            remaining -= read;
+                        }
+                        if (data.readLong() != crc.getValue()) {
+                            break;
+                        }
+                        pending.put(id, new Entry(offset, length));
+                    } else if (type == DONE) {
+                        pending.remove(id);
+                    } else {
+                        break;
+                    }
+                    pos = in.count;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        if (pos < channel.size()) {
+            LOG.warn("Discarding {} bytes of an incomplete record at the end of {}", channel.size() - pos, file.getAbsolutePath());
+            channel.truncate(pos);
+        }
+        position = pos;
+        return new ArrayList<>(pending.keySet());
+    }
+
+    /**
+     * Append a submission to the journal and wait until it has been synced
+     * to disk
+     *
+     * @param id
+     *            the id of the entity
+     * @param document
+     *            a file containing the entity's METS representation
+     * @throws IOException
+     *             if the submission could not be written
+     */
+    public void append(final String id, final java.io.File document) throws IOException {
+        final long mark;
+        synchronized (this) {
+            final long start = position;
+            final long offset;
+            try {
+                final ByteArrayOutputStream header = new ByteArrayOutputStream();
+                final DataOutputStream out = new DataOutputStream(header);
+                out.writeInt(MAGIC);
+                out.writeByte(SUBMITTED);
+                out.writeUTF(id);
+                out.writeLong(document.length());
+                write(header.toByteArray(), 0, header.size());
+
+                offset = position;
+                final CRC32 crc = new CRC32();
+                try (final InputStream src = new FileInputStream(document)) {
+                    final byte[] buf = new byte[65536];
+                    int read;
+                    while ((read = src.read(buf)) > 0) {
+                        crc.update(buf, 0, read);
+                        write(buf, 0, read);
+                    }
+                }
+                write(ByteBuffer.allocate(8).putLong(0, crc.getValue()).array(), 0, 8);
+            } catch (IOException e) {
+                /* remove the partial record so that the following records stay readable */
+                channel.truncate(start);
+                position = start;
+                throw e;
+            }
+
+            pending.put(id, new Entry(offset, position - offset - 8));
+            appended += position - start;
+            mark = appended;
+        }
+        sync(mark);
+    }
+
+    /**
+     * Check if a submission is pending
+     *
+     * @param id
+     *            the id of the entity
+     * @return <code>true</code> if the submission has not been finished
+     */
+    public synchronized boolean contains(final String id) {
+        return pending.containsKey(id);
+    }
+
+    /**
+     * Open the METS document of a pending submission
+     *
+     * @param id
+     *            the id of the entity
+     * @return an {@link InputStream} serving the submitted document
+     * @throws IOException
+     *             if the submission does not exist
+     */
+    public synchronized InputStream open(final String id) throws IOException {
+        final Entry entry = pending.get(id);
+        if (entry == null) {
+            throw new IOException("No pending submission for " + id);
+        }
+        return new EntryInputStream(entry);
+    }
+
+    /**
+     * Mark a submission as finished. The journal is truncated if no other
+     * submission is pending
+     *
+     * @param id
+     *            the id of the entity
+     * @throws IOException
+     *             if the journal could not be written
+     */
+    public synchronized void done(final String id) throws IOException {
+        if (pending.remove(id) == null) {
+            return;
+        }
+        if (pending.isEmpty()) {
+            channel.truncate(0);
+            position = 0;
+            return;
+        }
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(MAGIC);
+        out.writeByte(DONE);
+        out.writeUTF(id);
+        final long start = position;
+        write(record.toByteArray(), 0, record.size());
+        appended += position - start;
+    }
+
+    /**
+     * Get the number of pending submissions
+     *
+     * @return the number of submissions
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (syncLock) {
+            channel.force(false);
+        }
+        raf.close();
+    }
+
+    private void sync(final long mark) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= mark) {
+                /* another thread's sync has already covered this record */
+                return;
+            }
+            final long target;
+            synchronized (this) {
+                target = appended;
+            }
+            channel.force(false);
+            synced = target;
+        }
+    }
+
+    private void write(final byte[] buf, final int off, final int len) throws IOException {
+        final ByteBuffer data = ByteBuffer.wrap(buf, off, len);
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private static class Entry {
+
+        private final long offset;
+
+        private final long length;
+
+        private Entry(final long offset, final long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private class EntryInputStream extends InputStream {
+
+        private long pos;
+
+        private final long end;
+
+        private EntryInputStream(final Entry entry) {
+            this.pos = entry.offset;
+            this.end = entry.offset + entry.length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= end) {
+                return -1;
+            }
+            final int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - pos)), pos);
+            if (read > 0) {
+                pos += read;
+            }
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, end - pos);
+        }
+    }
+
+    private static class CountingInput extends java.io.FilterInputStream {
+
+        private long count;
+
+        private CountingInput(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = in.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
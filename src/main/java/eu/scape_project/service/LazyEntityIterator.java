@@ -0,0 +1,90 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.util.Iterator;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+
+import eu.scape_project.model.IntellectualEntity;
+
+/**
+ * Hands out a list of {@link IntellectualEntity}s in the order of the list,
+ * loading each entity on the consumer's thread only when it is requested, so
+ * that at most one entity is held in memory and the {@link Loader} may use a
+ * session bound to that thread
+ *
+ * @author frank asseg
+ *
+ */
+public class LazyEntityIterator {
+
+    /**
+     * Loads a single {@link IntellectualEntity}
+     */
+    public interface Loader {
+
+        /**
+         * Load an {@link IntellectualEntity}
+         *
+         * @param id
+         *            the id of the entity
+         * @return the {@link IntellectualEntity}
+         * @throws RepositoryException
+         *             if the entity could not be loaded
+         */
+        IntellectualEntity load(String id) throws RepositoryException;
+    }
+
+    private final Loader loader;
+
+    private final Iterator<String> ids;
+
+    /**
+     * Create a new {@link LazyEntityIterator}
+     *
+     * @param loader
+     *            the {@link Loader} fetching a single entity
+     * @param ids
+     *            the ids of the entities in the order they are handed out
+     */
+    public LazyEntityIterator(final Loader loader, final List<String> ids) {
+        this.loader = loader;
+        this.ids = ids.iterator();
+    }
+
+    /**
+     * Check if there are more entities to hand out
+     *
+     * @return <code>true</code> if there are more entities
+     */
+    public boolean hasNext() {
+        return ids.hasNext();
+    }
+
+    /**
+     * Load the next {@link IntellectualEntity} of the list
+     *
+     * @return the next {@link IntellectualEntity}
+     * @throws RepositoryException
+     *             if the entity could not be loaded
+     */
+    public IntellectualEntity next() throws RepositoryException {
+        if (!ids.hasNext()) {
+            throw new IllegalStateException("No more entities to load");
+        }
+        return loader.load(ids.next());
+    }
+}
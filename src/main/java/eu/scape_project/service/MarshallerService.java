@@ -0,0 +1,214 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+import org.purl.dc.elements._1.ElementContainer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.books.gbs.GbsType;
+
+import edu.harvard.hul.ois.xml.ns.fits.fits_output.Fits;
+import eu.scape_project.util.ScapeMarshaller;
+import gov.loc.audiomd.AudioType;
+import gov.loc.marc21.slim.RecordType;
+import gov.loc.mix.v20.Mix;
+import gov.loc.videomd.VideoType;
+import info.lc.xmlns.premis_v2.PremisComplexType;
+import info.lc.xmlns.premis_v2.RightsComplexType;
+import info.lc.xmlns.textmd_v3.TextMD;
+
+/**
+ * Singleton service handing out the marshallers of the connector. The
+ * metadata records are marshalled using a single JAX-B context shared by all
+ * threads, while the Marshaller and Unmarshaller created from it are not
+ * thread safe and are therefore kept per thread. A {@link ScapeMarshaller}
+ * creates its own JAX-B context which can not be shared, so one
+ * {@link ScapeMarshaller} is kept per thread for the METS documents and is
+ * only created by the threads actually (de)serializing them
+ *
+ * @author frank asseg
+ *
+ */
+public class MarshallerService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MarshallerService.class);
+
+    /* the root elements of the supported metadata records */
+    private static final Class<?>[] METADATA_CLASSES = new Class<?>[] { ElementContainer.class, GbsType.class, Fits.class,
+            AudioType.class, RecordType.class, Mix.class, VideoType.class, PremisComplexType.class, RightsComplexType.class,
+            TextMD.class };
+
+    private final ThreadLocal<ScapeMarshaller> marshallers = new ThreadLocal<>();
+
+    private final ThreadLocal<Marshaller> metadataMarshallers = new ThreadLocal<>();
+
+    private final ThreadLocal<Unmarshaller> metadataUnmarshallers = new ThreadLocal<>();
+
+    private volatile JAXBContext metadataContext;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong contextsCreated = new AtomicLong();
+
+    private final AtomicLong contextCreationTime = new AtomicLong();
+
+    /**
+     * Get the {@link ScapeMarshaller} bound to the current thread, creating
+     * it if the thread has not used one before
+     *
+     * @return a {@link ScapeMarshaller} which may only be used by the calling
+     *         thread
+     * @throws JAXBException
+     *             if the JAX-B context could not be created
+     */
+    public ScapeMarshaller getMarshaller() throws JAXBException {
+        ScapeMarshaller marshaller = marshallers.get();
+        if (marshaller != null) {
+            hits.incrementAndGet();
+            return marshaller;
+        }
+        final long start = System.nanoTime();
+        marshaller = ScapeMarshaller.newInstance();
+        final long elapsed = System.nanoTime() - start;
+        contextsCreated.incrementAndGet();
+        contextCreationTime.addAndGet(elapsed);
+        LOG.debug("created JAX-B context for thread {} in {} ms", Thread.currentThread().getName(), elapsed / 1000000);
+        marshallers.set(marshaller);
+        return marshaller;
+    }
+
+    /**
+     * Get the JAX-B Marshaller for metadata records bound to the current
+     * thread. The Marshaller is created from the shared metadata context
+     *
+     * @return a Marshaller which may only be used by the calling thread
+     * @throws JAXBException
+     *             if the Marshaller could not be created
+     */
+    public Marshaller getMetadataMarshaller() throws JAXBException {
+        Marshaller marshaller = metadataMarshallers.get();
+        if (marshaller != null) {
+            hits.incrementAndGet();
+            return marshaller;
+        }
+        marshaller = getMetadataContext().createMarshaller();
+        metadataMarshallers.set(marshaller);
+        return marshaller;
+    }
+
+    /**
+     * Get the JAX-B Unmarshaller for metadata records bound to the current
+     * thread. The Unmarshaller is created from the shared metadata context
+     *
+     * @return an Unmarshaller which may only be used by the calling thread
+     * @throws JAXBException
+     *             if the Unmarshaller could not be created
+     */
+    public Unmarshaller getMetadataUnmarshaller() throws JAXBException {
+        Unmarshaller unmarshaller = metadataUnmarshallers.get();
+        if (unmarshaller != null) {
+            hits.incrementAndGet();
+            return unmarshaller;
+        }
+        unmarshaller = getMetadataContext().createUnmarshaller();
+        metadataUnmarshallers.set(unmarshaller);
+        return unmarshaller;
+    }
+
+    /**
+     * Marshal a metadata record
+     *
+     * @param metadata
+     *            the metadata record, e.g. an {@link ElementContainer}
+     * @param sink
+     *            the {@link OutputStream} the XML document is written to
+     * @throws JAXBException
+     *             if the record could not be marshalled
+     */
+    public void serializeMetadata(final Object metadata, final OutputStream sink) throws JAXBException {
+        getMetadataMarshaller().marshal(metadata, sink);
+    }
+
+    /**
+     * Unmarshal a metadata record
+     *
+     * @param src
+     *            the {@link InputStream} containing the XML document
+     * @return the metadata record, e.g. an {@link ElementContainer}
+     * @throws JAXBException
+     *             if the record could not be unmarshalled
+     */
+    public Object deserializeMetadata(final InputStream src) throws JAXBException {
+        return JAXBIntrospector.getValue(getMetadataUnmarshaller().unmarshal(src));
+    }
+
+    /* the metadata context is created once by the first thread needing it */
+    private JAXBContext getMetadataContext() throws JAXBException {
+        JAXBContext context = metadataContext;
+        if (context == null) {
+            synchronized (this) {
+                context = metadataContext;
+                if (context == null) {
+                    final long start = System.nanoTime();
+                    context = JAXBContext.newInstance(METADATA_CLASSES);
+                    final long elapsed = System.nanoTime() - start;
+                    contextsCreated.incrementAndGet();
+                    contextCreationTime.addAndGet(elapsed);
+                    LOG.debug("created shared JAX-B context for the metadata in {} ms", elapsed / 1000000);
+                    metadataContext = context;
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Get the number of requests that have been served by an already
+     * existing {@link ScapeMarshaller}, Marshaller or Unmarshaller
+     *
+     * @return the number of pool hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of JAX-B contexts that have been created
+     *
+     * @return the number of created contexts
+     */
+    public long getContextsCreated() {
+        return contextsCreated.get();
+    }
+
+    /**
+     * Get the accumulated time spent creating JAX-B contexts
+     *
+     * @return the context creation time in milliseconds
+     */
+    public long getContextCreationTime() {
+        return contextCreationTime.get() / 1000000;
+    }
+}
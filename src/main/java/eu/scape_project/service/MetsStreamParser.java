@@ -0,0 +1,685 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A StAX based reader for METS documents which reports the parts of an
+ * intellectual entity to a {@link Handler} while the document is being read,
+ * instead of building the complete object graph in memory.
+ * <p>
+ * The metadata sections are copied verbatim into a spool file, so that only a
+ * small index entry per section is kept in memory. Since the METS schema
+ * requires the administrative metadata and the file section to precede the
+ * structural maps, every representation can be reported completely as soon as
+ * its <code>div</code> element has been read.
+ * </p>
+ *
+ * @author frank asseg
+ *
+ */
+public class MetsStreamParser implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetsStreamParser.class);
+
+    public static final String METS_NAMESPACE = "http://www.loc.gov/METS/";
+
+    private static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newInstance();
+
+    private static final XMLEventFactory EVENT_FACTORY = XMLEventFactory.newInstance();
+
+    static {
+        INPUT_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    /**
+     * The role of a metadata section as defined by its METS element
+     */
+    public enum Kind {
+        DESCRIPTIVE, TECHNICAL, SOURCE, RIGHTS, PROVENANCE
+    }
+
+    private final InputStream src;
+
+    private final java.io.File spoolFile;
+
+    private final CountingOutputStream spool;
+
+    private RandomAccessFile spoolReader;
+
+    /* the namespaces declared on the currently open elements */
+    private final Deque<List<Namespace>> namespaces = new ArrayDeque<>();
+
+    private final Map<String, MetadataSection> sections = new HashMap<>();
+
+    private final Map<String, FileSection> files = new LinkedHashMap<>();
+
+    /* the ids of the representations reported so far */
+    private final Set<String> representations = new HashSet<>();
+
+    /**
+     * Create a new {@link MetsStreamParser}
+     *
+     * @param src
+     *            the {@link InputStream} serving the METS document
+     * @param spoolDirectory
+     *            the directory used for the spooled metadata. If
+     *            <code>null</code> the default temporary directory is used
+     * @throws IOException
+     *             if the spool file could not be created
+     */
+    public MetsStreamParser(final InputStream src, final java.io.File spoolDirectory) throws IOException {
+        this.src = src;
+        this.spoolFile = java.io.File.createTempFile("mets-", ".spool", spoolDirectory);
+        this.spool = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(spoolFile)));
+    }
+
+    /**
+     * Read the METS document and report its parts to a {@link Handler}
+     *
+     * @param handler
+     *            the {@link Handler} receiving the parts of the entity
+     * @throws XMLStreamException
+     *             if the document could not be parsed
+     * @throws IOException
+     *             if the metadata could not be spooled
+     * @throws RepositoryException
+     *             if the {@link Handler} failed
+     */
+    public void parse(final Handler handler) throws XMLStreamException, IOException, RepositoryException {
+        final XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(src);
+        try {
+            Kind kind = null;
+            String sectionId = null;
+            boolean descriptiveSeen = false;
+            FileSection file = null;
+            RepresentationSection rep = null;
+            int structMaps = 0;
+            boolean inStructMap = false;
+            int divDepth = 0;
+
+            while (reader.hasNext()) {
+                final XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    final StartElement start = event.asStartElement();
+                    pushNamespaces(start);
+                    if (!METS_NAMESPACE.equals(start.getName().getNamespaceURI())) {
+                        continue;
+                    }
+                    final String name = start.getName().getLocalPart();
+                    if (name.equals("mets")) {
+                        final String id = attribute(start, "OBJID");
+                        handler.startEntity(id != null ? id : attribute(start, "ID"));
+                    } else if (name.equals("dmdSec")) {
+                        kind = Kind.DESCRIPTIVE;
+                        sectionId = attribute(start, "ID");
+                    } else if (name.equals("techMD")) {
+                        kind = Kind.TECHNICAL;
+                        sectionId = attribute(start, "ID");
+                    } else if (name.equals("sourceMD")) {
+                        kind = Kind.SOURCE;
+                        sectionId = attribute(start, "ID");
+                    } else if (name.equals("rightsMD")) {
+                        kind = Kind.RIGHTS;
+                        sectionId = attribute(start, "ID");
+                    } else if (name.equals("digiprovMD")) {
+                        kind = Kind.PROVENANCE;
+                        sectionId = attribute(start, "ID");
+                    } else if (name.equals("xmlData") && kind != null) {
+                        final MetadataSection md = spoolXmlData(reader, kind);
+                        namespaces.pop();
+                        if (md == null) {
+                            continue;
+                        }
+                        if (kind == Kind.DESCRIPTIVE && !descriptiveSeen) {
+                            descriptiveSeen = true;
+                            handler.descriptive(md);
+                        }
+                        if (sectionId != null) {
+                            sections.put(sectionId, md);
+                        }
+                    } else if (name.equals("file") && structMaps == 0) {
+                        file = new FileSection(attribute(start, "ID"), attribute(start, "MIMETYPE"), findSection(attribute(start, "ADMID"),
+                                Kind.TECHNICAL));
+                    } else if (name.equals("FLocat") && file != null) {
+                        final Attribute href = start.getAttributeByName(new QName(XLINK_NAMESPACE, "href"));
+                        if (href != null && file.uri == null) {
+                            file.uri = URI.create(href.getValue());
+                            file.title = attribute(start, "TITLE");
+                        }
+                    } else if (name.equals("stream") && file != null) {
+                        file.streams.add(new StreamSection(attribute(start, "ID"), attribute(start, "streamType"), findSection(attribute(
+                                start, "ADMID"), Kind.TECHNICAL)));
+                    } else if (name.equals("structMap")) {
+                        structMaps++;
+                        inStructMap = true;
+                        divDepth = 0;
+                    } else if (name.equals("div") && inStructMap) {
+                        divDepth++;
+                        if (divDepth == 2) {
+                            final String repId = attribute(start, "ID");
+                            if (repId != null && !representations.add(repId)) {
+                                /* a representation may be listed in more than one structural map */
+                                LOG.debug("Skipping representation {} which has already been read", repId);
+                                continue;
+                            }
+                            rep = new RepresentationSection(repId, attribute(start, "LABEL"));
+                            for (String admId : ids(attribute(start, "ADMID"))) {
+                                rep.addMetadata(sections.get(admId));
+                            }
+                        }
+                    } else if (name.equals("fptr") && rep != null) {
+                        final FileSection f = files.get(attribute(start, "FILEID"));
+                        if (f == null) {
+                            throw new XMLStreamException("Unknown file " + attribute(start, "FILEID"), start.getLocation());
+                        }
+                        rep.files.add(f);
+                    }
+                } else if (event.isEndElement()) {
+                    namespaces.pop();
+                    if (!METS_NAMESPACE.equals(event.asEndElement().getName().getNamespaceURI())) {
+                        continue;
+                    }
+                    final String name = event.asEndElement().getName().getLocalPart();
+                    if (name.equals("dmdSec") || name.equals("techMD") || name.equals("sourceMD") || name.equals("rightsMD")
+                            || name.equals("digiprovMD")) {
+                        kind = null;
+                        sectionId = null;
+                    } else if (name.equals("file") && file != null) {
+                        if (file.uri == null) {
+                            throw new XMLStreamException("File " + file.id + " has no location", event.getLocation());
+                        }
+                        files.put(file.id, file);
+                        handler.fileDeclared(file);
+                        file = null;
+                    } else if (name.equals("div") && inStructMap) {
+                        if (divDepth == 2 && rep != null) {
+                            handler.representation(rep);
+                            rep = null;
+                        }
+                        divDepth--;
+                    } else if (name.equals("structMap")) {
+                        inStructMap = false;
+                    } else if (name.equals("mets")) {
+                        handler.endEntity();
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Read the id of an entity from the root element of a METS document
+     * without reading the rest of the document
+     *
+     * @param src
+     *            the {@link InputStream} serving the METS document
+     * @return the <code>OBJID</code> or <code>ID</code> of the root element or
+     *         <code>null</code> if the document does not contain an id
+     * @throws XMLStreamException
+     *             if the document could not be parsed
+     */
+    public static String readObjectId(final InputStream src) throws XMLStreamException {
+        final XMLEventReader reader = INPUT_FACTORY.createXMLEventReader(src);
+        try {
+            while (reader.hasNext()) {
+                final XMLEvent event = reader.nextEvent();
+                if (event.isStartElement()) {
+                    final String id = attribute(event.asStartElement(), "OBJID");
+                    return (id != null) ? id : attribute(event.asStartElement(), "ID");
+                }
+            }
+            return null;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Delete the spooled metadata
+     */
+    @Override
+    public void close() {
+        try {
+            spool.close();
+            if (spoolReader != null) {
+                spoolReader.close();
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to close the METS spool", e);
+        }
+        if (!spoolFile.delete()) {
+            LOG.warn("Unable to delete METS spool {}", spoolFile.getAbsolutePath());
+        }
+    }
+
+    private MetadataSection spoolXmlData(final XMLEventReader reader, final Kind kind) throws XMLStreamException, IOException {
+        MetadataSection md = null;
+        while (reader.hasNext()) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isEndElement()) {
+                /* the end of the xmlData element */
+                return md;
+            }
+            if (!event.isStartElement()) {
+                continue;
+            }
+            if (md == null) {
+                md = copyElement(reader, event.asStartElement(), kind);
+            } else {
+                LOG.warn("Ignoring additional metadata element {} in section", event.asStartElement().getName());
+                skipElement(reader);
+            }
+        }
+        throw new XMLStreamException("Unexpected end of METS document");
+    }
+
+    private MetadataSection copyElement(final XMLEventReader reader, final StartElement start, final Kind kind) throws XMLStreamException,
+            IOException {
+        final long offset = spool.count;
+        final XMLEventWriter writer = OUTPUT_FACTORY.createXMLEventWriter(spool, "UTF-8");
+        writer.add(EVENT_FACTORY.createStartDocument("UTF-8", "1.0"));
+
+        /* redeclare all the namespaces in scope, since attribute values may use them as well */
+        final Map<String, Namespace> inScope = new LinkedHashMap<>();
+        final Iterator<List<Namespace>> it = namespaces.descendingIterator();
+        while (it.hasNext()) {
+            for (Namespace ns : it.next()) {
+                inScope.put(ns.getPrefix(), ns);
+            }
+        }
+        @SuppressWarnings("unchecked")
+        final Iterator<Namespace> declared = start.getNamespaces();
+        while (declared.hasNext()) {
+            final Namespace ns = declared.next();
+            inScope.put(ns.getPrefix(), ns);
+        }
+        writer.add(EVENT_FACTORY.createStartElement(start.getName(), start.getAttributes(), inScope.values().iterator()));
+
+        int depth = 1;
+        while (depth > 0) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+            writer.add(event);
+        }
+        writer.add(EVENT_FACTORY.createEndDocument());
+        writer.close();
+        spool.flush();
+        return new MetadataSection(kind, start.getName(), offset, spool.count - offset);
+    }
+
+    private void skipElement(final XMLEventReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            final XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        }
+    }
+
+    private void pushNamespaces(final StartElement start) {
+        final List<Namespace> declared = new ArrayList<>(0);
+        @SuppressWarnings("unchecked")
+        final Iterator<Namespace> it = start.getNamespaces();
+        while (it.hasNext()) {
+            declared.add(it.next());
+        }
+        namespaces.push(declared);
+    }
+
+    private MetadataSection findSection(final String admIds, final Kind kind) {
+        for (String id : ids(admIds)) {
+            final MetadataSection md = sections.get(id);
+            if (md != null && md.kind == kind) {
+                return md;
+            }
+        }
+        return null;
+    }
+
+    private static String[] ids(final String admIds) {
+        if (admIds == null || admIds.trim().isEmpty()) {
+            return new String[0];
+        }
+        return admIds.trim().split("\\s+");
+    }
+
+    private static String attribute(final StartElement start, final String name) {
+        final Attribute attr = start.getAttributeByName(new QName(XMLConstants.NULL_NS_URI, name));
+        return (attr == null) ? null : attr.getValue();
+    }
+
+    private synchronized void copySpool(final long offset, final long length, final OutputStream sink) throws IOException {
+        spool.flush();
+        if (spoolReader == null) {
+            spoolReader = new RandomAccessFile(spoolFile, "r");
+        }
+        spoolReader.seek(offset);
+        final byte[] buf = new byte[8192];
+        long remaining = length;
+        while (remaining > 0) {
+            final int read = spoolReader.read(buf, 0, (int) Math.min(buf.length, remaining));
+            if (read < 0) {
+                throw new IOException("Unexpected end of METS spool");
+            }
+            sink.write(buf, 0, read);
+            remaining -= read;
+        }
+    }
+
+    /**
+     * Receives the parts of an entity while a METS document is read
+     */
+    public interface Handler {
+
+        /**
+         * Called when the root element has been read
+         *
+         * @param id
+         *            the entity's id or <code>null</code> if the document
+         *            does not contain an id
+         * @throws RepositoryException
+         *             if the entity could not be created
+         */
+        void startEntity(String id) throws RepositoryException;
+
+        /**
+         * Called for the first descriptive metadata section
+         *
+         * @param md
+         *            the descriptive metadata
+         * @throws RepositoryException
+         *             if the metadata could not be saved
+         */
+        void descriptive(MetadataSection md) throws RepositoryException;
+
+        /**
+         * Called for every file in the file section. The file has not yet
+         * been assigned to a representation
+         *
+         * @param file
+         *            the declared file
+         * @throws RepositoryException
+         *             if the file could not be processed
+         */
+        void fileDeclared(FileSection file) throws RepositoryException;
+
+        /**
+         * Called for every representation in the structural map
+         *
+         * @param rep
+         *            the representation and its files
+         * @throws RepositoryException
+         *             if the representation could not be saved
+         */
+        void representation(RepresentationSection rep) throws RepositoryException;
+
+        /**
+         * Called when the whole document has been read
+         *
+         * @throws RepositoryException
+         *             if the entity could not be completed
+         */
+        void endEntity() throws RepositoryException;
+    }
+
+    /**
+     * A metadata section spooled by the parser
+     */
+    public class MetadataSection {
+
+        private final Kind kind;
+
+        private final QName element;
+
+        private final long offset;
+
+        private final long length;
+
+        private MetadataSection(final Kind kind, final QName element, final long offset, final long length) {
+            this.kind = kind;
+            this.element = element;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Get the name of the metadata's root element
+         *
+         * @return the qualified name of the root element
+         */
+        public QName getElement() {
+            return element;
+        }
+
+        /**
+         * Write the metadata as a standalone XML document
+         *
+         * @param sink
+         *            the {@link OutputStream} to write to
+         * @throws IOException
+         *             if the metadata could not be read from the spool
+         */
+        public void writeTo(final OutputStream sink) throws IOException {
+            copySpool(offset, length, sink);
+        }
+    }
+
+    /**
+     * A file declared in the METS file section
+     */
+    public static class FileSection {
+
+        private final String id;
+
+        private final String mimetype;
+
+        private final MetadataSection technical;
+
+        private final List<StreamSection> streams = new ArrayList<>(0);
+
+        private URI uri;
+
+        private String title;
+
+        private FileSection(final String id, final String mimetype, final MetadataSection technical) {
+            this.id = id;
+            this.mimetype = mimetype;
+            this.technical = technical;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getMimetype() {
+            return mimetype;
+        }
+
+        public MetadataSection getTechnical() {
+            return technical;
+        }
+
+        public List<StreamSection> getStreams() {
+            return streams;
+        }
+
+        public URI getUri() {
+            return uri;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+    }
+
+    /**
+     * A bit stream of a file
+     */
+    public static class StreamSection {
+
+        private final String id;
+
+        private final String type;
+
+        private final MetadataSection technical;
+
+        private StreamSection(final String id, final String type, final MetadataSection technical) {
+            this.id = id;
+            this.type = type;
+            this.technical = technical;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Get the type of the bit stream
+         *
+         * @return the value of the <code>streamType</code> attribute or
+         *         <code>null</code> if the stream has no type
+         */
+        public String getType() {
+            return type;
+        }
+
+        public MetadataSection getTechnical() {
+            return technical;
+        }
+    }
+
+    /**
+     * A representation read from the structural map
+     */
+    public static class RepresentationSection {
+
+        private final String id;
+
+        private final String title;
+
+        private final Map<Kind, MetadataSection> metadata = new HashMap<>();
+
+        private final List<FileSection> files = new ArrayList<>();
+
+        private RepresentationSection(final String id, final String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+        private void addMetadata(final MetadataSection md) {
+            if (md != null && !metadata.containsKey(md.kind)) {
+                metadata.put(md.kind, md);
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * Get the representation's metadata of a given {@link Kind}
+         *
+         * @param kind
+         *            the {@link Kind} of the metadata
+         * @return the {@link MetadataSection} or <code>null</code> if the
+         *         representation has no such metadata
+         */
+        public MetadataSection getMetadata(final Kind kind) {
+            return metadata.get(kind);
+        }
+
+        public List<FileSection> getFiles() {
+            return files;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
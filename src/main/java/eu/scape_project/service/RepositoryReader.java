@@ -0,0 +1,114 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import javax.jcr.Node;
+import javax.jcr.PathNotFoundException;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.kernel.Datastream;
+import org.fcrepo.kernel.FedoraResource;
+import org.fcrepo.kernel.impl.DatastreamImpl;
+import org.fcrepo.kernel.services.NodeService;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Read only access to the objects and datastreams in Fedora. In contrast to
+ * the find-or-create methods of Fedora's object and datastream services the
+ * lookups never create a node, so that a request for a missing object fails
+ * fast with a {@link PathNotFoundException}, which is mapped to a HTTP 404
+ * response, and read requests neither take write locks nor leave changes in
+ * the session. All the lookups work on a session without write permissions
+ *
+ * @author frank asseg
+ *
+ */
+public class RepositoryReader {
+
+    @Autowired
+    private NodeService nodeService;
+
+    /**
+     * Check if a node exists
+     *
+     * @param session
+     *            the {@link Session} to use for the lookup
+     * @param path
+     *            the path of the node
+     * @return <code>true</code> if the node exists
+     * @throws RepositoryException
+     *             if the path could not be checked
+     */
+    public boolean exists(final Session session, final String path) throws RepositoryException {
+        return session.nodeExists(path);
+    }
+
+    /**
+     * Get an existing node
+     *
+     * @param session
+     *            the {@link Session} to use for the lookup
+     * @param path
+     *            the path of the node
+     * @return the {@link Node}
+     * @throws PathNotFoundException
+     *             if the node does not exist
+     * @throws RepositoryException
+     *             if the node could not be read
+     */
+    public Node getNode(final Session session, final String path) throws RepositoryException {
+        if (!session.nodeExists(path)) {
+            throw new PathNotFoundException("No object found at " + path);
+        }
+        return session.getNode(path);
+    }
+
+    /**
+     * Get an existing object
+     *
+     * @param session
+     *            the {@link Session} to use for the lookup
+     * @param path
+     *            the path of the object
+     * @return the {@link FedoraResource}
+     * @throws PathNotFoundException
+     *             if the object does not exist
+     * @throws RepositoryException
+     *             if the object could not be read
+     */
+    public FedoraResource getResource(final Session session, final String path) throws RepositoryException {
+        if (!session.nodeExists(path)) {
+            throw new PathNotFoundException("No object found at " + path);
+        }
+        return this.nodeService.getObject(session, path);
+    }
+
+    /**
+     * Get an existing datastream
+     *
+     * @param session
+     *            the {@link Session} to use for the lookup
+     * @param path
+     *            the path of the datastream
+     * @return the {@link Datastream}
+     * @throws PathNotFoundException
+     *             if the datastream does not exist
+     * @throws RepositoryException
+     *             if the datastream could not be read
+     */
+    public Datastream getDatastream(final Session session, final String path) throws RepositoryException {
+        return new DatastreamImpl(getNode(session, path));
+    }
+}
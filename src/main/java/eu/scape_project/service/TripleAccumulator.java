@@ -0,0 +1,131 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import static eu.scape_project.rdf.ScapeRDFVocabulary.SCAPE_NAMESPACE;
+
+import javax.jcr.RepositoryException;
+
+import org.fcrepo.kernel.FedoraResource;
+import org.fcrepo.kernel.rdf.IdentifierTranslator;
+
+/**
+ * Collects the triples of all the objects written during a single ingest or
+ * update, so that they can be applied to the repository using one SPARQL
+ * update instead of one update per object
+ *
+ * @author frank asseg
+ *
+ */
+public class TripleAccumulator {
+
+    private final StringBuilder triples = new StringBuilder();
+
+    private int size;
+
+    /**
+     * Add a triple with a literal object
+     *
+     * @param subjectUri
+     *            the URI of the subject
+     * @param predicate
+     *            the predicate, either prefixed (e.g. <code>scape:hasType</code>)
+     *            or an URI enclosed in angle brackets
+     * @param value
+     *            the literal value
+     * @return this {@link TripleAccumulator}
+     */
+    public TripleAccumulator addLiteral(final String subjectUri, final String predicate, final String value) {
+        triples.append('<').append(subjectUri).append("> ").append(predicate).append(" \"");
+        escape(String.valueOf(value));
+        triples.append("\" . ");
+        size++;
+        return this;
+    }
+
+    /**
+     * Add a triple with a resource object
+     *
+     * @param subjectUri
+     *            the URI of the subject
+     * @param predicate
+     *            the predicate, either prefixed (e.g. <code>scape:hasType</code>)
+     *            or an URI enclosed in angle brackets
+     * @param objectUri
+     *            the URI of the object
+     * @return this {@link TripleAccumulator}
+     */
+    public TripleAccumulator addResource(final String subjectUri, final String predicate, final String objectUri) {
+        triples.append('<').append(subjectUri).append("> ").append(predicate).append(" <").append(objectUri).append("> . ");
+        size++;
+        return this;
+    }
+
+    /**
+     * Get the number of collected triples
+     *
+     * @return the number of triples
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Create a single SPARQL update inserting all the collected triples
+     *
+     * @return the SPARQL update
+     */
+    public String toSparql() {
+        return "PREFIX scape: <" + SCAPE_NAMESPACE + "> INSERT DATA { " + triples + "}";
+    }
+
+    /**
+     * Write all the collected triples to the repository in one update
+     *
+     * @param resource
+     *            the {@link FedoraResource} used to execute the update
+     * @param subjects
+     *            the {@link IdentifierTranslator} mapping the subjects to
+     *            repository paths
+     * @throws RepositoryException
+     *             if the update failed
+     */
+    public void apply(final FedoraResource resource, final IdentifierTranslator subjects) throws RepositoryException {
+        if (size > 0) {
+            resource.updatePropertiesDataset(subjects, toSparql());
+        }
+    }
+
+    private void escape(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                triples.append("\\\"");
+                break;
+            case '\\':
+                triples.append("\\\\");
+                break;
+            case '\n':
+                triples.append("\\n");
+                break;
+            case '\r':
+                triples.append("\\r");
+                break;
+            default:
+                triples.append(c);
+            }
+        }
+    }
+}
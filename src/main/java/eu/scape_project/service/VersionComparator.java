@@ -0,0 +1,160 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.jcr.RepositoryException;
+import javax.xml.bind.JAXBException;
+
+import eu.scape_project.model.BitStream;
+import eu.scape_project.model.File;
+import eu.scape_project.model.Representation;
+
+/**
+ * Compares the {@link Representation}s and {@link File}s of an updated
+ * entity with the ones of the previous version, so that unchanged objects can
+ * be shared between the versions instead of being written again. Metadata is
+ * compared by its marshalled XML, since the metadata classes do not implement
+ * <code>equals()</code>. Only the properties which are read back when an
+ * entity is fetched are compared
+ *
+ * @author frank asseg
+ *
+ */
+public class VersionComparator {
+
+    private final MarshallerService marshallerService;
+
+    /**
+     * Create a new {@link VersionComparator}
+     *
+     * @param marshallerService
+     *            the {@link MarshallerService} used to marshal the metadata
+     */
+    public VersionComparator(final MarshallerService marshallerService) {
+        this.marshallerService = marshallerService;
+    }
+
+    /**
+     * Check if a {@link Representation} is unchanged including all of its
+     * {@link File}s
+     *
+     * @param updated
+     *            the {@link Representation} of the update
+     * @param previous
+     *            the {@link Representation} of the previous version
+     * @return <code>true</code> if the previous {@link Representation} can be
+     *         used for the new version
+     * @throws RepositoryException
+     *             if the metadata could not be compared
+     */
+    public boolean sameRepresentation(final Representation updated, final Representation previous) throws RepositoryException {
+        if (!equal(updated.getTitle(), previous.getTitle()) || !sameMetadata(updated.getTechnical(), previous.getTechnical())
+                || !sameMetadata(updated.getSource(), previous.getSource()) || !sameMetadata(updated.getProvenance(), previous.getProvenance())
+                || !sameMetadata(updated.getRights(), previous.getRights())) {
+            return false;
+        }
+        final List<File> files = updated.getFiles();
+        final List<File> previousFiles = previous.getFiles();
+        if (size(files) != size(previousFiles)) {
+            return false;
+        }
+        for (int i = 0; i < size(files); i++) {
+            if (!sameFile(files.get(i), previousFiles.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if a {@link File} is unchanged including its content and all of
+     * its {@link BitStream}s
+     *
+     * @param updated
+     *            the {@link File} of the update
+     * @param previous
+     *            the {@link File} of the previous version
+     * @return <code>true</code> if the previous {@link File} can be used for
+     *         the new version
+     * @throws RepositoryException
+     *             if the metadata could not be compared
+     */
+    public boolean sameFile(final File updated, final File previous) throws RepositoryException {
+        if (updated.getIdentifier() == null || !updated.getIdentifier().getValue().equals(previous.getIdentifier().getValue())) {
+            return false;
+        }
+        if (!equal(updated.getUri(), previous.getUri()) || !equal(updated.getFilename(), previous.getFilename())
+                || !equal(updated.getMimetype(), previous.getMimetype()) || !sameMetadata(updated.getTechnical(), previous.getTechnical())) {
+            return false;
+        }
+        final List<BitStream> streams = updated.getBitStreams();
+        final List<BitStream> previousStreams = previous.getBitStreams();
+        if (size(streams) != size(previousStreams)) {
+            return false;
+        }
+        for (int i = 0; i < size(streams); i++) {
+            final BitStream bs = streams.get(i);
+            final BitStream prev = previousStreams.get(i);
+            /* the type is not read back, so only the default type can be shared */
+            if (bs.getIdentifier() == null || !bs.getIdentifier().getValue().equals(prev.getIdentifier().getValue())
+                    || (bs.getType() != null && bs.getType() != BitStream.Type.STREAM) || !sameMetadata(bs.getTechnical(), prev.getTechnical())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check if two metadata records are equal by comparing their XML
+     *
+     * @param updated
+     *            the metadata of the update
+     * @param previous
+     *            the metadata of the previous version
+     * @return <code>true</code> if both records marshal to the same XML
+     * @throws RepositoryException
+     *             if the metadata could not be marshalled
+     */
+    public boolean sameMetadata(final Object updated, final Object previous) throws RepositoryException {
+        if (updated == null || previous == null) {
+            return updated == previous;
+        }
+        if (updated.getClass() != previous.getClass()) {
+            return false;
+        }
+        return Arrays.equals(marshal(updated), marshal(previous));
+    }
+
+    private byte[] marshal(final Object metadata) throws RepositoryException {
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try {
+            this.marshallerService.serializeMetadata(metadata, sink);
+        } catch (JAXBException e) {
+            throw new RepositoryException(e);
+        }
+        return sink.toByteArray();
+    }
+
+    private static int size(final List<?> list) {
+        return (list == null) ? 0 : list.size();
+    }
+
+    private static boolean equal(final Object a, final Object b) {
+        return (a == null) ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.service;
+
+import javax.jcr.RepositoryException;
+
+/**
+ * Thrown if a conditional update of an
+ * {@link eu.scape_project.model.IntellectualEntity} is based on a version
+ * which is not the entity's current version anymore
+ *
+ * @author frank asseg
+ *
+ */
+public class VersionConflictException extends RepositoryException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int currentVersion;
+
+    /**
+     * Create a new {@link VersionConflictException}
+     *
+     * @param entityId
+     *            the id of the entity
+     * @param currentVersion
+     *            the entity's current version number
+     */
+    public VersionConflictException(final String entityId, final int currentVersion) {
+        super("Entity '" + entityId + "' has been changed, the current version is " + currentVersion);
+        this.currentVersion = currentVersion;
+    }
+
+    /**
+     * Get the entity's current version number
+     *
+     * @return the current version number
+     */
+    public int getCurrentVersion() {
+        return currentVersion;
+    }
+}
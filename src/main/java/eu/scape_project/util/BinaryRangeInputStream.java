@@ -0,0 +1,147 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+/**
+ * An {@link java.io.InputStream} serving a range of a JCR {@link Binary}. The
+ * binary's stream is opened once on the first read and positioned at the
+ * start of the range. If the binary store serves a file the position is set
+ * on the file's channel, so that the bytes in front of the range are not
+ * read at all, otherwise they are skipped once
+ *
+ * @author frank asseg
+ *
+ */
+public class BinaryRangeInputStream extends InputStream {
+
+    private final Binary binary;
+
+    private final long offset;
+
+    private long remaining;
+
+    private InputStream src;
+
+    /**
+     * Create a new {@link BinaryRangeInputStream}
+     *
+     * @param binary
+     *            the {@link Binary} to read from
+     * @param offset
+     *            the position of the first byte of the range
+     * @param length
+     *            the number of bytes in the range
+     */
+    public BinaryRangeInputStream(final Binary binary, final long offset, final long length) {
+        super();
+        this.binary = binary;
+        this.offset = offset;
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xff);
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (remaining <= 0) {
+            return -1;
+        }
+        final int count = open().read(b, off, (int) Math.min(len, remaining));
+        if (count == -1) {
+            remaining = 0;
+            return -1;
+        }
+        remaining -= count;
+        return count;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        if (n <= 0 || remaining <= 0) {
+            return 0;
+        }
+        final long skipped = open().skip(Math.min(n, remaining));
+        remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(Integer.MAX_VALUE, remaining);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (src != null) {
+                src.close();
+            }
+        } finally {
+            binary.dispose();
+        }
+    }
+
+    /* open the binary's stream and move it to the start of the range */
+    private InputStream open() throws IOException {
+        if (src != null) {
+            return src;
+        }
+        try {
+            src = binary.getStream();
+        } catch (RepositoryException e) {
+            throw new IOException(e);
+        }
+        if (offset == 0) {
+            return src;
+        }
+        if (src instanceof FileInputStream) {
+            ((FileInputStream) src).getChannel().position(offset);
+            return src;
+        }
+        long pos = 0;
+        byte[] discard = null;
+        while (pos < offset) {
+            final long skipped = src.skip(offset - pos);
+            if (skipped > 0) {
+                pos += skipped;
+                continue;
+            }
+            /* the stream does not support skipping, so the bytes are read and discarded */
+            if (discard == null) {
+                discard = new byte[8192];
+            }
+            final int count = src.read(discard, 0, (int) Math.min(discard.length, offset - pos));
+            if (count == -1) {
+                throw new EOFException("The range starts behind the end of the binary");
+            }
+            pos += count;
+        }
+        return src;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A range of bytes requested using a HTTP <code>Range</code> header as
+ * described in RFC 7233
+ *
+ * @author frank asseg
+ *
+ */
+public class ByteRange {
+
+    /* a request with more ranges is served completely */
+    private static final int MAX_RANGES = 64;
+
+    private final long start;
+
+    private final long end;
+
+    /**
+     * Create a new {@link ByteRange}
+     *
+     * @param start
+     *            the position of the first byte
+     * @param end
+     *            the position of the last byte
+     */
+    public ByteRange(final long start, final long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Get the position of the first byte
+     *
+     * @return the position of the first byte
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Get the position of the last byte
+     *
+     * @return the position of the last byte
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Get the number of bytes in this range
+     *
+     * @return the number of bytes
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Get the value of the <code>Content-Range</code> header for this range
+     *
+     * @param size
+     *            the size of the complete content
+     * @return the value of the header
+     */
+    public String toContentRange(final long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+
+    /**
+     * Parse the value of a <code>Range</code> header
+     *
+     * @param header
+     *            the value of the header
+     * @param size
+     *            the size of the complete content
+     * @return a {@link List} of the satisfiable {@link ByteRange}s, which is
+     *         empty if none of the ranges can be satisfied, or
+     *         <code>null</code> if the header is not a valid byte range
+     *         header and has to be ignored
+     */
+    public static List<ByteRange> parse(final String header, final long size) {
+        if (header == null || size < 0 || !header.trim().startsWith("bytes=")) {
+            return null;
+        }
+        final String[] specs = header.trim().substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        final List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            final int dash = spec.indexOf('-');
+            if (dash == -1) {
+                return null;
+            }
+            final String first = spec.substring(0, dash).trim();
+            final String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                /* a suffix range containing the last n bytes */
+                final long suffix = parsePosition(last);
+                if (suffix == -1) {
+                    return null;
+                }
+                if (suffix > 0 && size > 0) {
+                    ranges.add(new ByteRange(Math.max(0, size - suffix), size - 1));
+                }
+                continue;
+            }
+            final long start = parsePosition(first);
+            final long end = last.isEmpty() ? size - 1 : parsePosition(last);
+            if (start == -1 || end == -1 || (!last.isEmpty() && end < start)) {
+                return null;
+            }
+            if (start < size) {
+                ranges.add(new ByteRange(start, Math.min(end, size - 1)));
+            }
+        }
+        return ranges;
+    }
+
+    /* a byte position consists of digits only, so signs and other characters make the header invalid */
+    private static long parsePosition(final String value) {
+        if (value.isEmpty()) {
+            return -1;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) < '0' || value.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            /* a position beyond any content */
+            return Long.MAX_VALUE;
+        }
+    }
+}
@@ -15,23 +15,44 @@ package eu.scape_project.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
- * A typed {@link java.io.InputStream} which can hold a Content-Type
+ * A typed {@link java.io.InputStream} which can hold a Content-Type. All
+ * operations are delegated to the underlying stream, so that bulk reads,
+ * skipping and closing work on the underlying stream
  *
  * @author frank asseg
  *
  */
 public class ContentTypeInputStream extends InputStream {
 
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
     private final InputStream src;
 
     private final String contentType;
 
+    private final long contentLength;
+
     public ContentTypeInputStream(String contentType, InputStream src) {
+        this(contentType, -1, src);
+    }
+
+    /**
+     * Create a new {@link ContentTypeInputStream} with a known length
+     *
+     * @param contentType
+     *            the Content-Type of the data
+     * @param contentLength
+     *            the number of bytes in the stream or -1 if unknown
+     * @param src
+     *            the {@link InputStream} to read the data from
+     */
+    public ContentTypeInputStream(String contentType, long contentLength, InputStream src) {
         this.src = src;
         this.contentType = contentType;
-
+        this.contentLength = contentLength;
     }
 
     @Override
@@ -39,6 +60,68 @@ public class ContentTypeInputStream extends InputStream {
         return src.read();
     }
 
+    @Override
+    public int read(byte[] b) throws IOException {
+        return src.read(b);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return src.read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        return src.skip(n);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return src.available();
+    }
+
+    @Override
+    public void close() throws IOException {
+        src.close();
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        src.mark(readlimit);
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        src.reset();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return src.markSupported();
+    }
+
+    /**
+     * Write the remaining bytes of this stream to an {@link OutputStream}
+     * using a single buffer which is large enough to keep the number of
+     * reads from the binary store low
+     *
+     * @param out
+     *            the {@link OutputStream} to write to
+     * @return the number of bytes written
+     * @throws IOException
+     *             if the data could not be transferred
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        final byte[] buffer = new byte[TRANSFER_BUFFER_SIZE];
+        long count = 0;
+        int read;
+        while ((read = src.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+            count += read;
+        }
+        return count;
+    }
+
     /**
      * Get the Content-Type associated with this {@link java.io.InputStream}
      * 
@@ -48,4 +131,13 @@ public class ContentTypeInputStream extends InputStream {
         return contentType;
     }
 
+    /**
+     * Get the number of bytes in this {@link java.io.InputStream}
+     *
+     * @return the Content-Length or -1 if it is unknown
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
 }
@@ -0,0 +1,187 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+/**
+ * Creates the HTTP entity tags of the objects served by the connector API.
+ * Since the objects of an entity's version are never changed after the
+ * version has been written, the tag of an object only depends on the entity's
+ * id, the version number and the object's path, so that a conditional request
+ * can be answered from the version number alone without reading the object
+ *
+ * @author frank asseg
+ *
+ */
+public final class EntityTags {
+
+    /* responses for an explicit version never change */
+    private static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+
+    /* responses for the current version have to be revalidated using the tag */
+    private static final String CACHE_REVALIDATE = "no-cache";
+
+    private EntityTags() {
+        super();
+    }
+
+    /**
+     * Create the entity tag of an object
+     *
+     * @param entityId
+     *            the id of the {@link eu.scape_project.model.IntellectualEntity}
+     * @param version
+     *            the version number of the entity
+     * @param resource
+     *            the kind and the path of the object in the entity, which
+     *            identifies the object's representation uniquely
+     * @return the {@link EntityTag}
+     */
+    public static EntityTag create(final String entityId, final int version, final String resource) {
+        return new EntityTag(entityId + "/version-" + version + "/" + resource);
+    }
+
+    /**
+     * Evaluate the conditional headers of a request against the tag and the
+     * modification date of an object
+     *
+     * @param request
+     *            the {@link Request} to evaluate
+     * @param tag
+     *            the {@link EntityTag} of the requested object
+     * @param lastModified
+     *            the date at which the object's version has been written or
+     *            <code>null</code> if it is unknown
+     * @param versioned
+     *            <code>true</code> if the request addresses an explicit
+     *            version
+     * @return a {@link ResponseBuilder} for a <code>304 Not Modified</code>
+     *         response or <code>null</code> if the object has to be sent
+     */
+    public static ResponseBuilder evaluate(final Request request, final EntityTag tag, final Date lastModified, final boolean versioned) {
+        final ResponseBuilder notModified = (lastModified != null) ? request.evaluatePreconditions(lastModified, tag) : request
+                .evaluatePreconditions(tag);
+        if (notModified == null) {
+            return null;
+        }
+        return tag(notModified, tag, lastModified, versioned);
+    }
+
+    /**
+     * Get the version numbers named by the tags of an <code>If-Match</code>
+     * header of an update. A tag names a version if it is the tag of the
+     * updated object or of a projection of the object in this version
+     *
+     * @param ifMatch
+     *            the value of the <code>If-Match</code> header
+     * @param entityId
+     *            the id of the updated
+     *            {@link eu.scape_project.model.IntellectualEntity}
+     * @param resource
+     *            the kind and the path of the updated object
+     * @return the version numbers, which are empty if no tag matches the
+     *         object, or <code>null</code> if the update is unconditional
+     */
+    public static Set<Integer> matchedVersions(final String ifMatch, final String entityId, final String resource) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        final String prefix = entityId + "/version-";
+        final Set<Integer> versions = new HashSet<>();
+        for (String tag : ifMatch.split(",")) {
+            tag = tag.trim();
+            /* a weak tag never matches in a strong comparison */
+            if (tag.length() < 2 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"') {
+                continue;
+            }
+            tag = tag.substring(1, tag.length() - 1);
+            final int slash = tag.indexOf('/', prefix.length());
+            if (!tag.startsWith(prefix) || slash == -1) {
+                continue;
+            }
+            final String tagResource = tag.substring(slash + 1);
+            if (!tagResource.equals(resource) && !tagResource.startsWith(resource + ";")) {
+                continue;
+            }
+            try {
+                versions.add(Integer.parseInt(tag.substring(prefix.length(), slash)));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Create the response for an update whose <code>If-Match</code> header
+     * does not match the current version
+     *
+     * @return a {@link ResponseBuilder} for a
+     *         <code>412 Precondition Failed</code> response
+     */
+    public static ResponseBuilder preconditionFailed() {
+        return Response.status(Response.Status.PRECONDITION_FAILED);
+    }
+
+    /**
+     * Add the entity tag, the modification date and the caching directives to
+     * a response
+     *
+     * @param response
+     *            the {@link ResponseBuilder} of the response
+     * @param tag
+     *            the {@link EntityTag} of the object
+     * @param lastModified
+     *            the date at which the object's version has been written or
+     *            <code>null</code> if it is unknown
+     * @param versioned
+     *            <code>true</code> if the request addresses an explicit
+     *            version
+     * @return the {@link ResponseBuilder}
+     */
+    public static ResponseBuilder tag(final ResponseBuilder response, final EntityTag tag, final Date lastModified, final boolean versioned) {
+        if (lastModified != null) {
+            response.lastModified(lastModified);
+        }
+        return response.tag(tag).header(HttpHeaders.CACHE_CONTROL, versioned ? CACHE_IMMUTABLE : CACHE_REVALIDATE);
+    }
+
+    /**
+     * Create a response for a tagged object
+     *
+     * @param entity
+     *            the entity of the response
+     * @param tag
+     *            the {@link EntityTag} of the object
+     * @param lastModified
+     *            the date at which the object's version has been written or
+     *            <code>null</code> if it is unknown
+     * @param versioned
+     *            <code>true</code> if the request addresses an explicit
+     *            version
+     * @return a {@link ResponseBuilder} for a <code>200 OK</code> response
+     */
+    public static ResponseBuilder ok(final Object entity, final EntityTag tag, final Date lastModified, final boolean versioned) {
+        return tag(Response.ok().entity(entity), tag, lastModified, versioned);
+    }
+}
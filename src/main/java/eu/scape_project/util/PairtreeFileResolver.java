@@ -0,0 +1,120 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Resolves the relative file locations of a METS document to files stored
+ * in a local pairtree, as used by the ONB testbed. The files of an object are
+ * located in the object's pairtree directory, optionally below an
+ * encapsulating directory, e.g. <code>{base}/ON/B_/Z3/50/72/00/1/onb/00000001.jp2</code>
+ * for the object <code>ONB_Z35072001</code>. The identifiers are cleaned as
+ * described in the pairtree specification
+ *
+ * @author frank asseg
+ *
+ */
+public class PairtreeFileResolver {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String ENCODED_CHARACTERS = "\"*+,<=>?\\^|";
+
+    private final Path basePath;
+
+    private final String encapsulated;
+
+    /**
+     * Create a new {@link PairtreeFileResolver}
+     *
+     * @param basePath
+     *            the directory containing the pairtree
+     * @param encapsulated
+     *            the name of the encapsulating directory of an object or
+     *            <code>null</code> if the files are stored directly in the
+     *            object's pairtree directory
+     */
+    public PairtreeFileResolver(final String basePath, final String encapsulated) {
+        this.basePath = Paths.get(basePath).toAbsolutePath().normalize();
+        this.encapsulated = (encapsulated == null || encapsulated.isEmpty()) ? null : encapsulated;
+    }
+
+    /**
+     * Resolve the location of a file of an object
+     *
+     * @param id
+     *            the identifier of the object
+     * @param location
+     *            the location of the file relative to the object
+     * @return the {@link File} in the pairtree
+     * @throws IOException
+     *             if the location points outside of the object's directory
+     */
+    public File resolve(final String id, final String location) throws IOException {
+        Path dir = this.basePath.resolve(toPairPath(id));
+        if (this.encapsulated != null) {
+            dir = dir.resolve(this.encapsulated);
+        }
+        final Path file = dir.resolve(location).normalize();
+        /* confined to the object's own directory, so that no other object's files can be reached */
+        if (!file.startsWith(dir) || file.equals(dir)) {
+            throw new IOException("The location " + location + " of " + id + " is outside of its pairtree directory");
+        }
+        return file.toFile();
+    }
+
+    /**
+     * Map an identifier to its relative pairtree path
+     *
+     * @param id
+     *            the identifier
+     * @return the pairtree path of the identifier
+     */
+    public static String toPairPath(final String id) {
+        final String cleaned = clean(id);
+        final StringBuilder path = new StringBuilder(cleaned.length() + cleaned.length() / 2);
+        for (int i = 0; i < cleaned.length(); i += 2) {
+            if (i > 0) {
+                path.append('/');
+            }
+            path.append(cleaned, i, Math.min(i + 2, cleaned.length()));
+        }
+        return path.toString();
+    }
+
+    /* the two step character cleaning of the pairtree specification */
+    private static String clean(final String id) {
+        final StringBuilder cleaned = new StringBuilder(id.length());
+        for (byte b : id.getBytes(UTF_8)) {
+            final int c = b & 0xff;
+            if (c <= 0x20 || c >= 0x7f || ENCODED_CHARACTERS.indexOf(c) != -1) {
+                cleaned.append('^').append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xf, 16));
+            } else if (c == '/') {
+                cleaned.append('=');
+            } else if (c == ':') {
+                cleaned.append('+');
+            } else if (c == '.') {
+                cleaned.append(',');
+            } else {
+                cleaned.append((char) c);
+            }
+        }
+        return cleaned.toString();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package eu.scape_project.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A reusable {@link java.io.OutputStream} which keeps the written data in
+ * memory up to a given threshold and spills it to a temporary file once the
+ * threshold is exceeded. The in-memory buffer is retained between calls to
+ * {@link #reset()} so that an instance can be reused for many small documents
+ * without allocating new buffers. A buffer grown beyond
+ * {@link #RETAINED_CAPACITY} by a large document is released on
+ * {@link #reset()}, so that a long lived instance does not keep up to the
+ * threshold in memory.
+ *
+ * @author frank asseg
+ *
+ */
+public class SpillingOutputStream extends OutputStream {
+
+    /** The maximum size of the in-memory buffer kept between two uses */
+    public static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private static final int INITIAL_CAPACITY = 8192;
+
+    private final int threshold;
+
+    private final java.io.File directory;
+
+    private byte[] buf = new byte[INITIAL_CAPACITY];
+
+    private long count;
+
+    private java.io.File spillFile;
+
+    private OutputStream spillSink;
+
+    /**
+     * Create a new {@link SpillingOutputStream}
+     *
+     * @param threshold
+     *            the number of bytes kept in memory before spilling to disk
+     * @param directory
+     *            the directory for the temporary files. If <code>null</code>
+     *            the default temporary directory is used
+     */
+    public SpillingOutputStream(int threshold, java.io.File directory) {
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (spillSink == null && count + len > threshold) {
+            spillFile = java.io.File.createTempFile("metadata-", ".xml", directory);
+            spillSink = new BufferedOutputStream(new FileOutputStream(spillFile));
+            spillSink.write(buf, 0, (int) count);
+        }
+        if (spillSink != null) {
+            spillSink.write(b, off, len);
+        } else {
+            final int pos = (int) count;
+            if (pos + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.min(threshold, Math.max(buf.length << 1, pos + len)));
+            }
+            System.arraycopy(b, off, buf, pos, len);
+        }
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (spillSink != null) {
+            spillSink.flush();
+        }
+    }
+
+    /**
+     * Get an {@link java.io.InputStream} serving the data written so far.
+     * The stream is only valid until the next call to {@link #reset()}
+     *
+     * @return an {@link java.io.InputStream} containing the written data
+     * @throws IOException
+     *             if the spilled data could not be read
+     */
+    public InputStream getInputStream() throws IOException {
+        if (spillSink != null) {
+            spillSink.flush();
+            return new FileInputStream(spillFile);
+        }
+        return new ByteArrayInputStream(buf, 0, (int) count);
+    }
+
+    /**
+     * Get the number of bytes written so far
+     *
+     * @return the number of bytes
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Check if the data has been spilled to disk
+     *
+     * @return <code>true</code> if the threshold has been exceeded
+     */
+    public boolean isSpilled() {
+        return spillSink != null;
+    }
+
+    /**
+     * Get the size of the in-memory buffer
+     *
+     * @return the capacity of the buffer in bytes
+     */
+    public int getCapacity() {
+        return buf.length;
+    }
+
+    /**
+     * Discard the written data and delete a spilled file, while keeping the
+     * in-memory buffer for the next use unless it has grown beyond
+     * {@link #RETAINED_CAPACITY}
+     *
+     * @throws IOException
+     *             if the spilled file could not be removed
+     */
+    public void reset() throws IOException {
+        count = 0;
+        if (buf.length > RETAINED_CAPACITY) {
+            buf = new byte[INITIAL_CAPACITY];
+        }
+        if (spillSink != null) {
+            try {
+                spillSink.close();
+            } finally {
+                spillSink = null;
+                if (!spillFile.delete()) {
+                    spillFile.deleteOnExit();
+                }
+                spillFile = null;
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reset();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import eu.scape_project.service.AsyncQueueIndex;
+import eu.scape_project.service.AsyncQueueIndex.State;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class AsyncQueueIndexTest {
+
+    @Test
+    public void testClaimInQueueOrder() throws Exception {
+        AsyncQueueIndex index = new AsyncQueueIndex();
+        index.queued("entity-1");
+        index.queued("entity-2");
+        index.queued("entity-3");
+        assertEquals(Arrays.asList("entity-1", "entity-2"), index.nextQueued(2));
+
+        assertEquals("entity-1", index.claim());
+        assertEquals(State.INGESTING, index.getState("entity-1"));
+        assertEquals(2, index.count(State.QUEUED));
+        assertEquals(1, index.count(State.INGESTING));
+
+        index.failed("entity-1");
+        assertEquals(State.INGEST_FAILED, index.getState("entity-1"));
+        assertEquals(0, index.count(State.INGESTING));
+
+        assertEquals("entity-2", index.claim());
+        index.remove("entity-2");
+        assertNull(index.getState("entity-2"));
+        assertEquals(Arrays.asList("entity-3"), index.nextQueued(10));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.jcr.Binary;
+import javax.jcr.RepositoryException;
+
+import org.junit.Test;
+
+import eu.scape_project.util.BinaryRangeInputStream;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class BinaryRangeInputStreamTest {
+
+    private static final int SIZE = 8 * 1024 * 1024;
+
+    @Test
+    public void testServeLargeRangeFromStream() throws Exception {
+        final byte[] data = createData();
+        final CountingBinary binary = new CountingBinary(data, null);
+        final long offset = 3 * 1024 * 1024 + 17;
+        final long length = 4 * 1024 * 1024;
+        final byte[] range = readAll(new BinaryRangeInputStream(binary, offset, length));
+
+        assertRange(data, offset, length, range);
+        /* the stream is opened once and never read by position */
+        assertEquals(1, binary.streamsOpened);
+        assertEquals(0, binary.positionalReads);
+        /* the skipped bytes are not read */
+        assertEquals(length, binary.bytesRead);
+        assertTrue(binary.disposed);
+    }
+
+    @Test
+    public void testServeLargeRangeFromFile() throws Exception {
+        final byte[] data = createData();
+        final File file = File.createTempFile("range-", ".bin");
+        file.deleteOnExit();
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        final CountingBinary binary = new CountingBinary(data, file);
+        final long offset = 5 * 1024 * 1024;
+        final long length = 2 * 1024 * 1024 + 3;
+        final byte[] range = readAll(new BinaryRangeInputStream(binary, offset, length));
+
+        assertRange(data, offset, length, range);
+        assertEquals(1, binary.streamsOpened);
+        assertEquals(0, binary.positionalReads);
+    }
+
+    @Test
+    public void testRangeBehindEnd() throws Exception {
+        final byte[] data = "0123456789".getBytes();
+        final CountingBinary binary = new CountingBinary(data, null);
+        final byte[] range = readAll(new BinaryRangeInputStream(binary, 6, 10));
+        assertEquals("6789", new String(range));
+    }
+
+    private static byte[] createData() {
+        final byte[] data = new byte[SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return data;
+    }
+
+    private static byte[] readAll(final InputStream src) throws IOException {
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (final InputStream in = src) {
+            final byte[] buf = new byte[64 * 1024];
+            int count;
+            while ((count = in.read(buf)) != -1) {
+                sink.write(buf, 0, count);
+            }
+        }
+        return sink.toByteArray();
+    }
+
+    private static void assertRange(final byte[] data, final long offset, final long length, final byte[] range) {
+        assertEquals(length, range.length);
+        assertArrayEquals(Arrays.copyOfRange(data, (int) offset, (int) (offset + length)), range);
+    }
+
+    /* a binary counting the streams opened and the bytes read from them */
+    private static class CountingBinary implements Binary {
+
+        private final byte[] data;
+
+        private final File file;
+
+        private int streamsOpened;
+
+        private int positionalReads;
+
+        private long bytesRead;
+
+        private boolean disposed;
+
+        private CountingBinary(final byte[] data, final File file) {
+            this.data = data;
+            this.file = file;
+        }
+
+        @Override
+        public InputStream getStream() throws RepositoryException {
+            streamsOpened++;
+            if (file != null) {
+                try {
+                    return new FileInputStream(file);
+                } catch (IOException e) {
+                    throw new RepositoryException(e);
+                }
+            }
+            return new ByteArrayInputStream(data) {
+
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    final int count = super.read(b, off, len);
+                    bytesRead += Math.max(0, count);
+                    return count;
+                }
+
+                @Override
+                public synchronized int read() {
+                    final int b = super.read();
+                    bytesRead += (b == -1) ? 0 : 1;
+                    return b;
+                }
+            };
+        }
+
+        @Override
+        public int read(final byte[] b, final long position) throws IOException, RepositoryException {
+            positionalReads++;
+            final int count = (int) Math.min(b.length, data.length - position);
+            System.arraycopy(data, (int) position, b, 0, count);
+            return count;
+        }
+
+        @Override
+        public long getSize() throws RepositoryException {
+            return data.length;
+        }
+
+        @Override
+        public void dispose() {
+            disposed = true;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.scape_project.util.ByteRange;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class ByteRangeTest {
+
+    @Test
+    public void testSingleRange() throws Exception {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-99", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(99, ranges.get(0).getEnd());
+        assertEquals(100, ranges.get(0).getLength());
+        assertEquals("bytes 0-99/1000", ranges.get(0).toContentRange(1000));
+    }
+
+    @Test
+    public void testSuffixRange() throws Exception {
+        List<ByteRange> ranges = ByteRange.parse("bytes=-100", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(900, ranges.get(0).getStart());
+        assertEquals(999, ranges.get(0).getEnd());
+
+        /* a suffix longer than the content selects the complete content */
+        ranges = ByteRange.parse("bytes=-5000", 1000);
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(999, ranges.get(0).getEnd());
+    }
+
+    @Test
+    public void testOpenEndedRange() throws Exception {
+        List<ByteRange> ranges = ByteRange.parse("bytes=500-", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(500, ranges.get(0).getStart());
+        assertEquals(999, ranges.get(0).getEnd());
+    }
+
+    @Test
+    public void testEndIsClippedToContent() throws Exception {
+        List<ByteRange> ranges = ByteRange.parse("bytes=900-99999999999999999999", 1000);
+        assertEquals(1, ranges.size());
+        assertEquals(999, ranges.get(0).getEnd());
+    }
+
+    @Test
+    public void testMultipleRanges() throws Exception {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-9, 20-29 ,-10", 1000);
+        assertEquals(3, ranges.size());
+        assertEquals(0, ranges.get(0).getStart());
+        assertEquals(20, ranges.get(1).getStart());
+        assertEquals(29, ranges.get(1).getEnd());
+        assertEquals(990, ranges.get(2).getStart());
+    }
+
+    @Test
+    public void testTooManyRangesAreIgnored() throws Exception {
+        StringBuilder header = new StringBuilder("bytes=");
+        for (int i = 0; i < 64; i++) {
+            header.append(i > 0 ? "," : "").append(i * 10).append('-').append(i * 10 + 4);
+        }
+        assertEquals(64, ByteRange.parse(header.toString(), 1000).size());
+        header.append(",900-999");
+        assertNull(ByteRange.parse(header.toString(), 1000));
+    }
+
+    @Test
+    public void testUnsatisfiableRanges() throws Exception {
+        assertTrue(ByteRange.parse("bytes=1000-1999", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=0-9", 0).isEmpty());
+        /* only the satisfiable ranges are served */
+        assertEquals(1, ByteRange.parse("bytes=1000-1999,0-9", 1000).size());
+    }
+
+    @Test
+    public void testInvalidHeadersAreIgnored() throws Exception {
+        assertNull(ByteRange.parse(null, 1000));
+        assertNull(ByteRange.parse("bytes=0-9", -1));
+        assertNull(ByteRange.parse("items=0-9", 1000));
+        assertNull(ByteRange.parse("bytes=", 1000));
+        assertNull(ByteRange.parse("bytes=9", 1000));
+        assertNull(ByteRange.parse("bytes=--5", 1000));
+        assertNull(ByteRange.parse("bytes=-5-", 1000));
+        assertNull(ByteRange.parse("bytes=+5-9", 1000));
+        assertNull(ByteRange.parse("bytes=a-9", 1000));
+        assertNull(ByteRange.parse("bytes=0-x", 1000));
+        assertNull(ByteRange.parse("bytes=9-5", 1000));
+        /* a single invalid range invalidates the complete header */
+        assertNull(ByteRange.parse("bytes=0-9,--5", 1000));
+    }
+}
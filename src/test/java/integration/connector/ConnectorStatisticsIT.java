@@ -0,0 +1,72 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.TestUtil;
+import eu.scape_project.service.ConnectorStatistics;
+
+/**
+ * Checks that the statistics of the connector are exposed via JMX
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/managed-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class ConnectorStatisticsIT extends AbstractIT {
+
+    @Test
+    public void testStatisticsAreExposed() throws Exception {
+        this.postEntity(TestUtil.createTestEntity("statistics-1"));
+        final HttpGet get = new HttpGet(SCAPE_URL + "/entity/statistics-1");
+        final HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        get.releaseConnection();
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName name = new ObjectName(ConnectorStatistics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name));
+        assertTrue((Long) server.getAttribute(name, "MarshallerContextsCreated") > 0);
+        assertTrue((Long) server.getAttribute(name, "MarshallerHits") > 0);
+
+        /* the metadata records of the ingested entity have been marshalled */
+        final TabularData marshalTimes = (TabularData) server.getAttribute(name, "MetadataMarshalTimes");
+        assertFalse(marshalTimes.isEmpty());
+
+        /* the retrieved entity has been added to the cache */
+        final TabularData cacheStatistics = (TabularData) server.getAttribute(name, "EntityCacheStatistics");
+        assertTrue((Long) cacheStatistics.get(new Object[] { "entities" }).get("value") > 0);
+        assertTrue((Long) cacheStatistics.get(new Object[] { "weight" }).get("value") > 0);
+    }
+}
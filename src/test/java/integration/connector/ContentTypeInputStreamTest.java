@@ -0,0 +1,76 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import eu.scape_project.util.ContentTypeInputStream;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class ContentTypeInputStreamTest {
+
+    @Test
+    public void testDelegateBulkReads() throws Exception {
+        final boolean[] closed = new boolean[1];
+        final ContentTypeInputStream src = new ContentTypeInputStream("text/plain", 10, new ByteArrayInputStream("0123456789".getBytes()) {
+
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        });
+        assertEquals(2, src.skip(2));
+        final byte[] buf = new byte[4];
+        assertEquals(4, src.read(buf, 0, 4));
+        assertArrayEquals("2345".getBytes(), buf);
+        assertEquals(4, src.available());
+        src.close();
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void testTransferRemainingBytes() throws Exception {
+        final File file = File.createTempFile("transfer-", ".bin");
+        file.deleteOnExit();
+        final byte[] data = new byte[256 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        try (final FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (final ContentTypeInputStream src = new ContentTypeInputStream("application/octet-stream", data.length, new FileInputStream(file))) {
+            assertEquals(1024, src.skip(1024));
+            assertEquals(data.length - 1024, src.transferTo(sink));
+            assertEquals(-1, src.read());
+        }
+        assertEquals(data.length - 1024, sink.size());
+        assertEquals(data[1024], sink.toByteArray()[0]);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import eu.scape_project.model.BitStream;
+import eu.scape_project.model.File;
+import eu.scape_project.model.Identifier;
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.Representation;
+import eu.scape_project.service.EntityCache;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class EntityCacheTest {
+
+    @Test
+    public void testCacheVersions() throws Exception {
+        EntityCache cache = new EntityCache(100, 10);
+        IntellectualEntity v1 = createEntity("entity-1");
+        IntellectualEntity v2 = createEntity("entity-1");
+        cache.put("entity-1", 1, v1, 30);
+        cache.put("entity-1", 2, v2, 40);
+        assertSame(v1, cache.get("entity-1", 1));
+        assertSame(v2, cache.get("entity-1", 2));
+        assertNull(cache.get("entity-1", 3));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(70, cache.getWeight());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        EntityCache cache = new EntityCache(100, 10);
+        cache.put("entity-1", 1, createEntity("entity-1"), 40);
+        cache.put("entity-2", 1, createEntity("entity-2"), 40);
+        cache.get("entity-1", 1);
+        cache.put("entity-3", 1, createEntity("entity-3"), 40);
+        assertNull(cache.get("entity-2", 1));
+        assertEquals(2, cache.size());
+        assertEquals(80, cache.getWeight());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void testLargeEntityIsNotCached() throws Exception {
+        EntityCache cache = new EntityCache(100, 10);
+        cache.put("entity-1", 1, createEntity("entity-1"), 40);
+        /* a single large metadata record does not evict the whole cache */
+        cache.put("entity-2", 1, createEntity("entity-2"), 1000);
+        assertNull(cache.get("entity-2", 1));
+        assertEquals(1, cache.size());
+        assertEquals(40, cache.getWeight());
+    }
+
+    @Test
+    public void testCurrentVersionOnlyMovesForward() throws Exception {
+        EntityCache cache = new EntityCache(10, 10);
+        assertNull(cache.getCurrentVersion("entity-1"));
+        cache.setCurrentVersion("entity-1", 2);
+        cache.setCurrentVersion("entity-1", 1);
+        assertEquals(Integer.valueOf(2), cache.getCurrentVersion("entity-1"));
+        cache.invalidate("entity-1");
+        assertNull(cache.getCurrentVersion("entity-1"));
+    }
+
+    @Test
+    public void testPendingVersionIsNotServed() throws Exception {
+        EntityCache cache = new EntityCache(10, 10);
+        cache.setCurrentVersion("entity-1", 1);
+        cache.setPendingVersion("entity-1", 2, "tx-1");
+        assertNull(cache.getCurrentVersion("entity-1"));
+        /* a reader outside of the transaction still sees the old version */
+        cache.setCurrentVersion("entity-1", 1);
+        assertNull(cache.getCurrentVersion("entity-1"));
+        /* the transaction has been committed */
+        cache.setCurrentVersion("entity-1", 2);
+        assertEquals(Integer.valueOf(2), cache.getCurrentVersion("entity-1"));
+    }
+
+    @Test
+    public void testDiscardRolledBackVersion() throws Exception {
+        EntityCache cache = new EntityCache(10, 10);
+        cache.setPendingVersion("entity-1", 2, "tx-1");
+        cache.setPendingVersion("entity-2", 5, "tx-2");
+        assertEquals(new HashSet<>(Arrays.asList("tx-1", "tx-2")), cache.getPendingTransactions());
+        /* the transaction has been rolled back */
+        cache.discardTransaction("tx-1");
+        cache.setCurrentVersion("entity-1", 1);
+        assertEquals(Integer.valueOf(1), cache.getCurrentVersion("entity-1"));
+        assertEquals(Collections.singleton("tx-2"), cache.getPendingTransactions());
+    }
+
+    private static IntellectualEntity createEntity(String id) {
+        BitStream bs = new BitStream.Builder().identifier(new Identifier(id + "-bs")).build();
+        File f = new File.Builder().identifier(new Identifier(id + "-file")).bitStreams(Arrays.asList(bs)).build();
+        Representation r = new Representation.Builder().identifier(new Identifier(id + "-rep")).files(Arrays.asList(f)).build();
+        return new IntellectualEntity.Builder().identifier(new Identifier(id)).representations(Arrays.asList(r)).build();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.fcrepo.http.commons.session.SessionFactory;
+import org.fcrepo.kernel.services.ObjectService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.purl.dc.elements._1.ElementContainer;
+import org.purl.dc.elements._1.SimpleLiteral;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.IntellectualEntity;
+import eu.scape_project.model.TestUtil;
+import eu.scape_project.rdf.ScapeProperties;
+import eu.scape_project.rdf.ScapeRDFVocabulary;
+import eu.scape_project.service.ConnectorService;
+import eu.scape_project.service.EntityLayoutMigration;
+import eu.scape_project.service.EntityLoader;
+import eu.scape_project.service.EntityPathResolver;
+import eu.scape_project.service.MarshallerService;
+import eu.scape_project.service.RepositoryReader;
+import eu.scape_project.util.ScapeMarshaller;
+
+/**
+ * Ingests entities into a flat layout and migrates them into shard folders,
+ * including an entity named like a shard folder and a migration which is
+ * interrupted and run again
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/layout-migration/test-context.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class EntityLayoutMigrationIT {
+
+    private static final String FEDORA_URL = "http://localhost:8092";
+
+    private static final String CONFIG_NAMESPACE = "http://fedora.info/definitions/v4/config#";
+
+    @Autowired
+    private ConnectorService connectorService;
+
+    @Autowired
+    private ObjectService objectService;
+
+    @Autowired
+    private SessionFactory sessionFactory;
+
+    @Autowired
+    private RepositoryReader repositoryReader;
+
+    @Autowired
+    private MarshallerService marshallerService;
+
+    @Test
+    public void testMigrateFlatLayout() throws Exception {
+        final Session session = this.sessionFactory.getInternalSession();
+        final ScapeMarshaller marshaller = ScapeMarshaller.newInstance();
+        final String[] ids = new String[] { "migration-1", "ab", "migration-2" };
+        for (String id : ids) {
+            this.connectorService.addEntity(session, serialize(marshaller, TestUtil.createTestEntity(id)), id);
+        }
+        /* a second version of an entity */
+        final IntellectualEntity updated = new IntellectualEntity.Builder(TestUtil.createTestEntity("migration-1")).descriptive(createDescriptive())
+                .build();
+        this.connectorService.updateEntity(session, serialize(marshaller, updated), "migration-1", null);
+        for (String id : ids) {
+            assertTrue(session.nodeExists(ConnectorService.ENTITY_FOLDER + "/" + id));
+        }
+
+        /* the first run fails after the entities named like a shard have been moved aside */
+        final EntityPathResolver paths = new EntityPathResolver(ConnectorService.ENTITY_FOLDER, 2);
+        try {
+            new EntityLayoutMigration(session, failingObjectService(2), paths, FEDORA_URL).migrate();
+            fail("The migration has not been interrupted");
+        } catch (RepositoryException e) {
+            session.refresh(false);
+        }
+        assertTrue(session.nodeExists(ConnectorService.ENTITY_FOLDER + "/ab.migrating"));
+
+        /* the second run completes the migration */
+        assertEquals(ids.length, new EntityLayoutMigration(session, this.objectService, paths, FEDORA_URL).migrate());
+        assertEquals(0, new EntityLayoutMigration(session, this.objectService, paths, FEDORA_URL).migrate());
+
+        assertEntity(session, paths, "migration-1", 2);
+        assertEntity(session, paths, "ab", 1);
+        assertEntity(session, paths, "migration-2", 1);
+
+        /* the entities are found by walking the shard folders */
+        final Set<String> found = new HashSet<>();
+        final Iterator<Node> entities = paths.iterateEntities(session);
+        while (entities.hasNext()) {
+            found.add(entities.next().getName());
+        }
+        for (String id : ids) {
+            assertTrue(found.contains(id));
+        }
+        session.logout();
+    }
+
+    private void assertEntity(final Session session, final EntityPathResolver paths, final String id, final int versions) throws Exception {
+        final String entityPath = paths.getEntityPath(id);
+        assertFalse(session.nodeExists(ConnectorService.ENTITY_FOLDER + "/" + id));
+        assertFalse(session.nodeExists(ConnectorService.ENTITY_FOLDER + "/" + id + ".migrating"));
+        assertTrue(session.nodeExists(entityPath));
+
+        final Node entity = session.getNode(entityPath);
+        assertEquals(entityPath + "/version-" + versions, ScapeProperties.getPath(entity, ScapeRDFVocabulary.HAS_CURRENT_VERSION));
+        final List<String> versionPaths = ScapeProperties.getPaths(entity, ScapeRDFVocabulary.HAS_VERSION);
+        assertEquals(versions, versionPaths.size());
+
+        /* every link of every version resolves to an object below the new path */
+        final String premis = session.getNamespacePrefix(CONFIG_NAMESPACE) + ":hasPremisFullV2Record";
+        for (String versionPath : versionPaths) {
+            for (String repPath : assertLinks(session, session.getNode(versionPath), ScapeRDFVocabulary.HAS_REPRESENTATION, entityPath)) {
+                final Node rep = session.getNode(repPath);
+                assertEquals(FEDORA_URL + repPath + "/PROVENANCE", rep.getProperty(premis).getString());
+                for (String filePath : assertLinks(session, rep, ScapeRDFVocabulary.HAS_FILE, entityPath)) {
+                    assertLinks(session, session.getNode(filePath), ScapeRDFVocabulary.HAS_BITSTREAM, entityPath);
+                }
+            }
+        }
+
+        /* the migrated entity can be loaded completely */
+        final IntellectualEntity fetched = new EntityLoader(this.repositoryReader, session, this.marshallerService, FEDORA_URL, false).loadEntity(
+                entityPath, entityPath + "/version-" + versions);
+        assertEquals(id, fetched.getIdentifier().getValue());
+        assertEquals(1, fetched.getRepresentations().size());
+    }
+
+    private static List<String> assertLinks(final Session session, final Node node, final String property, final String entityPath)
+            throws RepositoryException {
+        final List<String> links = ScapeProperties.getPaths(node, property);
+        for (String link : links) {
+            assertTrue(link.startsWith(entityPath + "/"));
+            assertTrue(session.nodeExists(link));
+        }
+        return links;
+    }
+
+    /* an ObjectService which fails on the n-th object it creates */
+    private ObjectService failingObjectService(final int failOn) {
+        final ObjectService delegate = this.objectService;
+        final int[] calls = new int[1];
+        return (ObjectService) Proxy.newProxyInstance(ObjectService.class.getClassLoader(), new Class<?>[] { ObjectService.class },
+                new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("findOrCreateObject") && ++calls[0] == failOn) {
+                            throw new RepositoryException("Interrupted migration");
+                        }
+                        try {
+                            return method.invoke(delegate, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    private static ByteArrayInputStream serialize(final ScapeMarshaller marshaller, final IntellectualEntity ie) throws Exception {
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        marshaller.serialize(ie, sink);
+        return new ByteArrayInputStream(sink.toByteArray());
+    }
+
+    private static ElementContainer createDescriptive() {
+        final org.purl.dc.elements._1.ObjectFactory dcFac = new org.purl.dc.elements._1.ObjectFactory();
+        final ElementContainer cnt = dcFac.createElementContainer();
+        final SimpleLiteral title = new SimpleLiteral();
+        title.getContent().add("Migrated");
+        cnt.getAny().add(dcFac.createTitle(title));
+        return cnt;
+    }
+}
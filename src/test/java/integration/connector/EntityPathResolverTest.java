@@ -0,0 +1,60 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import eu.scape_project.service.EntityPathResolver;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class EntityPathResolverTest {
+
+    @Test
+    public void testFlatLayout() throws Exception {
+        final EntityPathResolver paths = new EntityPathResolver("/objects/scape/entities", 0);
+        assertEquals("/objects/scape/entities/entity-1", paths.getEntityPath("entity-1"));
+        assertEquals("/objects/scape/entities", paths.getShardPath("entity-1"));
+    }
+
+    @Test
+    public void testShardedLayout() throws Exception {
+        /* md5("entity-1") starts with ae17 */
+        final EntityPathResolver paths = new EntityPathResolver("/objects/scape/entities", 2);
+        assertEquals("/objects/scape/entities/ae/17/entity-1", paths.getEntityPath("entity-1"));
+        assertEquals("/objects/scape/entities/ae/17", paths.getShardPath("entity-1"));
+        /* a smaller depth uses the leading segments of the same hash */
+        assertEquals("/objects/scape/entities/ae/entity-1", new EntityPathResolver("/objects/scape/entities", 1).getEntityPath("entity-1"));
+    }
+
+    @Test
+    public void testShardNames() throws Exception {
+        final EntityPathResolver paths = new EntityPathResolver("/objects/scape/entities", 2);
+        assertTrue(paths.isShardName("0f"));
+        assertFalse(paths.isShardName("0F"));
+        assertFalse(paths.isShardName("0g"));
+        assertFalse(paths.isShardName("entity-1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDepth() throws Exception {
+        new EntityPathResolver("/objects/scape/entities", 17);
+    }
+}
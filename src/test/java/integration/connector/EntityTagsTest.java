@@ -0,0 +1,55 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import eu.scape_project.util.EntityTags;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class EntityTagsTest {
+
+    @Test
+    public void testUnconditionalUpdate() throws Exception {
+        assertNull(EntityTags.matchedVersions(null, "entity-1", "entity"));
+        assertNull(EntityTags.matchedVersions("*", "entity-1", "entity"));
+    }
+
+    @Test
+    public void testMatchedVersions() throws Exception {
+        assertEquals(new HashSet<>(Arrays.asList(3)), EntityTags.matchedVersions("\"entity-1/version-3/entity\"", "entity-1", "entity"));
+        assertEquals(new HashSet<>(Arrays.asList(2, 4)),
+                EntityTags.matchedVersions("\"entity-1/version-2/entity;references\", \"entity-1/version-4/entity\"", "entity-1", "entity"));
+        assertEquals(new HashSet<>(Arrays.asList(5)),
+                EntityTags.matchedVersions("\"entity-1/version-5/metadata/entity-1/DESCRIPTIVE\"", "entity-1", "metadata/entity-1/DESCRIPTIVE"));
+    }
+
+    @Test
+    public void testForeignTags() throws Exception {
+        assertTrue(EntityTags.matchedVersions("\"entity-2/version-3/entity\"", "entity-1", "entity").isEmpty());
+        assertTrue(EntityTags.matchedVersions("\"entity-1/version-3/representation/rep-1\"", "entity-1", "entity").isEmpty());
+        assertTrue(EntityTags.matchedVersions("W/\"entity-1/version-3/entity\"", "entity-1", "entity").isEmpty());
+        assertTrue(EntityTags.matchedVersions("\"entity-1/version-x/entity\"", "entity-1", "entity").isEmpty());
+    }
+}
@@ -0,0 +1,165 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import eu.scape_project.service.FileStager;
+import eu.scape_project.util.PairtreeFileResolver;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class FileStagerTest {
+
+    @Test
+    public void testRelativeLocation() throws Exception {
+        final File staging = createTempDirectory();
+        /* a relative location is rejected if no pairtree is configured */
+        final FileStager stager = new FileStager(staging, 1, 1);
+        try {
+            final URI location = URI.create("relative.txt");
+            try (final FileStager.Batch batch = stager.stage("entity-1", Collections.<URI> emptyList())) {
+                batch.resolve(location);
+                fail("A relative location was resolved without a pairtree");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("relative.txt"));
+            }
+        } finally {
+            stager.shutdown();
+            FileUtils.deleteDirectory(staging);
+        }
+    }
+
+    @Test
+    public void testPairtreeLocation() throws Exception {
+        final File base = createTempDirectory();
+        final FileStager stager = new FileStager(base, 1, 1, new PairtreeFileResolver(base.getAbsolutePath(), "onb"));
+        try {
+            FileUtils.writeStringToFile(new File(base, "ON/B_/Z3/50/72/00/1/onb/00000001.txt"), "pairtree content");
+            final URI location = URI.create("00000001.txt");
+            try (final FileStager.Batch batch = stager.stage("ONB_Z35072001", Arrays.asList(location));
+                    final InputStream src = batch.open(location)) {
+                assertEquals("pairtree content", IOUtils.toString(src));
+            }
+        } finally {
+            stager.shutdown();
+            FileUtils.deleteDirectory(base);
+        }
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void testMissingLocalFile() throws Exception {
+        final File base = createTempDirectory();
+        final FileStager stager = new FileStager(base, 1, 1, new PairtreeFileResolver(base.getAbsolutePath(), "onb"));
+        try {
+            stager.stage("ONB_Z35072001", Arrays.asList(URI.create("00000002.txt")));
+        } finally {
+            stager.shutdown();
+            FileUtils.deleteDirectory(base);
+        }
+    }
+
+    @Test
+    public void testCloseWaitsForRunningDownload() throws Exception {
+        final File staging = createTempDirectory();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", new HttpHandler() {
+
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if (exchange.getRequestURI().getPath().equals("/first.bin")) {
+                    started.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                final byte[] body = "remote content".getBytes();
+                exchange.sendResponseHeaders(200, body.length);
+                try (final OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+        server.start();
+        final FileStager stager = new FileStager(staging, 1, 1);
+        try {
+            final String url = "http://localhost:" + server.getAddress().getPort();
+            final FileStager.Batch batch = stager.stage("entity-1", Arrays.asList(URI.create(url + "/first.bin")));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            /* the response is sent while the batch is being closed */
+            new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    release.countDown();
+                }
+            }).start();
+            batch.close();
+            assertEquals(0, staging.list().length);
+
+            /* the single worker has finished the first download once the second one has been staged */
+            final URI second = URI.create(url + "/second.bin");
+            try (final FileStager.Batch next = stager.stage("entity-2", Arrays.asList(second)); final InputStream src = next.open(second)) {
+                assertEquals("remote content", IOUtils.toString(src));
+                assertEquals(1, staging.list().length);
+            }
+            assertEquals(0, staging.list().length);
+        } finally {
+            release.countDown();
+            stager.shutdown();
+            server.stop(0);
+            FileUtils.deleteDirectory(staging);
+        }
+    }
+
+    private static File createTempDirectory() throws Exception {
+        final File dir = File.createTempFile("stager-", "");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+}
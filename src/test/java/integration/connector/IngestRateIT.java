@@ -0,0 +1,66 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assume.assumeTrue;
+
+import java.util.UUID;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import eu.scape_project.model.TestUtil;
+
+/**
+ * Measures the ingest rate while the number of entities in the repository
+ * grows. The benchmark is only run if the number of entities to ingest is set
+ * via <code>-Dscape.benchmark.entities=100000</code>; the rate of every batch
+ * is logged so that a slowdown with a growing entity folder shows up
+ *
+ * @author frank asseg
+ *
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(locations = {"/integration-tests/managed-content/test-container.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class IngestRateIT extends AbstractIT {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IngestRateIT.class);
+
+    private static final int BATCH_SIZE = Integer.getInteger("scape.benchmark.batch", 1000);
+
+    @Test
+    public void testIngestRate() throws Exception {
+        final int total = Integer.getInteger("scape.benchmark.entities", 0);
+        assumeTrue(total > 0);
+
+        final String prefix = "bench-" + UUID.randomUUID() + "-";
+        long batchStart = System.currentTimeMillis();
+        for (int i = 1; i <= total; i++) {
+            this.postEntity(TestUtil.createTestEntity(prefix + i));
+            if (i % BATCH_SIZE == 0 || i == total) {
+                final long time = System.currentTimeMillis() - batchStart;
+                final int batch = (i % BATCH_SIZE == 0) ? BATCH_SIZE : i % BATCH_SIZE;
+                LOG.info("{} entities ingested, {} entities/s in the last batch", i, String.format("%.1f", batch * 1000d / Math.max(1, time)));
+                batchStart = System.currentTimeMillis();
+            }
+        }
+    }
+}
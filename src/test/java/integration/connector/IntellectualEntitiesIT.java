@@ -21,8 +21,10 @@ import java.io.ByteArrayOutputStream;
 import java.net.URI;
 import java.util.Arrays;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
@@ -44,6 +46,8 @@ import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import edu.harvard.hul.ois.xml.ns.fits.fits_output.Fits;
 import eu.scape_project.model.*;
 import eu.scape_project.model.LifecycleState.State;
+import eu.scape_project.service.ConnectorService;
+import eu.scape_project.service.EntityPathResolver;
 import gov.loc.mix.v20.Mix;
 import info.lc.xmlns.textmd_v3.TextMD;
 
@@ -789,4 +793,490 @@ public class IntellectualEntitiesIT extends AbstractIT {
         get.releaseConnection();
 
     }
+
+    @Test
+    public void testIngestAndRetrieveFileRanges() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-28");
+        this.postEntity(ie);
+
+        Representation rep = ie.getRepresentations().get(0);
+        File f = rep.getFiles().get(0);
+        String uri = SCAPE_URL + "/file/entity-28/" + rep.getIdentifier().getValue() + "/" + f.getIdentifier().getValue();
+        byte[] orig = IOUtils.toByteArray(this.getClass().getClassLoader().getResourceAsStream("scape_logo.png"));
+
+        /* a single range */
+        HttpGet get = new HttpGet(uri);
+        get.addHeader("Range", "bytes=0-99");
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(206, resp.getStatusLine().getStatusCode());
+        assertEquals("bytes 0-99/" + orig.length, resp.getFirstHeader("Content-Range").getValue());
+        assertArrayEquals(Arrays.copyOfRange(orig, 0, 100), EntityUtils.toByteArray(resp.getEntity()));
+        String etag = resp.getFirstHeader("ETag").getValue();
+        get.releaseConnection();
+
+        /* multiple ranges are sent as a multipart document */
+        get = new HttpGet(uri);
+        get.addHeader("Range", "bytes=0-9,-10");
+        resp = this.client.execute(get);
+        assertEquals(206, resp.getStatusLine().getStatusCode());
+        assertTrue(resp.getFirstHeader("Content-Type").getValue().startsWith("multipart/byteranges; boundary="));
+        String multipart = new String(EntityUtils.toByteArray(resp.getEntity()), "ISO-8859-1");
+        assertTrue(multipart.contains("Content-Range: bytes 0-9/" + orig.length));
+        assertTrue(multipart.contains("Content-Range: bytes " + (orig.length - 10) + "-" + (orig.length - 1) + "/" + orig.length));
+        assertTrue(multipart.contains(new String(Arrays.copyOfRange(orig, orig.length - 10, orig.length), "ISO-8859-1")));
+        get.releaseConnection();
+
+        /* a range beyond the content can not be satisfied */
+        get = new HttpGet(uri);
+        get.addHeader("Range", "bytes=" + orig.length + "-");
+        resp = this.client.execute(get);
+        assertEquals(416, resp.getStatusLine().getStatusCode());
+        assertEquals("bytes */" + orig.length, resp.getFirstHeader("Content-Range").getValue());
+        get.releaseConnection();
+
+        /* an invalid range header is ignored */
+        get = new HttpGet(uri);
+        get.addHeader("Range", "bytes=--5");
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertArrayEquals(orig, EntityUtils.toByteArray(resp.getEntity()));
+        get.releaseConnection();
+
+        /* a range is only served if If-Range matches the current tag */
+        get = new HttpGet(uri);
+        get.addHeader("Range", "bytes=0-99");
+        get.addHeader("If-Range", etag);
+        resp = this.client.execute(get);
+        assertEquals(206, resp.getStatusLine().getStatusCode());
+        get.releaseConnection();
+
+        get = new HttpGet(uri);
+        get.addHeader("Range", "bytes=0-99");
+        get.addHeader("If-Range", "\"entity-28/version-0/outdated\"");
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertArrayEquals(orig, EntityUtils.toByteArray(resp.getEntity()));
+        get.releaseConnection();
+    }
+
+    @Test
+    public void testConditionalUpdates() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-29");
+        this.postEntity(ie);
+
+        HttpGet get = new HttpGet(SCAPE_URL + "/entity/entity-29");
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        String entityTag = resp.getFirstHeader("ETag").getValue();
+        get.releaseConnection();
+
+        /* an update based on the current version succeeds and returns the tag of the new version */
+        IntellectualEntity update = new IntellectualEntity.Builder(ie).descriptive(createDescriptive("Conditional update")).build();
+        resp = put(SCAPE_URL + "/entity/entity-29", update, entityTag);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        String updatedTag = resp.getFirstHeader("ETag").getValue();
+        assertEquals("\"entity-29/version-2/entity\"", updatedTag);
+
+        /* the tag of the previous version is outdated now */
+        resp = put(SCAPE_URL + "/entity/entity-29", update, entityTag);
+        assertEquals(412, resp.getStatusLine().getStatusCode());
+
+        /* a wildcard or a missing tag updates unconditionally */
+        resp = put(SCAPE_URL + "/entity/entity-29", update, "*");
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        resp = put(SCAPE_URL + "/entity/entity-29", update, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertEquals("\"entity-29/version-4/entity\"", resp.getFirstHeader("ETag").getValue());
+
+        /* representations */
+        Representation rep = new Representation.Builder(ie.getRepresentations().get(0)).title("conditional title").build();
+        String repUri = SCAPE_URL + "/representation/entity-29/" + rep.getIdentifier().getValue();
+        get = new HttpGet(repUri);
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        String repTag = resp.getFirstHeader("ETag").getValue();
+        get.releaseConnection();
+        resp = put(repUri, rep, "\"entity-29/version-1/representation/" + rep.getIdentifier().getValue() + "\"");
+        assertEquals(412, resp.getStatusLine().getStatusCode());
+        resp = put(repUri, rep, repTag);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertEquals("\"entity-29/version-5/representation/" + rep.getIdentifier().getValue() + "\"", resp.getFirstHeader("ETag").getValue());
+        resp = put(repUri, rep, "*");
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+
+        /* metadata */
+        String mdUri = SCAPE_URL + "/metadata/entity-29/DESCRIPTIVE";
+        get = new HttpGet(mdUri);
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        String mdTag = resp.getFirstHeader("ETag").getValue();
+        get.releaseConnection();
+        resp = put(mdUri, createDescriptive("Conditional metadata"), repTag);
+        assertEquals(412, resp.getStatusLine().getStatusCode());
+        resp = put(mdUri, createDescriptive("Conditional metadata"), mdTag);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertEquals("\"entity-29/version-7/metadata/entity-29/DESCRIPTIVE\"", resp.getFirstHeader("ETag").getValue());
+        resp = put(mdUri, createDescriptive("Conditional metadata"), mdTag);
+        assertEquals(412, resp.getStatusLine().getStatusCode());
+        resp = put(mdUri, createDescriptive("Unconditional metadata"), null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+
+        /* a rejected update does not create a version */
+        get = new HttpGet(SCAPE_URL + "/entity/entity-29");
+        resp = this.client.execute(get);
+        assertEquals("\"entity-29/version-8/entity\"", resp.getFirstHeader("ETag").getValue());
+        get.releaseConnection();
+    }
+
+    @Test
+    public void testConditionalRetrieval() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-30");
+        this.postEntity(ie);
+        Representation rep = ie.getRepresentations().get(0);
+        File f = rep.getFiles().get(0);
+        String[] current = new String[] {
+                SCAPE_URL + "/entity/entity-30",
+                SCAPE_URL + "/representation/entity-30/" + rep.getIdentifier().getValue(),
+                SCAPE_URL + "/file/entity-30/" + rep.getIdentifier().getValue() + "/" + f.getIdentifier().getValue(),
+                SCAPE_URL + "/metadata/entity-30/DESCRIPTIVE" };
+        String[] versioned = new String[] {
+                SCAPE_URL + "/entity/entity-30/1",
+                SCAPE_URL + "/representation/entity-30/" + rep.getIdentifier().getValue() + "/1",
+                SCAPE_URL + "/file/entity-30/" + rep.getIdentifier().getValue() + "/" + f.getIdentifier().getValue() + "/1" };
+
+        /* the current objects have to be revalidated */
+        for (String uri : current) {
+            String tag = assertConditionalGet(uri);
+            assertEquals("no-cache", fetchHeader(uri, "Cache-Control"));
+            assertTrue(tag.startsWith("\"entity-30/version-1/"));
+        }
+        /* an explicit version never changes */
+        for (String uri : versioned) {
+            assertConditionalGet(uri);
+            assertEquals("public, max-age=31536000, immutable", fetchHeader(uri, "Cache-Control"));
+        }
+
+        /* an update changes the tags of the current objects only */
+        String entityTag = fetchHeader(current[0], "ETag");
+        String versionTag = fetchHeader(versioned[0], "ETag");
+        HttpResponse resp = put(current[0], new IntellectualEntity.Builder(ie).descriptive(createDescriptive("Cached")).build(), null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        HttpGet get = new HttpGet(current[0]);
+        get.addHeader("If-None-Match", entityTag);
+        resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertFalse(entityTag.equals(resp.getFirstHeader("ETag").getValue()));
+        get.releaseConnection();
+        get = new HttpGet(versioned[0]);
+        get.addHeader("If-None-Match", versionTag);
+        resp = this.client.execute(get);
+        assertEquals(304, resp.getStatusLine().getStatusCode());
+        get.releaseConnection();
+
+        /* a version which does not exist is not found, even if the tag matches */
+        get = new HttpGet(SCAPE_URL + "/entity/entity-30/9");
+        get.addHeader("If-None-Match", "\"entity-30/version-9/entity\"");
+        resp = this.client.execute(get);
+        assertEquals(404, resp.getStatusLine().getStatusCode());
+        get.releaseConnection();
+    }
+
+    /* fetch an object and check that requests with the returned tag or date are answered with 304 */
+    private String assertConditionalGet(String uri) throws Exception {
+        HttpGet get = new HttpGet(uri);
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        String tag = resp.getFirstHeader("ETag").getValue();
+        String lastModified = resp.getFirstHeader("Last-Modified").getValue();
+        get.releaseConnection();
+
+        get = new HttpGet(uri);
+        get.addHeader("If-None-Match", tag);
+        resp = this.client.execute(get);
+        assertEquals(304, resp.getStatusLine().getStatusCode());
+        assertEquals(tag, resp.getFirstHeader("ETag").getValue());
+        assertEquals(lastModified, resp.getFirstHeader("Last-Modified").getValue());
+        assertNull(resp.getEntity());
+        get.releaseConnection();
+
+        get = new HttpGet(uri);
+        get.addHeader("If-Modified-Since", lastModified);
+        resp = this.client.execute(get);
+        assertEquals(304, resp.getStatusLine().getStatusCode());
+        assertNull(resp.getEntity());
+        get.releaseConnection();
+        return tag;
+    }
+
+    private String fetchHeader(String uri, String header) throws Exception {
+        HttpGet get = new HttpGet(uri);
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        String value = resp.getFirstHeader(header).getValue();
+        get.releaseConnection();
+        return value;
+    }
+
+    @Test
+    public void testUpdateSharesUnchangedFiles() throws Exception {
+        byte[] logo = IOUtils.toByteArray(this.getClass().getClassLoader().getResourceAsStream("scape_logo.png"));
+        java.io.File source = createSourceFile(logo);
+        IntellectualEntity ie = createTestEntityWithSource("entity-31", source);
+        this.postEntity(ie);
+        Representation rep = ie.getRepresentations().get(0);
+        String fileUri = SCAPE_URL + "/file/entity-31/" + rep.getIdentifier().getValue() + "/" + rep.getFiles().get(0).getIdentifier().getValue();
+        byte[] version1 = fetchBytes(SCAPE_URL + "/entity/entity-31/1");
+
+        /* the source changes, but the file is not fetched again since its location did not change */
+        FileUtils.writeByteArrayToFile(source, "changed content".getBytes("UTF-8"));
+        HttpResponse resp = put(SCAPE_URL + "/entity/entity-31", new IntellectualEntity.Builder(ie).descriptive(createDescriptive("Shared")).build(), null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertArrayEquals(logo, fetchBytes(fileUri + "/2"));
+        assertArrayEquals(logo, fetchBytes(fileUri + "/1"));
+
+        /* the first version is unchanged and the second one differs in the descriptive metadata only */
+        assertArrayEquals(version1, fetchBytes(SCAPE_URL + "/entity/entity-31/1"));
+        IntellectualEntity v1 = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(version1));
+        IntellectualEntity v2 = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(fetchBytes(SCAPE_URL + "/entity/entity-31/2")));
+        assertEquals("Shared", ((ElementContainer) v2.getDescriptive()).getAny().get(0).getValue().getContent().get(0));
+        assertFalse(Arrays.equals(serialize(v1.getDescriptive()), serialize(v2.getDescriptive())));
+        assertArrayEquals(serialize(v1.getRepresentations().get(0)), serialize(v2.getRepresentations().get(0)));
+
+        /* a file with a new location is fetched */
+        java.io.File changed = createSourceFile("new content".getBytes("UTF-8"));
+        IntellectualEntity ie3 = createTestEntityWithSource("entity-31", changed);
+        resp = put(SCAPE_URL + "/entity/entity-31", ie3, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertArrayEquals("new content".getBytes("UTF-8"), fetchBytes(fileUri + "/3"));
+        assertArrayEquals(logo, fetchBytes(fileUri + "/2"));
+    }
+
+    @Test
+    public void testDeltaUpdatesKeepPreviousVersions() throws Exception {
+        byte[] logo = IOUtils.toByteArray(this.getClass().getClassLoader().getResourceAsStream("scape_logo.png"));
+        java.io.File source = createSourceFile(logo);
+        IntellectualEntity ie = createTestEntityWithSource("entity-32", source);
+        this.postEntity(ie);
+        Representation rep = ie.getRepresentations().get(0);
+        String repUri = SCAPE_URL + "/representation/entity-32/" + rep.getIdentifier().getValue();
+        String fileUri = SCAPE_URL + "/file/entity-32/" + rep.getIdentifier().getValue() + "/" + rep.getFiles().get(0).getIdentifier().getValue();
+        byte[] version1 = fetchBytes(SCAPE_URL + "/entity/entity-32/1");
+        FileUtils.writeByteArrayToFile(source, "changed content".getBytes("UTF-8"));
+
+        /* a metadata update only changes the metadata set */
+        HttpResponse resp = put(SCAPE_URL + "/metadata/entity-32/DESCRIPTIVE", createDescriptive("Delta"), null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertArrayEquals(version1, fetchBytes(SCAPE_URL + "/entity/entity-32/1"));
+        IntellectualEntity v1 = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(version1));
+        IntellectualEntity v2 = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(fetchBytes(SCAPE_URL + "/entity/entity-32/2")));
+        assertEquals("Delta", ((ElementContainer) v2.getDescriptive()).getAny().get(0).getValue().getContent().get(0));
+        assertArrayEquals(serialize(v1.getRepresentations().get(0)), serialize(v2.getRepresentations().get(0)));
+
+        /* a representation update only changes the representation */
+        byte[] rep2 = fetchBytes(repUri + "/2");
+        Representation updated = new Representation.Builder(rep).title("delta title").build();
+        resp = put(repUri, updated, null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        assertArrayEquals(rep2, fetchBytes(repUri + "/2"));
+        Representation v3 = this.marshaller.deserialize(Representation.class, new ByteArrayInputStream(fetchBytes(repUri + "/3")));
+        assertEquals("delta title", v3.getTitle());
+        Representation expected = new Representation.Builder(this.marshaller.deserialize(Representation.class, new ByteArrayInputStream(rep2))).title(
+                "delta title").build();
+        assertArrayEquals(serialize(expected), serialize(v3));
+        IntellectualEntity entity3 = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(fetchBytes(SCAPE_URL + "/entity/entity-32/3")));
+        assertArrayEquals(serialize(v2.getDescriptive()), serialize(entity3.getDescriptive()));
+
+        /* the unchanged file has not been fetched from its source again */
+        assertArrayEquals(logo, fetchBytes(fileUri + "/3"));
+        assertArrayEquals(logo, fetchBytes(fileUri + "/1"));
+    }
+
+    @Test
+    public void testRetrieveProjections() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-33");
+        this.postEntity(ie);
+        IntellectualEntity full = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(fetchBytes(SCAPE_URL + "/entity/entity-33")));
+        String fullTag = fetchHeader(SCAPE_URL + "/entity/entity-33", "ETag");
+
+        /* the structure only */
+        IntellectualEntity structure = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(fetchBytes(SCAPE_URL
+                + "/entity/entity-33?include=structure")));
+        assertNull(structure.getDescriptive());
+        assertEquals(full.getRepresentations().size(), structure.getRepresentations().size());
+        for (int i = 0; i < full.getRepresentations().size(); i++) {
+            Representation expected = full.getRepresentations().get(i);
+            Representation r = structure.getRepresentations().get(i);
+            assertEquals(expected.getIdentifier().getValue(), r.getIdentifier().getValue());
+            assertNull(r.getTechnical());
+            assertNull(r.getSource());
+            assertNull(r.getProvenance());
+            assertNull(r.getRights());
+            assertEquals(expected.getFiles().size(), r.getFiles().size());
+            for (int j = 0; j < expected.getFiles().size(); j++) {
+                assertEquals(expected.getFiles().get(j).getIdentifier().getValue(), r.getFiles().get(j).getIdentifier().getValue());
+                assertEquals(expected.getFiles().get(j).getUri(), r.getFiles().get(j).getUri());
+                assertNull(r.getFiles().get(j).getTechnical());
+            }
+        }
+
+        /* the requested metadata only */
+        String uri = SCAPE_URL + "/entity/entity-33?include=descriptive,source";
+        IntellectualEntity partial = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(fetchBytes(uri)));
+        assertSamePart(full.getDescriptive(), partial.getDescriptive());
+        Representation fullRep = full.getRepresentations().get(0);
+        Representation partialRep = partial.getRepresentations().get(0);
+        assertSamePart(fullRep.getSource(), partialRep.getSource());
+        assertNull(partialRep.getTechnical());
+        assertNull(partialRep.getProvenance());
+        assertNull(partialRep.getRights());
+        assertFalse(fullTag.equals(fetchHeader(uri, "ETag")));
+
+        /* include=all is the complete entity */
+        assertArrayEquals(serialize(full), serialize(this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(fetchBytes(SCAPE_URL
+                + "/entity/entity-33?include=all")))));
+
+        /* representations */
+        Representation technical = this.marshaller.deserialize(Representation.class, new ByteArrayInputStream(fetchBytes(SCAPE_URL
+                + "/representation/entity-33/" + fullRep.getIdentifier().getValue() + "?include=technical")));
+        assertSamePart(fullRep.getTechnical(), technical.getTechnical());
+        assertNull(technical.getSource());
+        assertNull(technical.getProvenance());
+        assertNull(technical.getRights());
+        assertEquals(fullRep.getFiles().size(), technical.getFiles().size());
+
+        /* an unknown part is rejected */
+        HttpGet get = new HttpGet(SCAPE_URL + "/entity/entity-33?include=unknown");
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(400, resp.getStatusLine().getStatusCode());
+        get.releaseConnection();
+    }
+
+    private void assertSamePart(Object expected, Object actual) throws Exception {
+        if (expected == null) {
+            assertNull(actual);
+        } else {
+            assertNotNull(actual);
+            assertArrayEquals(serialize(expected), serialize(actual));
+        }
+    }
+
+    @Test
+    public void testSnapshotMatchesMarshalledEntity() throws Exception {
+        IntellectualEntity ie = TestUtil.createTestEntity("entity-34");
+        this.postEntity(ie);
+        HttpResponse resp = put(SCAPE_URL + "/entity/entity-34", new IntellectualEntity.Builder(ie).descriptive(createDescriptive("Snapshot")).build(), null);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+
+        /* the test container stores the entities in two levels of shard folders */
+        String entityPath = new EntityPathResolver(ConnectorService.ENTITY_FOLDER, 2).getEntityPath("entity-34");
+        for (int version = 1; version <= 2; version++) {
+            String uri = SCAPE_URL + "/entity/entity-34/" + version;
+            byte[] snapshot = fetchBytes(uri);
+
+            /* without the snapshot the entity is assembled and marshalled on request */
+            HttpDelete delete = new HttpDelete(FEDORA_URL + entityPath + "/version-" + version + "/" + ConnectorService.SNAPSHOT_DATASTREAM);
+            resp = this.client.execute(delete);
+            assertEquals(204, resp.getStatusLine().getStatusCode());
+            delete.releaseConnection();
+
+            assertArrayEquals(snapshot, fetchBytes(uri));
+        }
+    }
+
+    @Test
+    public void testStreamingIngestMatchesJaxbIngest() throws Exception {
+        /* several representations whose metadata is referenced by ADMID lists, and files with bit streams */
+        IntellectualEntity jaxb = TestUtil.createTestEntityWithMultipleRepresentations("entity-35");
+        IntellectualEntity streaming = new IntellectualEntity.Builder(jaxb).identifier(new Identifier("entity-36")).build();
+        this.postEntity(jaxb);
+        HttpPost post = new HttpPost(SCAPE_URL + "/entity");
+        post.addHeader("X-Ingest-Mode", "streaming");
+        byte[] mets = serialize(streaming);
+        post.setEntity(new InputStreamEntity(new ByteArrayInputStream(mets), mets.length, ContentType.TEXT_XML));
+        HttpResponse resp = this.client.execute(post);
+        assertEquals(201, resp.getStatusLine().getStatusCode());
+        assertEquals("entity-36", EntityUtils.toString(resp.getEntity()));
+        post.releaseConnection();
+
+        IntellectualEntity expected = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(fetchBytes(SCAPE_URL + "/entity/entity-35")));
+        IntellectualEntity actual = this.marshaller.deserialize(IntellectualEntity.class, new ByteArrayInputStream(fetchBytes(SCAPE_URL + "/entity/entity-36")));
+        assertSamePart(expected.getDescriptive(), actual.getDescriptive());
+        assertEquals(expected.getRepresentations().size(), actual.getRepresentations().size());
+        for (int i = 0; i < expected.getRepresentations().size(); i++) {
+            /* the file URIs point into the entity's own folder and differ between the two */
+            assertSamePart(withoutFileUris(expected.getRepresentations().get(i)), withoutFileUris(actual.getRepresentations().get(i)));
+            for (int j = 0; j < expected.getRepresentations().get(i).getFiles().size(); j++) {
+                File f = expected.getRepresentations().get(i).getFiles().get(j);
+                File g = actual.getRepresentations().get(i).getFiles().get(j);
+                assertEquals(f.getBitStreams().size(), g.getBitStreams().size());
+                for (int k = 0; k < f.getBitStreams().size(); k++) {
+                    assertEquals(f.getBitStreams().get(k).getType(), g.getBitStreams().get(k).getType());
+                }
+                String path = "/" + expected.getRepresentations().get(i).getIdentifier().getValue() + "/" + f.getIdentifier().getValue();
+                assertArrayEquals(fetchBytes(SCAPE_URL + "/file/entity-35" + path), fetchBytes(SCAPE_URL + "/file/entity-36" + path));
+            }
+        }
+    }
+
+    private static Representation withoutFileUris(Representation rep) {
+        java.util.List<File> files = new java.util.ArrayList<>();
+        for (File f : rep.getFiles()) {
+            files.add(new File.Builder(f).uri(null).build());
+        }
+        return new Representation.Builder(rep).files(files).build();
+    }
+
+    private static java.io.File createSourceFile(byte[] data) throws Exception {
+        java.io.File source = java.io.File.createTempFile("scape-source-", ".bin");
+        source.deleteOnExit();
+        FileUtils.writeByteArrayToFile(source, data);
+        return source;
+    }
+
+    /* the test entity with the content of its file read from a local file */
+    private static IntellectualEntity createTestEntityWithSource(String id, java.io.File source) {
+        IntellectualEntity ie = TestUtil.createTestEntity(id);
+        Representation rep = ie.getRepresentations().get(0);
+        File f = new File.Builder(rep.getFiles().get(0)).uri(source.toURI()).build();
+        rep = new Representation.Builder(rep).files(Arrays.asList(f)).build();
+        return new IntellectualEntity.Builder(ie).representations(Arrays.asList(rep)).build();
+    }
+
+    private byte[] fetchBytes(String uri) throws Exception {
+        HttpGet get = new HttpGet(uri);
+        HttpResponse resp = this.client.execute(get);
+        assertEquals(200, resp.getStatusLine().getStatusCode());
+        byte[] data = EntityUtils.toByteArray(resp.getEntity());
+        get.releaseConnection();
+        return data;
+    }
+
+    private byte[] serialize(Object o) throws Exception {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(o, sink);
+        return sink.toByteArray();
+    }
+
+    private HttpResponse put(String uri, Object body, String ifMatch) throws Exception {
+        HttpPut put = new HttpPut(uri);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        this.marshaller.serialize(body, sink);
+        put.setEntity(new InputStreamEntity(new ByteArrayInputStream(sink.toByteArray()), sink.size(), ContentType.TEXT_XML));
+        if (ifMatch != null) {
+            put.addHeader("If-Match", ifMatch);
+        }
+        HttpResponse resp = this.client.execute(put);
+        EntityUtils.consume(resp.getEntity());
+        put.releaseConnection();
+        return resp;
+    }
+
+    private static ElementContainer createDescriptive(String title) {
+        org.purl.dc.elements._1.ObjectFactory dcFac = new org.purl.dc.elements._1.ObjectFactory();
+        ElementContainer cnt = dcFac.createElementContainer();
+        SimpleLiteral lit = new SimpleLiteral();
+        lit.getContent().add(title);
+        cnt.getAny().add(dcFac.createTitle(lit));
+        return cnt;
+    }
 }
@@ -0,0 +1,111 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.bind.Marshaller;
+
+import org.junit.Test;
+import org.purl.dc.elements._1.ElementContainer;
+import org.purl.dc.elements._1.ObjectFactory;
+import org.purl.dc.elements._1.SimpleLiteral;
+
+import eu.scape_project.service.MarshallerService;
+import eu.scape_project.util.ScapeMarshaller;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class MarshallerServiceTest {
+
+    @Test
+    public void testMarshallerIsReusedPerThread() throws Exception {
+        final MarshallerService service = new MarshallerService();
+        final ScapeMarshaller first = service.getMarshaller();
+        assertSame(first, service.getMarshaller());
+        assertSame(first, service.getMarshaller());
+        assertEquals(1, service.getContextsCreated());
+        assertEquals(2, service.getHits());
+    }
+
+    @Test
+    public void testMarshallerIsNotSharedBetweenThreads() throws Exception {
+        final MarshallerService service = new MarshallerService();
+        final AtomicReference<ScapeMarshaller> other = new AtomicReference<>();
+        final Thread t = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    other.set(service.getMarshaller());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        t.start();
+        t.join();
+        assertNotSame(other.get(), service.getMarshaller());
+        assertEquals(2, service.getContextsCreated());
+    }
+
+    @Test
+    public void testMetadataContextIsSharedBetweenThreads() throws Exception {
+        final MarshallerService service = new MarshallerService();
+        final AtomicReference<Marshaller> other = new AtomicReference<>();
+        final Thread t = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    other.set(service.getMetadataMarshaller());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        t.start();
+        t.join();
+        final Marshaller marshaller = service.getMetadataMarshaller();
+        assertNotSame(other.get(), marshaller);
+        assertSame(marshaller, service.getMetadataMarshaller());
+        service.getMetadataUnmarshaller();
+        assertEquals(1, service.getContextsCreated());
+    }
+
+    @Test
+    public void testMetadataRoundTrip() throws Exception {
+        final MarshallerService service = new MarshallerService();
+        final ObjectFactory dcFac = new ObjectFactory();
+        final ElementContainer cnt = dcFac.createElementContainer();
+        final SimpleLiteral title = new SimpleLiteral();
+        title.getContent().add("A test title");
+        cnt.getAny().add(dcFac.createTitle(title));
+
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        service.serializeMetadata(cnt, sink);
+        final Object fetched = service.deserializeMetadata(new ByteArrayInputStream(sink.toByteArray()));
+        assertEquals(ElementContainer.class, fetched.getClass());
+        assertEquals(1, ((ElementContainer) fetched).getAny().size());
+        assertEquals(1, service.getContextsCreated());
+    }
+}
@@ -0,0 +1,157 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.scape_project.service.MetsStreamParser;
+import eu.scape_project.service.MetsStreamParser.FileSection;
+import eu.scape_project.service.MetsStreamParser.Kind;
+import eu.scape_project.service.MetsStreamParser.MetadataSection;
+import eu.scape_project.service.MetsStreamParser.RepresentationSection;
+import eu.scape_project.service.MetsStreamParser.StreamSection;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class MetsStreamParserTest {
+
+    @Test
+    public void testParseMinimalEntity() throws Exception {
+        final List<String> events = new ArrayList<>();
+        final List<RepresentationSection> reps = new ArrayList<>();
+        try (MetsStreamParser parser = new MetsStreamParser(this.getClass().getClassLoader().getResourceAsStream("entity-minimal.xml"), null)) {
+            parser.parse(new MetsStreamParser.Handler() {
+
+                @Override
+                public void startEntity(String id) {
+                    events.add("entity:" + id);
+                }
+
+                @Override
+                public void descriptive(MetadataSection md) {
+                    events.add("descriptive:" + md.getElement().getLocalPart());
+                }
+
+                @Override
+                public void fileDeclared(FileSection file) {
+                    events.add("file:" + file.getId());
+                }
+
+                @Override
+                public void representation(RepresentationSection rep) {
+                    events.add("representation:" + rep.getId());
+                    reps.add(rep);
+                }
+
+                @Override
+                public void endEntity() {
+                    events.add("end");
+                }
+            });
+
+            assertEquals("[entity:entity-1, descriptive:dublin-core, file:file-1, representation:representation-1, end]", events.toString());
+            final RepresentationSection rep = reps.get(0);
+            assertEquals("textMD", rep.getMetadata(Kind.TECHNICAL).getElement().getLocalPart());
+            assertEquals("rights", rep.getMetadata(Kind.RIGHTS).getElement().getLocalPart());
+            assertEquals("premis", rep.getMetadata(Kind.PROVENANCE).getElement().getLocalPart());
+            assertNull(rep.getMetadata(Kind.DESCRIPTIVE));
+
+            final FileSection f = rep.getFiles().get(0);
+            assertEquals("image/png", f.getMimetype());
+            assertEquals("header_image", f.getTitle());
+            assertEquals("bitstream-1", f.getStreams().get(0).getId());
+
+            /* the spooled metadata is a standalone document */
+            final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+            rep.getMetadata(Kind.SOURCE).writeTo(sink);
+            final String xml = sink.toString("UTF-8");
+            assertTrue(xml.contains("xmlns:dc=\"http://purl.org/dc/elements/1.1/\""));
+            assertTrue(xml.contains("<dc:title>Source object 1</dc:title>"));
+        }
+    }
+
+    @Test
+    public void testParseAllStructMaps() throws Exception {
+        final String mets = "<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" "
+                + "xmlns:dc=\"http://purl.org/dc/elements/1.1/\" OBJID=\"entity-2\">"
+                + "<mets:amdSec>"
+                + "<mets:techMD ID=\"tech-1\"><mets:mdWrap><mets:xmlData><dc:title>tech</dc:title></mets:xmlData></mets:mdWrap></mets:techMD>"
+                + "<mets:rightsMD ID=\"rights-1\"><mets:mdWrap><mets:xmlData><dc:rights>rights</dc:rights></mets:xmlData></mets:mdWrap></mets:rightsMD>"
+                + "</mets:amdSec>"
+                + "<mets:fileSec><mets:fileGrp>"
+                + "<mets:file ID=\"file-1\"><mets:FLocat xlink:href=\"http://example.com/1\"/>"
+                + "<mets:stream ID=\"bs-1\" streamType=\"STREAM\" ADMID=\"rights-1 tech-1\"/><mets:stream ID=\"bs-2\"/></mets:file>"
+                + "<mets:file ID=\"file-2\"><mets:FLocat xlink:href=\"http://example.com/2\"/></mets:file>"
+                + "</mets:fileGrp></mets:fileSec>"
+                + "<mets:structMap><mets:div><mets:div ID=\"rep-1\" ADMID=\"rights-1 tech-1\"><mets:fptr FILEID=\"file-1\"/></mets:div></mets:div></mets:structMap>"
+                + "<mets:structMap><mets:div><mets:div ID=\"rep-2\"><mets:fptr FILEID=\"file-2\"/></mets:div>"
+                + "<mets:div ID=\"rep-1\"><mets:fptr FILEID=\"file-2\"/></mets:div></mets:div></mets:structMap>"
+                + "</mets:mets>";
+        final List<RepresentationSection> reps = new ArrayList<>();
+        try (MetsStreamParser parser = new MetsStreamParser(new ByteArrayInputStream(mets.getBytes("UTF-8")), null)) {
+            parser.parse(new MetsStreamParser.Handler() {
+
+                @Override
+                public void startEntity(String id) {
+                }
+
+                @Override
+                public void descriptive(MetadataSection md) {
+                }
+
+                @Override
+                public void fileDeclared(FileSection file) {
+                }
+
+                @Override
+                public void representation(RepresentationSection rep) {
+                    reps.add(rep);
+                }
+
+                @Override
+                public void endEntity() {
+                }
+            });
+
+            /* the representations of every structural map are read once */
+            assertEquals(2, reps.size());
+            assertEquals("rep-1", reps.get(0).getId());
+            assertEquals("rep-2", reps.get(1).getId());
+            assertEquals(1, reps.get(0).getFiles().size());
+            assertEquals("file-1", reps.get(0).getFiles().get(0).getId());
+            assertEquals("file-2", reps.get(1).getFiles().get(0).getId());
+
+            /* the ADMID lists are resolved by kind */
+            assertEquals(Kind.TECHNICAL, reps.get(0).getMetadata(Kind.TECHNICAL).getKind());
+            assertEquals(Kind.RIGHTS, reps.get(0).getMetadata(Kind.RIGHTS).getKind());
+
+            final List<StreamSection> streams = reps.get(0).getFiles().get(0).getStreams();
+            assertEquals("STREAM", streams.get(0).getType());
+            assertEquals(Kind.TECHNICAL, streams.get(0).getTechnical().getKind());
+            assertNull(streams.get(1).getType());
+            assertNull(streams.get(1).getTechnical());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import eu.scape_project.util.PairtreeFileResolver;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class PairtreeFileResolverTest {
+
+    @Test
+    public void testPairPath() throws Exception {
+        assertEquals("ON/B_/Z3/50/72/00/1", PairtreeFileResolver.toPairPath("ONB_Z35072001"));
+        /* the examples of the pairtree specification */
+        assertEquals("ar/k+/=1/30/30/=x/t2/,1/2", PairtreeFileResolver.toPairPath("ark:/13030/xt2.12"));
+        assertEquals("wh/at/-t/he/-^/2a/@^/3f/#!/^5/e!/^3/f", PairtreeFileResolver.toPairPath("what-the-*@?#!^!?"));
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        assertEquals(new File("/tmp/scape/onb/ON/B_/Z3/50/72/00/1/onb/00000001.jp2"),
+                new PairtreeFileResolver("/tmp/scape/onb", "onb").resolve("ONB_Z35072001", "00000001.jp2"));
+        assertEquals(new File("/tmp/scape/onb/ab/c/00000001.txt"), new PairtreeFileResolver("/tmp/scape/onb", "").resolve("abc", "00000001.txt"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectTraversal() throws Exception {
+        new PairtreeFileResolver("/tmp/scape/onb", "onb").resolve("ONB_Z35072001", "../../../../../../../../../etc/passwd");
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectOtherObject() throws Exception {
+        /* the sibling ONB_Z35072002 is still inside the pairtree */
+        new PairtreeFileResolver("/tmp/scape/onb", "onb").resolve("ONB_Z35072001", "../../2/onb/00000001.jp2");
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectEncapsulatingDirectory() throws Exception {
+        new PairtreeFileResolver("/tmp/scape/onb", "onb").resolve("ONB_Z35072001", "../00000001.jp2");
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectAbsoluteLocation() throws Exception {
+        new PairtreeFileResolver("/tmp/scape/onb", "onb").resolve("ONB_Z35072001", "/etc/passwd");
+    }
+}
@@ -0,0 +1,66 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import eu.scape_project.util.SpillingOutputStream;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class SpillingOutputStreamTest {
+
+    @Test
+    public void testKeepInMemory() throws Exception {
+        SpillingOutputStream sink = new SpillingOutputStream(16, null);
+        sink.write("<dc:title/>".getBytes());
+        assertFalse(sink.isSpilled());
+        assertEquals("<dc:title/>", IOUtils.toString(sink.getInputStream()));
+    }
+
+    @Test
+    public void testSpillToDiskAndReuse() throws Exception {
+        SpillingOutputStream sink = new SpillingOutputStream(16, null);
+        sink.write("<dc:title>".getBytes());
+        sink.write("a rather long title</dc:title>".getBytes());
+        assertTrue(sink.isSpilled());
+        assertEquals(40, sink.size());
+        assertEquals("<dc:title>a rather long title</dc:title>", IOUtils.toString(sink.getInputStream()));
+
+        sink.reset();
+        assertFalse(sink.isSpilled());
+        sink.write("<dc:title/>".getBytes());
+        assertEquals("<dc:title/>", IOUtils.toString(sink.getInputStream()));
+    }
+
+    @Test
+    public void testReleaseLargeBuffer() throws Exception {
+        SpillingOutputStream sink = new SpillingOutputStream(1024 * 1024, null);
+        sink.write(new byte[SpillingOutputStream.RETAINED_CAPACITY * 2]);
+        assertFalse(sink.isSpilled());
+        assertTrue(sink.getCapacity() > SpillingOutputStream.RETAINED_CAPACITY);
+
+        sink.reset();
+        assertTrue(sink.getCapacity() <= SpillingOutputStream.RETAINED_CAPACITY);
+        sink.write("<dc:title/>".getBytes());
+        assertEquals("<dc:title/>", IOUtils.toString(sink.getInputStream()));
+    }
+}
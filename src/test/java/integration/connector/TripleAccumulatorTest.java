@@ -0,0 +1,47 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package integration.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import eu.scape_project.service.TripleAccumulator;
+
+/**
+ * @author frank asseg
+ *
+ */
+public class TripleAccumulatorTest {
+
+    @Test
+    public void testEscapeLiterals() throws Exception {
+        TripleAccumulator triples = new TripleAccumulator();
+        triples.addLiteral("http://localhost/rest/file-1", "scape:hasFilename", "a \"quoted\"\\name\n");
+        assertTrue(triples.toSparql().contains("<http://localhost/rest/file-1> scape:hasFilename \"a \\\"quoted\\\"\\\\name\\n\" . "));
+    }
+
+    @Test
+    public void testSingleUpdateForManyObjects() throws Exception {
+        TripleAccumulator triples = new TripleAccumulator();
+        for (int i = 0; i < 1000; i++) {
+            triples.addLiteral("http://localhost/rest/file-" + i, "scape:hasType", "file");
+            triples.addResource("http://localhost/rest/rep", "scape:hasFile", "http://localhost/rest/file-" + i);
+        }
+        assertEquals(2000, triples.size());
+        final String sparql = triples.toSparql();
+        assertEquals(sparql.indexOf("INSERT DATA"), sparql.lastIndexOf("INSERT DATA"));
+    }
+}